@@ -226,6 +226,7 @@ public class ConfigWindow {
   private JCheckBox replayPanelRecordKBMouseCheckbox;
   private JCheckBox replayPanelParseOpcodesCheckbox;
   private JCheckBox replayPanelFastDisconnectCheckbox;
+  private JCheckBox replayPanelInMemoryPlaybackCheckbox;
   private JCheckBox replayPanelRecordAutomaticallyCheckbox;
   private JCheckBox replayPanelHidePrivateMessagesCheckbox;
   private JCheckBox replayPanelShowSeekBarCheckbox;
@@ -1567,6 +1568,11 @@ public class ConfigWindow {
     replayPanelFastDisconnectCheckbox.setToolTipText(
         "When a disconnect happens in replay playback, it will reconnect as quick as it can");
 
+    replayPanelInMemoryPlaybackCheckbox =
+        addCheckbox("Play replays without a local network port", replayPanel);
+    replayPanelInMemoryPlaybackCheckbox.setToolTipText(
+        "Hands replay data to the client in memory instead of through a local socket");
+
     addSettingsHeader(replayPanel, "Interface modifications");
 
     replayPanelShowSeekBarCheckbox = addCheckbox("Show seek bar during replay", replayPanel);
@@ -2268,6 +2274,8 @@ public class ConfigWindow {
         Settings.PARSE_OPCODES.get(Settings.currentProfile));
     replayPanelFastDisconnectCheckbox.setSelected(
         Settings.FAST_DISCONNECT.get(Settings.currentProfile));
+    replayPanelInMemoryPlaybackCheckbox.setSelected(
+        Settings.IN_MEMORY_PLAYBACK.get(Settings.currentProfile));
     replayPanelRecordKBMouseCheckbox.setSelected(
         Settings.RECORD_KB_MOUSE.get(Settings.currentProfile));
     replayPanelHidePrivateMessagesCheckbox.setSelected(
@@ -2462,6 +2470,8 @@ public class ConfigWindow {
         Settings.currentProfile, replayPanelParseOpcodesCheckbox.isSelected());
     Settings.FAST_DISCONNECT.put(
         Settings.currentProfile, replayPanelFastDisconnectCheckbox.isSelected());
+    Settings.IN_MEMORY_PLAYBACK.put(
+        Settings.currentProfile, replayPanelInMemoryPlaybackCheckbox.isSelected());
     Settings.RECORD_KB_MOUSE.put(
         Settings.currentProfile, replayPanelRecordKBMouseCheckbox.isSelected());
     Settings.HIDE_PRIVATE_MSGS_REPLAY.put(
@@ -20,18 +20,61 @@ package Client;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
+/**
+ * A gzip stream that can be flushed mid-stream, so a recording can still be read after a crash.
+ *
+ * <p>Data is compressed normally until {@link #flush()} is called, which does a SYNC_FLUSH to push
+ * everything written so far out to the file. Every {@code fullFlushIntervalMs} the flush is a
+ * FULL_FLUSH instead, which also resets the compression history so the stream can be recovered from
+ * that point if earlier data gets corrupted. Flushing is the caller's job, so how often it happens
+ * decides the trade-off between compression ratio and how much can be lost in a crash.
+ */
 public class FlushableGZIPOutputStream extends GZIPOutputStream {
+  /** Never do a full flush */
+  public static final long FULL_FLUSH_NEVER = -1;
+
+  public static final long DEFAULT_FULL_FLUSH_INTERVAL_MS = 60000;
+
+  private final long m_fullFlushIntervalNanos;
+  private long m_lastFullFlush;
+
   public FlushableGZIPOutputStream(OutputStream out) throws IOException {
+    this(out, DEFAULT_FULL_FLUSH_INTERVAL_MS);
+  }
+
+  /**
+   * @param out the stream to write to
+   * @param fullFlushIntervalMs the minimum time between full flushes, or {@link #FULL_FLUSH_NEVER}
+   */
+  public FlushableGZIPOutputStream(OutputStream out, long fullFlushIntervalMs) throws IOException {
     super(out);
+    m_fullFlushIntervalNanos =
+        fullFlushIntervalMs < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(fullFlushIntervalMs);
+    m_lastFullFlush = System.nanoTime();
   }
 
   @Override
-  protected void deflate() throws IOException {
-    // Use SYNC_FLUSH to sync immediately
-    int len = def.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
-    if (len > 0) out.write(buf, 0, len);
+  public synchronized void flush() throws IOException {
+    if (!def.finished()) {
+      int mode = Deflater.SYNC_FLUSH;
+      if (m_fullFlushIntervalNanos >= 0) {
+        long now = System.nanoTime();
+        if (now - m_lastFullFlush >= m_fullFlushIntervalNanos) {
+          mode = Deflater.FULL_FLUSH;
+          m_lastFullFlush = now;
+        }
+      }
+
+      int len;
+      while ((len = def.deflate(buf, 0, buf.length, mode)) > 0) {
+        out.write(buf, 0, len);
+        if (len < buf.length) break;
+      }
+    }
+    out.flush();
   }
 }
@@ -0,0 +1,228 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Client;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * The patch applied to all classes, done while the class streams from a reader to a writer.
+ *
+ * <p>Calls to System.out.println are routed to Logger.Game, and the hooked game variables are
+ * mirrored into their Game class counterparts wherever they're accessed.
+ */
+class GenericPatchVisitor extends ClassVisitor {
+  /** A hooked game variable, see JClassPatcher.hookClassVariable() */
+  static class FieldHook {
+    private static final int TYPE_CLASS = 0;
+    private static final int TYPE_CONDITIONAL_CLASS = 1;
+    private static final int TYPE_STATIC = 2;
+
+    private final int type;
+    private final String desc;
+    private final String newClass;
+    private final String newVar;
+    private final String newDesc;
+    private final boolean canRead;
+    private final boolean canWrite;
+    private final String boolTrigger;
+
+    private FieldHook(
+        int type,
+        String desc,
+        String newClass,
+        String newVar,
+        String newDesc,
+        boolean canRead,
+        boolean canWrite,
+        String boolTrigger) {
+      this.type = type;
+      this.desc = desc;
+      this.newClass = newClass;
+      this.newVar = newVar;
+      this.newDesc = newDesc;
+      this.canRead = canRead;
+      this.canWrite = canWrite;
+      this.boolTrigger = boolTrigger;
+    }
+  }
+
+  /** The hooked variables, by owner and then by name */
+  static class FieldHooks {
+    private final Map<String, Map<String, FieldHook>> m_hooks = new HashMap<>();
+
+    void addClassVariable(
+        String owner,
+        String var,
+        String desc,
+        String newClass,
+        String newVar,
+        String newDesc,
+        boolean canRead,
+        boolean canWrite) {
+      add(
+          owner,
+          var,
+          new FieldHook(
+              FieldHook.TYPE_CLASS, desc, newClass, newVar, newDesc, canRead, canWrite, null));
+    }
+
+    void addConditionalClassVariable(
+        String owner,
+        String var,
+        String desc,
+        String newClass,
+        String newVar,
+        String newDesc,
+        boolean canRead,
+        boolean canWrite,
+        String boolTrigger) {
+      add(
+          owner,
+          var,
+          new FieldHook(
+              FieldHook.TYPE_CONDITIONAL_CLASS,
+              desc,
+              newClass,
+              newVar,
+              newDesc,
+              canRead,
+              canWrite,
+              boolTrigger));
+    }
+
+    void addStaticVariable(
+        String owner, String var, String desc, String newClass, String newVar, String newDesc) {
+      add(
+          owner,
+          var,
+          new FieldHook(FieldHook.TYPE_STATIC, desc, newClass, newVar, newDesc, true, true, null));
+    }
+
+    private void add(String owner, String var, FieldHook hook) {
+      Map<String, FieldHook> vars = m_hooks.get(owner);
+      if (vars == null) {
+        vars = new HashMap<>();
+        m_hooks.put(owner, vars);
+      }
+      if (vars.put(var, hook) != null)
+        throw new IllegalArgumentException(owner + "." + var + " is hooked twice");
+    }
+
+    private FieldHook get(String owner, String var, String desc) {
+      Map<String, FieldHook> vars = m_hooks.get(owner);
+      if (vars == null) return null;
+      FieldHook hook = vars.get(var);
+      if (hook == null || !hook.desc.equals(desc)) return null;
+      return hook;
+    }
+  }
+
+  private final FieldHooks m_hooks;
+
+  GenericPatchVisitor(ClassVisitor cv, FieldHooks hooks) {
+    super(Opcodes.ASM5, cv);
+    m_hooks = hooks;
+  }
+
+  @Override
+  public MethodVisitor visitMethod(
+      int access, String name, String desc, String signature, String[] exceptions) {
+    MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+    if (mv == null) return null;
+    return new GenericPatchMethodVisitor(mv);
+  }
+
+  private class GenericPatchMethodVisitor extends MethodVisitor {
+    GenericPatchMethodVisitor(MethodVisitor mv) {
+      super(Opcodes.ASM5, mv);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+      // Patch calls to System.out.println and route them to Logger.Game
+      if (opcode == Opcodes.INVOKEVIRTUAL
+          && owner.equals("java/io/PrintStream")
+          && name.equals("println")) {
+        super.visitMethodInsn(
+            Opcodes.INVOKESTATIC, "Client/Logger", "Game", "(Ljava/lang/String;)V", false);
+        super.visitInsn(Opcodes.POP);
+        return;
+      }
+      super.visitMethodInsn(opcode, owner, name, desc, itf);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+      FieldHook hook = m_hooks.get(owner, name, desc);
+      if (hook == null) {
+        super.visitFieldInsn(opcode, owner, name, desc);
+        return;
+      }
+
+      boolean isStatic = opcode == Opcodes.GETSTATIC || opcode == Opcodes.PUTSTATIC;
+      if (hook.type == FieldHook.TYPE_STATIC) {
+        if (isStatic) super.visitFieldInsn(opcode, hook.newClass, hook.newVar, hook.newDesc);
+        else super.visitFieldInsn(opcode, owner, name, desc);
+        return;
+      }
+
+      if (opcode == Opcodes.PUTFIELD && hook.canRead) super.visitInsn(Opcodes.DUP_X1);
+      super.visitFieldInsn(opcode, owner, name, desc);
+      if (isStatic) return;
+
+      if (hook.type == FieldHook.TYPE_CLASS) {
+        if (opcode == Opcodes.GETFIELD && hook.canWrite) {
+          super.visitInsn(Opcodes.POP);
+          super.visitFieldInsn(Opcodes.GETSTATIC, hook.newClass, hook.newVar, hook.newDesc);
+        } else if (opcode == Opcodes.PUTFIELD && hook.canRead) {
+          super.visitFieldInsn(Opcodes.PUTSTATIC, hook.newClass, hook.newVar, hook.newDesc);
+        }
+      } else if (opcode == Opcodes.GETFIELD && hook.canWrite) {
+        Label label = new Label();
+        visitTrigger(hook);
+        super.visitJumpInsn(Opcodes.IFEQ, label);
+        super.visitInsn(Opcodes.POP);
+        super.visitFieldInsn(Opcodes.GETSTATIC, hook.newClass, hook.newVar, hook.newDesc);
+        super.visitLabel(label);
+      } else if (opcode == Opcodes.PUTFIELD && hook.canRead) {
+        Label label = new Label();
+        Label labelEnd = new Label();
+        visitTrigger(hook);
+        super.visitJumpInsn(Opcodes.IFEQ, label);
+        super.visitFieldInsn(Opcodes.PUTSTATIC, hook.newClass, hook.newVar, hook.newDesc);
+        super.visitJumpInsn(Opcodes.GOTO, labelEnd);
+        super.visitLabel(label);
+        super.visitInsn(Opcodes.POP);
+        super.visitLabel(labelEnd);
+      }
+    }
+
+    /** Pushes the setting that turns a conditional hook on */
+    private void visitTrigger(FieldHook hook) {
+      super.visitMethodInsn(
+          Opcodes.INVOKESTATIC, "Client/Settings", "updateInjectedVariables", "()V", false);
+      super.visitFieldInsn(Opcodes.GETSTATIC, "Client/Settings", hook.boolTrigger, "Z");
+    }
+  }
+}
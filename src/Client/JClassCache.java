@@ -0,0 +1,173 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * Patched classes kept on disk, so launching again with the same jar skips patching.
+ *
+ * <p>The classes are stored in a single zip whose comment is the key they were made with. The key
+ * is a digest of the game jar, of the patcher's (including {@link GenericPatchVisitor}) and ASM's
+ * own bytecode, and of the settings the patches depend on, so the cache goes stale and gets
+ * written again if any of them change.
+ */
+public class JClassCache {
+  public static final String FILE_NAME = "patched-classes.zip";
+
+  private final File m_file;
+  private final String m_key;
+
+  /**
+   * @param file the cache file
+   * @param key the key of the classes, from {@link #createKey(byte[])}
+   */
+  public JClassCache(File file, String key) {
+    m_file = file;
+    m_key = key;
+  }
+
+  /**
+   * Makes the key of the classes patched from a jar with the current settings.
+   *
+   * @param jar the game jar
+   * @return the key
+   * @throws IOException if the patcher's bytecode can't be read
+   */
+  public static String createKey(byte[] jar) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    digest.update(jar);
+    digest.update(readClass(JClassPatcher.class));
+    // The patch applied to all classes, with its hook tables and method visitor
+    digest.update(readClass(GenericPatchVisitor.class));
+    Class<?>[] nested = GenericPatchVisitor.class.getDeclaredClasses();
+    // In no particular order otherwise
+    Arrays.sort(
+        nested,
+        new Comparator<Class<?>>() {
+          @Override
+          public int compare(Class<?> a, Class<?> b) {
+            return a.getName().compareTo(b.getName());
+          }
+        });
+    for (Class<?> c : nested) digest.update(readClass(c));
+    digest.update(readClass(ClassWriter.class));
+    digest.update(JClassPatcher.getInstance().getSettingsKey().getBytes(StandardCharsets.UTF_8));
+    return Util.byteHexString(digest.digest());
+  }
+
+  public File getFile() {
+    return m_file;
+  }
+
+  /** @return the cached classes by name, or null if there are none for this key */
+  public Map<String, byte[]> load() throws IOException {
+    if (!m_file.isFile()) return null;
+
+    ZipFile zip = new ZipFile(m_file);
+    try {
+      if (!m_key.equals(zip.getComment())) return null;
+
+      Map<String, byte[]> classes = new HashMap<>();
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        String name = entry.getName();
+        if (!name.endsWith(".class")) continue;
+
+        InputStream in = zip.getInputStream(entry);
+        try {
+          classes.put(name.substring(0, name.length() - ".class".length()), readFully(in));
+        } finally {
+          in.close();
+        }
+      }
+      return classes;
+    } finally {
+      zip.close();
+    }
+  }
+
+  /**
+   * Replaces the cache with these classes. They're written next to it first, so a launch that
+   * stops halfway doesn't leave a broken cache behind.
+   *
+   * @param classes the patched classes by name
+   */
+  public void save(Map<String, byte[]> classes) throws IOException {
+    File temp = new File(m_file.getPath() + ".tmp");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(temp));
+    try {
+      // Inflating has to stay cheap next to defining the classes
+      out.setLevel(Deflater.BEST_SPEED);
+      out.setComment(m_key);
+      for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+        out.putNextEntry(new ZipEntry(entry.getKey() + ".class"));
+        out.write(entry.getValue());
+        out.closeEntry();
+      }
+    } finally {
+      out.close();
+    }
+    Files.move(temp.toPath(), m_file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static byte[] readClass(Class<?> c) throws IOException {
+    String name = c.getName();
+    InputStream in = c.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class");
+    if (in == null) throw new IOException("Unable to read " + name);
+    try {
+      return readFully(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] data = new byte[4096];
+    int readSize;
+    while ((readSize = in.read(data, 0, data.length)) != -1) out.write(data, 0, readSize);
+    return out.toByteArray();
+  }
+}
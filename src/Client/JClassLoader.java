@@ -18,20 +18,40 @@
  */
 package Client;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 
 /** Deals with fetching, loading, and patching a modified RSC jar. */
 public class JClassLoader extends ClassLoader {
+  /** Number of threads patching classes, while the jar is read on the fetching thread */
+  public static final int PATCH_THREADS =
+      Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors()));
 
-  /** Stores class names and the corresponding class byte data */
+  /** Stores class names and the corresponding class byte data, until the class is defined */
   private Map<String, byte[]> m_classData = new HashMap<>();
 
+  /** Classes that get patched when they're first loaded, in lazy class loading */
+  private Map<String, byte[]> m_unpatchedClassData = new HashMap<>();
+
   /**
-   * Fetches the game jar and loads and patches the classes
+   * Fetches the game jar and loads and patches the classes, or loads them from the patched class
+   * cache if they were patched the same way before. With lazy class loading, the classes are only
+   * read here and each is patched when it's first loaded.
    *
    * @param jarURL The URL of the jar to be loaded and patched
    * @return If no exceptions occurred
@@ -40,43 +60,204 @@ public class JClassLoader extends ClassLoader {
     Logger.Info("Fetching Jar: " + jarURL);
 
     try {
-      JarInputStream in = new JarInputStream(Settings.getResourceAsStream(jarURL));
+      long start = System.nanoTime();
+      byte[] jar = JClassCache.readFully(Settings.getResourceAsStream(jarURL));
       Launcher.getInstance().setProgress(1, 1);
+      long fetched = System.nanoTime();
+
+      // Dumping needs every class to be patched
+      if (Settings.LAZY_CLASS_LOADING.get(Settings.currentProfile)
+          && !Settings.DISASSEMBLE.get(Settings.currentProfile)) {
+        readAll(jar);
+        Logger.Info(
+            String.format(
+                "Startup timing: fetch %d ms, read %d ms (%d classes, patched when loaded)",
+                millis(start, fetched),
+                millis(fetched, System.nanoTime()),
+                m_unpatchedClassData.size()));
+        return true;
+      }
+
+      JClassCache cache = openCache(jar);
+      long keyed = System.nanoTime();
+      if (cache != null && loadCache(cache)) {
+        Logger.Info(
+            String.format(
+                "Startup timing: fetch %d ms, cache key %d ms, cache load %d ms (%d classes)",
+                millis(start, fetched),
+                millis(fetched, keyed),
+                millis(keyed, System.nanoTime()),
+                m_classData.size()));
+        return true;
+      }
+
+      long patchTime = patchAll(jar);
+      long patched = System.nanoTime();
+      if (cache != null) saveCache(cache);
+      Logger.Info(
+          String.format(
+              "Startup timing: fetch %d ms, cache key %d ms, patch %d ms (%d classes on %d threads,"
+                  + " %d ms of patching), cache save %d ms",
+              millis(start, fetched),
+              millis(fetched, keyed),
+              millis(keyed, patched),
+              m_classData.size(),
+              PATCH_THREADS,
+              patchTime / 1000000,
+              millis(patched, System.nanoTime())));
+    } catch (Exception e) {
+      e.printStackTrace();
+      return false;
+    }
+    return true;
+  }
 
+  /**
+   * Patches the classes of the jar on {@link #PATCH_THREADS} threads. Entries are read and handed
+   * to the pool one by one, so patching starts before the whole jar is read.
+   *
+   * @return the time spent patching on all threads together, in nanoseconds
+   */
+  private long patchAll(byte[] jar) throws IOException, InterruptedException, ExecutionException {
+    final JClassPatcher patcher = JClassPatcher.getInstance();
+    final AtomicLong patchTime = new AtomicLong(0);
+    ExecutorService pool =
+        Executors.newFixedThreadPool(
+            PATCH_THREADS,
+            new ThreadFactory() {
+              private final AtomicInteger count = new AtomicInteger(0);
+
+              @Override
+              public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "JClassPatcher-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+
+    try {
+      Launcher.getInstance().setStatus("Patching classes...");
+      Map<String, Future<byte[]>> patched = new LinkedHashMap<>();
+      JarInputStream in = new JarInputStream(new ByteArrayInputStream(jar));
       JarEntry entry;
       while ((entry = in.getNextJarEntry()) != null) {
         // Check if file is needed
         String name = entry.getName();
-
-        // Read class to byte array
-        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
-        byte[] data = new byte[1024];
-        int readSize;
-        while ((readSize = in.read(data, 0, data.length)) != -1) bOut.write(data, 0, readSize);
-        byte[] classData = bOut.toByteArray();
-        bOut.close();
+        final byte[] classData = readEntry(in);
 
         Logger.Info("Loading file: " + name);
-        Launcher.getInstance().setStatus("Loading " + name + "...");
 
         if (name.endsWith(".class")) {
           name = name.substring(0, name.indexOf(".class"));
-          classData = JClassPatcher.getInstance().patch(classData);
-          m_classData.put(name, classData);
+          patched.put(
+              name,
+              pool.submit(
+                  new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() {
+                      long start = System.nanoTime();
+                      byte[] result = patcher.patch(classData);
+                      patchTime.addAndGet(System.nanoTime() - start);
+                      return result;
+                    }
+                  }));
         }
       }
       in.close();
-    } catch (Exception e) {
+
+      int done = 0;
+      for (Map.Entry<String, Future<byte[]>> result : patched.entrySet()) {
+        m_classData.put(result.getKey(), result.getValue().get());
+        Launcher.getInstance().setProgress(++done, patched.size());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return patchTime.get();
+  }
+
+  /** Reads the classes of the jar without patching them. */
+  private void readAll(byte[] jar) throws IOException {
+    JarInputStream in = new JarInputStream(new ByteArrayInputStream(jar));
+    JarEntry entry;
+    while ((entry = in.getNextJarEntry()) != null) {
+      String name = entry.getName();
+      byte[] classData = readEntry(in);
+      if (name.endsWith(".class"))
+        m_unpatchedClassData.put(name.substring(0, name.indexOf(".class")), classData);
+    }
+    in.close();
+  }
+
+  /** Reads the current entry of the jar to a byte array. */
+  private static byte[] readEntry(JarInputStream in) throws IOException {
+    ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+    byte[] data = new byte[1024];
+    int readSize;
+    while ((readSize = in.read(data, 0, data.length)) != -1) bOut.write(data, 0, readSize);
+    bOut.close();
+    return bOut.toByteArray();
+  }
+
+  private static long millis(long start, long end) {
+    return (end - start) / 1000000;
+  }
+
+  /** @return the patched class cache for this jar, or null if it can't be used */
+  private JClassCache openCache(byte[] jar) {
+    // Dumping the classes happens while patching them
+    if (Settings.DISASSEMBLE.get(Settings.currentProfile)) return null;
+
+    try {
+      File file = new File(Settings.Dir.JAR, JClassCache.FILE_NAME);
+      return new JClassCache(file, JClassCache.createKey(jar));
+    } catch (IOException e) {
+      Logger.Warn("Unable to use the patched class cache");
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private boolean loadCache(JClassCache cache) {
+    Launcher.getInstance().setStatus("Loading patched classes...");
+    try {
+      Map<String, byte[]> classes = cache.load();
+      if (classes == null) {
+        Logger.Info("Patched class cache is missing or out of date");
+        return false;
+      }
+      m_classData.putAll(classes);
+      return true;
+    } catch (IOException e) {
+      Logger.Warn("Unable to read the patched class cache " + cache.getFile());
       e.printStackTrace();
       return false;
     }
-    return true;
+  }
+
+  private void saveCache(JClassCache cache) {
+    try {
+      cache.save(m_classData);
+    } catch (IOException e) {
+      Logger.Warn("Unable to write the patched class cache " + cache.getFile());
+      e.printStackTrace();
+    }
   }
 
   @Override
   public final Class<?> findClass(String name) {
-    byte[] data = m_classData.get(name);
-    if (data == null) return null;
+    // A class is only defined once, so its bytes aren't needed after this
+    byte[] data = m_classData.remove(name);
+    if (data == null) {
+      byte[] unpatched = m_unpatchedClassData.remove(name);
+      if (unpatched == null) return null;
+
+      long start = System.nanoTime();
+      data = JClassPatcher.getInstance().patch(unpatched);
+      Logger.Debug(
+          String.format(
+              "Patched %s when loading it in %d ms", name, millis(start, System.nanoTime())));
+    }
 
     return defineClass(name, data, 0, data.length);
   }
@@ -24,7 +24,10 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
@@ -52,609 +55,524 @@ public class JClassPatcher {
   // Singleton
   private static JClassPatcher instance = null;
 
-  private Printer printer = new Textifier();
-  private TraceMethodVisitor mp = new TraceMethodVisitor(printer);
+  /** Classes with their own patches, these are read into a tree first */
+  private static final Set<String> TARGETED_CLASSES =
+      new HashSet<>(Arrays.asList("ua", "e", "qa", "m", "client", "f", "da", "lb"));
+
+  // Hooks of the generic patch, built for the settings key they were made with
+  private GenericPatchVisitor.FieldHooks m_genericHooks = null;
+  private String m_genericHooksKey = null;
 
   private JClassPatcher() {
     // Empty private constructor to prevent extra instances from being created.
   }
 
+  /**
+   * Patches a class. Classes don't depend on each other, so they can be patched on several threads.
+   *
+   * @param data The class bytes
+   * @return The patched class bytes
+   */
   public byte[] patch(byte[] data) {
     ClassReader reader = new ClassReader(data);
-    ClassNode node = new ClassNode();
-    reader.accept(node, ClassReader.SKIP_DEBUG);
-
-    if (node.name.equals("ua")) patchRenderer(node);
-    else if (node.name.equals("e")) patchApplet(node);
-    else if (node.name.equals("qa")) patchMenu(node);
-    else if (node.name.equals("m")) patchData(node);
-    else if (node.name.equals("client")) patchClient(node);
-    else if (node.name.equals("f")) patchRandom(node);
-    else if (node.name.equals("da")) patchGameApplet(node);
-    else if (node.name.equals("lb")) patchRendererHelper(node);
+    String name = reader.getClassName();
 
     // Patch applied to all classes
-    patchGeneric(node);
+    GenericPatchVisitor.FieldHooks hooks = getGenericHooks();
+
+    ClassWriter writer;
+    if (TARGETED_CLASSES.contains(name)) {
+      ClassNode node = new ClassNode();
+      reader.accept(node, ClassReader.SKIP_DEBUG);
+
+      if (node.name.equals("ua")) patchRenderer(node);
+      else if (node.name.equals("e")) patchApplet(node);
+      else if (node.name.equals("qa")) patchMenu(node);
+      else if (node.name.equals("m")) patchData(node);
+      else if (node.name.equals("client")) patchClient(node);
+      else if (node.name.equals("f")) patchRandom(node);
+      else if (node.name.equals("da")) patchGameApplet(node);
+      else if (node.name.equals("lb")) patchRendererHelper(node);
+
+      writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+      node.accept(new GenericPatchVisitor(writer, hooks));
+    } else {
+      // Goes straight from the reader to the writer, which starts from the class's constant pool
+      writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+      reader.accept(new GenericPatchVisitor(writer, hooks), ClassReader.SKIP_DEBUG);
+    }
+    byte[] patched = writer.toByteArray();
 
     if (Settings.DISASSEMBLE.get(Settings.currentProfile)) {
       Settings.Dir.DUMP = Dir.JAR + "/" + Settings.DISASSEMBLE_DIRECTORY.get("custom");
       Util.makeDirectory(Dir.DUMP);
-      Logger.Info("Disassembling file: " + node.name + ".class");
+      Logger.Info("Disassembling file: " + name + ".class");
+      ClassNode node = new ClassNode();
+      new ClassReader(patched).accept(node, ClassReader.SKIP_DEBUG);
       dumpClass(node);
     }
 
-    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-    node.accept(writer);
-    return writer.toByteArray();
+    return patched;
   }
 
-  private void patchGeneric(ClassNode node) {
-    Iterator<MethodNode> methodNodeList = node.methods.iterator();
-    while (methodNodeList.hasNext()) {
-      MethodNode methodNode = methodNodeList.next();
-
-      // General byte patch
-      Iterator<AbstractInsnNode> insnNodeList = methodNode.instructions.iterator();
-      while (insnNodeList.hasNext()) {
-        AbstractInsnNode insnNode = insnNodeList.next();
-
-        if (insnNode.getOpcode() == Opcodes.INVOKEVIRTUAL) {
-          MethodInsnNode call = (MethodInsnNode) insnNode;
-
-          // Patch calls to System.out.println and route them to Logger.Game
-          if (call.owner.equals("java/io/PrintStream") && call.name.equals("println")) {
-            methodNode.instructions.insertBefore(
-                insnNode,
-                new MethodInsnNode(
-                    Opcodes.INVOKESTATIC, "Client/Logger", "Game", "(Ljava/lang/String;)V"));
-            methodNode.instructions.insertBefore(insnNode, new InsnNode(Opcodes.POP));
-            methodNode.instructions.remove(insnNode);
-          }
-        }
-      }
-
-      hookClassVariable(
-          methodNode,
-          "ua",
-          "fb",
-          "Ljava/awt/image/ImageConsumer;",
-          "Game/Renderer",
-          "image_consumer",
-          "Ljava/awt/image/ImageConsumer;",
-          true,
-          true);
-      hookClassVariable(methodNode, "ua", "u", "I", "Game/Renderer", "width", "I", false, true);
-      hookClassVariable(methodNode, "ua", "k", "I", "Game/Renderer", "height", "I", false, true);
-      hookClassVariable(methodNode, "ua", "rb", "[I", "Game/Renderer", "pixels", "[I", true, true);
-
-      hookClassVariable(
-          methodNode,
-          "e",
-          "Ob",
-          "Ljava/lang/String;",
-          "Game/Client",
-          "pm_enteredText",
-          "Ljava/lang/String;",
-          true,
-          true);
-      hookClassVariable(
-          methodNode,
-          "client",
-          "Ob",
-          "Ljava/lang/String;",
-          "Game/Client",
-          "pm_enteredText",
-          "Ljava/lang/String;",
-          true,
-          true);
-      hookClassVariable(
-          methodNode,
-          "e",
-          "x",
-          "Ljava/lang/String;",
-          "Game/Client",
-          "pm_text",
-          "Ljava/lang/String;",
-          true,
-          true);
-      hookClassVariable(
-          methodNode,
-          "client",
-          "x",
-          "Ljava/lang/String;",
-          "Game/Client",
-          "pm_text",
-          "Ljava/lang/String;",
-          true,
-          true);
-
-      hookClassVariable(
-          methodNode,
-          "client",
-          "li",
-          "Lba;",
-          "Game/Renderer",
-          "instance",
-          "Ljava/lang/Object;",
-          true,
-          false);
-
-      hookClassVariable(methodNode, "ba", "u", "I", "Game/Renderer", "width", "I", false, true);
-      hookClassVariable(methodNode, "ba", "k", "I", "Game/Renderer", "height", "I", false, true);
-      hookClassVariable(methodNode, "ba", "rb", "[I", "Game/Renderer", "pixels", "[I", true, true);
-
-      hookStaticVariable(methodNode, "n", "g", "I", "Game/Client", "friends_count", "I");
-      hookStaticVariable(
-          methodNode,
-          "ua",
-          "h",
-          "[Ljava/lang/String;",
-          "Game/Client",
-          "friends",
-          "[Ljava/lang/String;");
-      hookStaticVariable(
-          methodNode,
-          "ac",
-          "z",
-          "[Ljava/lang/String;",
-          "Game/Client",
-          "friends_world",
-          "[Ljava/lang/String;");
-      hookStaticVariable(
-          methodNode,
-          "cb",
-          "c",
-          "[Ljava/lang/String;",
-          "Game/Client",
-          "friends_formerly",
-          "[Ljava/lang/String;");
-      hookStaticVariable(methodNode, "client", "Fj", "[I", "Game/Client", "friends_online", "[I");
-
-      hookStaticVariable(methodNode, "db", "g", "I", "Game/Client", "ignores_count", "I");
-      hookStaticVariable(
-          methodNode,
-          "l",
-          "c",
-          "[Ljava/lang/String;",
-          "Game/Client",
-          "ignores",
-          "[Ljava/lang/String;");
-      hookStaticVariable(
-          methodNode,
-          "ia",
-          "g",
-          "[Ljava/lang/String;",
-          "Game/Client",
-          "ignores_formerly",
-          "[Ljava/lang/String;");
-      hookStaticVariable(
-          methodNode,
-          "ia",
-          "a",
-          "[Ljava/lang/String;",
-          "Game/Client",
-          "ignores_copy",
-          "[Ljava/lang/String;");
-      hookStaticVariable(
-          methodNode,
-          "ua",
-          "wb",
-          "[Ljava/lang/String;",
-          "Game/Client",
-          "ignores_formerly_copy",
-          "[Ljava/lang/String;");
-
-      hookClassVariable(
-          methodNode, "client", "Wd", "I", "Game/Renderer", "width", "I", false, true);
-      hookClassVariable(
-          methodNode, "client", "Oi", "I", "Game/Renderer", "height_client", "I", false, true);
-
-      hookClassVariable(methodNode, "e", "m", "I", "Game/Renderer", "width", "I", false, true);
-      hookClassVariable(methodNode, "e", "a", "I", "Game/Renderer", "height", "I", false, true);
-      hookClassVariable(
-          methodNode, "e", "Ib", "I", "Game/Replay", "frame_time_slice", "I", true, true);
-      hookClassVariable(
-          methodNode, "client", "fc", "I", "Game/Replay", "connection_port", "I", true, true);
-
-      hookClassVariable(methodNode, "lb", "pb", "[I", "Game/Renderer", "pixels", "[I", true, true);
-
-      hookStaticVariable(
-          methodNode,
-          "client",
-          "il",
-          "[Ljava/lang/String;",
-          "Game/Client",
-          "strings",
-          "[Ljava/lang/String;");
-
-      hookStaticVariable(
-          methodNode,
-          "ac",
-          "x",
-          "[Ljava/lang/String;",
-          "Game/Item",
-          "item_name",
-          "[Ljava/lang/String;");
-      hookStaticVariable(
-          methodNode,
-          "lb",
-          "ac",
-          "[Ljava/lang/String;",
-          "Game/Item",
-          "item_commands",
-          "[Ljava/lang/String;");
-
-      hookConditionalClassVariable(
-          methodNode,
-          "lb",
-          "Mb",
-          "I",
-          "Game/Camera",
-          "distance1",
-          "I",
-          false,
-          true,
-          "VIEW_DISTANCE_BOOL");
-      hookConditionalClassVariable(
-          methodNode,
-          "lb",
-          "X",
-          "I",
-          "Game/Camera",
-          "distance2",
-          "I",
-          false,
-          true,
-          "VIEW_DISTANCE_BOOL");
-      hookConditionalClassVariable(
-          methodNode,
-          "lb",
-          "P",
-          "I",
-          "Game/Camera",
-          "distance3",
-          "I",
-          false,
-          true,
-          "VIEW_DISTANCE_BOOL");
-      hookConditionalClassVariable(
-          methodNode,
-          "lb",
-          "G",
-          "I",
-          "Game/Camera",
-          "distance4",
-          "I",
-          false,
-          true,
-          "VIEW_DISTANCE_BOOL");
-
-      hookClassVariable(
-          methodNode, "client", "cl", "I", "Game/Client", "max_inventory", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "bk", "[Z", "Game/Client", "prayers_on", "[Z", true, false);
-      hookClassVariable(
-          methodNode,
-          "client",
-          "Fc",
-          "[I",
-          "Game/Client",
-          "current_equipment_stats",
-          "[I",
-          true,
-          false);
-      hookClassVariable(
-          methodNode, "client", "oh", "[I", "Game/Client", "current_level", "[I", true, false);
-      hookClassVariable(
-          methodNode, "client", "cg", "[I", "Game/Client", "base_level", "[I", true, false);
-      hookClassVariable(
-          methodNode,
-          "client",
-          "Vk",
-          "[Ljava/lang/String;",
-          "Game/Client",
-          "skill_name",
-          "[Ljava/lang/String;",
-          true,
-          false);
-      hookClassVariable(methodNode, "client", "Ak", "[I", "Game/Client", "xp", "[I", true, false);
-      hookClassVariable(
-          methodNode, "client", "vg", "I", "Game/Client", "fatigue", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "Fg", "I", "Game/Client", "combat_style", "I", true, true);
-      if (Settings.SAVE_LOGININFO.get(Settings.currentProfile))
-        hookClassVariable(
-            methodNode, "client", "Xd", "I", "Game/Client", "login_screen", "I", false, true);
-
-      hookClassVariable(
-          methodNode,
-          "client",
-          "Ek",
-          "Llb;",
-          "Game/Camera",
-          "instance",
-          "Ljava/lang/Object;",
-          true,
-          false);
-      hookConditionalClassVariable(
-          methodNode, "client", "qd", "I", "Game/Camera", "fov", "I", false, true, "FOV_BOOL");
-
-      hookClassVariable(
-          methodNode, "client", "ai", "I", "Game/Client", "combat_timer", "I", true, true);
-      hookClassVariable(
-          methodNode, "client", "Fe", "Z", "Game/Client", "show_bank", "Z", true, false);
-      hookClassVariable(
-          methodNode, "client", "dd", "Z", "Game/Client", "show_duel", "Z", true, false);
-      hookClassVariable(
-          methodNode, "client", "Pj", "Z", "Game/Client", "show_duelconfirm", "Z", true, false);
-      hookClassVariable(
-          methodNode, "client", "Bj", "I", "Game/Client", "show_friends", "I", true, true);
-      hookClassVariable(
-          methodNode, "client", "qc", "I", "Game/Client", "show_menu", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "Ph", "Z", "Game/Client", "show_questionmenu", "Z", true, false);
-      hookClassVariable(
-          methodNode, "client", "Vf", "I", "Game/Client", "show_report", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "uk", "Z", "Game/Client", "show_shop", "Z", true, false);
-      hookClassVariable(
-          methodNode, "client", "Qk", "Z", "Game/Client", "show_sleeping", "Z", true, false);
-      hookClassVariable(
-          methodNode, "client", "Hk", "Z", "Game/Client", "show_trade", "Z", true, false);
-      hookClassVariable(
-          methodNode, "client", "Xj", "Z", "Game/Client", "show_tradeconfirm", "Z", true, false);
-      hookClassVariable(
-          methodNode, "client", "Oh", "Z", "Game/Client", "show_welcome", "Z", true, true);
-
-      hookClassVariable(
-          methodNode,
-          "client",
-          "Qd",
-          "Ljava/lang/String;",
-          "Game/Client",
-          "pm_username",
-          "Ljava/lang/String;",
-          true,
-          true);
-
-      hookClassVariable(
-          methodNode,
-          "client",
-          "wh",
-          "Ljava/lang/String;",
-          "Game/Client",
-          "username_login",
-          "Ljava/lang/String;",
-          true,
-          true);
-      hookClassVariable(
-          methodNode, "client", "Vh", "I", "Game/Client", "autologin_timeout", "I", true, true);
-
-      hookClassVariable(
-          methodNode, "client", "lc", "I", "Game/Client", "inventory_count", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "vf", "[I", "Game/Client", "inventory_items", "[I", true, false);
-      hookConditionalClassVariable(
-          methodNode,
-          "client",
-          "kg",
-          "I",
-          "Game/Camera",
-          "lookat_x",
-          "I",
-          false,
-          true,
-          "CAMERA_MOVABLE_BOOL");
-      hookConditionalClassVariable(
-          methodNode,
-          "client",
-          "Si",
-          "I",
-          "Game/Camera",
-          "lookat_y",
-          "I",
-          false,
-          true,
-          "CAMERA_MOVABLE_BOOL");
-      hookClassVariable(
-          methodNode, "client", "Wc", "I", "Game/Camera", "auto_speed", "I", true, true);
-      hookClassVariable(
-          methodNode, "client", "Be", "I", "Game/Camera", "rotation_y", "I", true, true);
-      hookClassVariable(methodNode, "client", "Kh", "Z", "Game/Camera", "auto", "Z", true, true);
-      hookClassVariable(methodNode, "client", "si", "I", "Game/Camera", "angle", "I", true, true);
-
-      hookConditionalClassVariable(
-          methodNode,
-          "client",
-          "ug",
-          "I",
-          "Game/Camera",
-          "rotation",
-          "I",
-          false,
-          true,
-          "CAMERA_ROTATABLE_BOOL");
-      hookConditionalClassVariable(
-          methodNode,
-          "client",
-          "ac",
-          "I",
-          "Game/Camera",
-          "zoom",
-          "I",
-          false,
-          true,
-          "CAMERA_ZOOMABLE_BOOL");
-
-      // Chat menu
-      hookClassVariable(
-          methodNode,
-          "client",
-          "yd",
-          "Lqa;",
-          "Game/Menu",
-          "chat_menu",
-          "Ljava/lang/Object;",
-          true,
-          false);
-      hookClassVariable(
-          methodNode, "client", "Fh", "I", "Game/Menu", "chat_type1", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "bh", "I", "Game/Menu", "chat_input", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "ud", "I", "Game/Menu", "chat_type2", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "mc", "I", "Game/Menu", "chat_type3", "I", true, false);
-
-      // Quest menu
-      hookClassVariable(
-          methodNode,
-          "client",
-          "fe",
-          "Lqa;",
-          "Game/Menu",
-          "quest_menu",
-          "Ljava/lang/Object;",
-          true,
-          false);
-      hookClassVariable(
-          methodNode, "client", "lk", "I", "Game/Menu", "quest_handle", "I", true, false);
-
-      // Friends menu
-      hookClassVariable(
-          methodNode,
-          "client",
-          "zk",
-          "Lqa;",
-          "Game/Menu",
-          "friend_menu",
-          "Ljava/lang/Object;",
-          true,
-          false);
-      hookClassVariable(
-          methodNode, "client", "Hi", "I", "Game/Menu", "friend_handle", "I", true, false);
-
-      // Spell menu
-      hookClassVariable(
-          methodNode,
-          "client",
-          "Mc",
-          "Lqa;",
-          "Game/Menu",
-          "spell_menu",
-          "Ljava/lang/Object;",
-          true,
-          false);
-      hookClassVariable(
-          methodNode, "client", "Ud", "I", "Game/Menu", "spell_handle", "I", true, false);
-
-      // Player name
-      hookClassVariable(
-          methodNode,
-          "client",
-          "wi",
-          "Lta;",
-          "Game/Client",
-          "player_object",
-          "Ljava/lang/Object;",
-          true,
-          false);
-      // coordinates related
-      hookClassVariable(
-          methodNode, "client", "Qg", "I", "Game/Client", "regionX", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "zg", "I", "Game/Client", "regionY", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "Lf", "I", "Game/Client", "localRegionX", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "sh", "I", "Game/Client", "localRegionY", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "Ki", "I", "Game/Client", "planeWidth", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "sk", "I", "Game/Client", "planeHeight", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "bc", "I", "Game/Client", "planeIndex", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "Ub", "Z", "Game/Client", "loadingArea", "Z", true, false);
-
-      hookClassVariable(
-          methodNode, "client", "Ug", "I", "Game/Client", "tileSize", "I", true, false);
-
-      // Last mouse activity
-      // hookClassVariable(methodNode, "client", "sb", "I", "Game/Client", "lastMouseAction", "I",
-      // true, true);
-
-      // Client version
-      hookStaticVariable(methodNode, "fa", "d", "I", "Game/Client", "version", "I");
-
-      // Client modulus and exponent
-      hookStaticVariable(
-          methodNode,
-          "s",
-          "c",
-          "Ljava/math/BigInteger;",
-          "Game/Client",
-          "exponent",
-          "Ljava/math/BigInteger;");
-      hookStaticVariable(
-          methodNode,
-          "ja",
-          "K",
-          "Ljava/math/BigInteger;",
-          "Game/Client",
-          "modulus",
-          "Ljava/math/BigInteger;");
-
-      // Shell strings
-      hookStaticVariable(
-          methodNode,
-          "e",
-          "Sb",
-          "[Ljava/lang/String;",
-          "Game/Renderer",
-          "shellStrings",
-          "[Ljava/lang/String;");
-
-      hookClassVariable(
-          methodNode,
-          "client",
-          "Jh",
-          "Lda;",
-          "Game/Client",
-          "clientStream",
-          "Ljava/lang/Object;",
-          true,
-          false);
-
-      // Bank related vars
-      hookClassVariable(
-          methodNode, "client", "ci", "[I", "Game/Client", "new_bank_items", "[I", true, true);
-      hookClassVariable(
-          methodNode,
-          "client",
-          "Xe",
-          "[I",
-          "Game/Client",
-          "new_bank_items_count",
-          "[I",
-          true,
-          true);
-      hookClassVariable(
-          methodNode, "client", "ae", "[I", "Game/Client", "bank_items", "[I", true, true);
-      hookClassVariable(
-          methodNode, "client", "di", "[I", "Game/Client", "bank_items_count", "[I", true, true);
-      hookClassVariable(
-          methodNode, "client", "fj", "I", "Game/Client", "new_count_items_bank", "I", true, true);
-      hookClassVariable(
-          methodNode, "client", "vj", "I", "Game/Client", "count_items_bank", "I", true, true);
-      hookClassVariable(
-          methodNode, "client", "xg", "I", "Game/Client", "bank_active_page", "I", true, true);
+  /**
+   * @return the settings that change what {@link #patch(byte[])} outputs, patched classes can only
+   *     be reused while these stay the same
+   */
+  public String getSettingsKey() {
+    boolean java9Fixes = Settings.javaVersion >= 9 || Settings.javaVersion == -1;
+    return "save_logininfo="
+        + Settings.SAVE_LOGININFO.get(Settings.currentProfile)
+        + ";java9_fixes="
+        + java9Fixes;
+  }
 
-      hookClassVariable(
-          methodNode, "client", "sj", "I", "Game/Client", "selectedItem", "I", true, false);
-      hookClassVariable(
-          methodNode, "client", "Rd", "I", "Game/Client", "selectedItemSlot", "I", true, false);
+  /**
+   * Hooks applied to all classes, by {@link GenericPatchVisitor}. They're only built again when
+   * {@link #getSettingsKey()} changes, the table is read-only once built so threads can share it.
+   *
+   * @return the hooked game variables
+   */
+  private synchronized GenericPatchVisitor.FieldHooks getGenericHooks() {
+    String key = getSettingsKey();
+    if (m_genericHooks == null || !key.equals(m_genericHooksKey)) {
+      m_genericHooks = createGenericHooks();
+      m_genericHooksKey = key;
     }
+    return m_genericHooks;
+  }
+
+  private GenericPatchVisitor.FieldHooks createGenericHooks() {
+    GenericPatchVisitor.FieldHooks hooks = new GenericPatchVisitor.FieldHooks();
+
+    hookClassVariable(
+        hooks,
+        "ua",
+        "fb",
+        "Ljava/awt/image/ImageConsumer;",
+        "Game/Renderer",
+        "image_consumer",
+        "Ljava/awt/image/ImageConsumer;",
+        true,
+        true);
+    hookClassVariable(hooks, "ua", "u", "I", "Game/Renderer", "width", "I", false, true);
+    hookClassVariable(hooks, "ua", "k", "I", "Game/Renderer", "height", "I", false, true);
+    hookClassVariable(hooks, "ua", "rb", "[I", "Game/Renderer", "pixels", "[I", true, true);
+
+    hookClassVariable(
+        hooks,
+        "e",
+        "Ob",
+        "Ljava/lang/String;",
+        "Game/Client",
+        "pm_enteredText",
+        "Ljava/lang/String;",
+        true,
+        true);
+    hookClassVariable(
+        hooks,
+        "client",
+        "Ob",
+        "Ljava/lang/String;",
+        "Game/Client",
+        "pm_enteredText",
+        "Ljava/lang/String;",
+        true,
+        true);
+    hookClassVariable(
+        hooks,
+        "e",
+        "x",
+        "Ljava/lang/String;",
+        "Game/Client",
+        "pm_text",
+        "Ljava/lang/String;",
+        true,
+        true);
+    hookClassVariable(
+        hooks,
+        "client",
+        "x",
+        "Ljava/lang/String;",
+        "Game/Client",
+        "pm_text",
+        "Ljava/lang/String;",
+        true,
+        true);
+
+    hookClassVariable(
+        hooks,
+        "client",
+        "li",
+        "Lba;",
+        "Game/Renderer",
+        "instance",
+        "Ljava/lang/Object;",
+        true,
+        false);
+
+    hookClassVariable(hooks, "ba", "u", "I", "Game/Renderer", "width", "I", false, true);
+    hookClassVariable(hooks, "ba", "k", "I", "Game/Renderer", "height", "I", false, true);
+    hookClassVariable(hooks, "ba", "rb", "[I", "Game/Renderer", "pixels", "[I", true, true);
+
+    hookStaticVariable(hooks, "n", "g", "I", "Game/Client", "friends_count", "I");
+    hookStaticVariable(
+        hooks, "ua", "h", "[Ljava/lang/String;", "Game/Client", "friends", "[Ljava/lang/String;");
+    hookStaticVariable(
+        hooks,
+        "ac",
+        "z",
+        "[Ljava/lang/String;",
+        "Game/Client",
+        "friends_world",
+        "[Ljava/lang/String;");
+    hookStaticVariable(
+        hooks,
+        "cb",
+        "c",
+        "[Ljava/lang/String;",
+        "Game/Client",
+        "friends_formerly",
+        "[Ljava/lang/String;");
+    hookStaticVariable(hooks, "client", "Fj", "[I", "Game/Client", "friends_online", "[I");
+
+    hookStaticVariable(hooks, "db", "g", "I", "Game/Client", "ignores_count", "I");
+    hookStaticVariable(
+        hooks, "l", "c", "[Ljava/lang/String;", "Game/Client", "ignores", "[Ljava/lang/String;");
+    hookStaticVariable(
+        hooks,
+        "ia",
+        "g",
+        "[Ljava/lang/String;",
+        "Game/Client",
+        "ignores_formerly",
+        "[Ljava/lang/String;");
+    hookStaticVariable(
+        hooks,
+        "ia",
+        "a",
+        "[Ljava/lang/String;",
+        "Game/Client",
+        "ignores_copy",
+        "[Ljava/lang/String;");
+    hookStaticVariable(
+        hooks,
+        "ua",
+        "wb",
+        "[Ljava/lang/String;",
+        "Game/Client",
+        "ignores_formerly_copy",
+        "[Ljava/lang/String;");
+
+    hookClassVariable(hooks, "client", "Wd", "I", "Game/Renderer", "width", "I", false, true);
+    hookClassVariable(
+        hooks, "client", "Oi", "I", "Game/Renderer", "height_client", "I", false, true);
+
+    hookClassVariable(hooks, "e", "m", "I", "Game/Renderer", "width", "I", false, true);
+    hookClassVariable(hooks, "e", "a", "I", "Game/Renderer", "height", "I", false, true);
+    hookClassVariable(hooks, "e", "Ib", "I", "Game/Replay", "frame_time_slice", "I", true, true);
+    hookClassVariable(
+        hooks, "client", "fc", "I", "Game/Replay", "connection_port", "I", true, true);
+
+    hookClassVariable(hooks, "lb", "pb", "[I", "Game/Renderer", "pixels", "[I", true, true);
+
+    hookStaticVariable(
+        hooks,
+        "client",
+        "il",
+        "[Ljava/lang/String;",
+        "Game/Client",
+        "strings",
+        "[Ljava/lang/String;");
+
+    hookStaticVariable(
+        hooks, "ac", "x", "[Ljava/lang/String;", "Game/Item", "item_name", "[Ljava/lang/String;");
+    hookStaticVariable(
+        hooks,
+        "lb",
+        "ac",
+        "[Ljava/lang/String;",
+        "Game/Item",
+        "item_commands",
+        "[Ljava/lang/String;");
+
+    hookConditionalClassVariable(
+        hooks, "lb", "Mb", "I", "Game/Camera", "distance1", "I", false, true, "VIEW_DISTANCE_BOOL");
+    hookConditionalClassVariable(
+        hooks, "lb", "X", "I", "Game/Camera", "distance2", "I", false, true, "VIEW_DISTANCE_BOOL");
+    hookConditionalClassVariable(
+        hooks, "lb", "P", "I", "Game/Camera", "distance3", "I", false, true, "VIEW_DISTANCE_BOOL");
+    hookConditionalClassVariable(
+        hooks, "lb", "G", "I", "Game/Camera", "distance4", "I", false, true, "VIEW_DISTANCE_BOOL");
+
+    hookClassVariable(hooks, "client", "cl", "I", "Game/Client", "max_inventory", "I", true, false);
+    hookClassVariable(hooks, "client", "bk", "[Z", "Game/Client", "prayers_on", "[Z", true, false);
+    hookClassVariable(
+        hooks, "client", "Fc", "[I", "Game/Client", "current_equipment_stats", "[I", true, false);
+    hookClassVariable(
+        hooks, "client", "oh", "[I", "Game/Client", "current_level", "[I", true, false);
+    hookClassVariable(hooks, "client", "cg", "[I", "Game/Client", "base_level", "[I", true, false);
+    hookClassVariable(
+        hooks,
+        "client",
+        "Vk",
+        "[Ljava/lang/String;",
+        "Game/Client",
+        "skill_name",
+        "[Ljava/lang/String;",
+        true,
+        false);
+    hookClassVariable(hooks, "client", "Ak", "[I", "Game/Client", "xp", "[I", true, false);
+    hookClassVariable(hooks, "client", "vg", "I", "Game/Client", "fatigue", "I", true, false);
+    hookClassVariable(hooks, "client", "Fg", "I", "Game/Client", "combat_style", "I", true, true);
+    if (Settings.SAVE_LOGININFO.get(Settings.currentProfile))
+      hookClassVariable(
+          hooks, "client", "Xd", "I", "Game/Client", "login_screen", "I", false, true);
+
+    hookClassVariable(
+        hooks,
+        "client",
+        "Ek",
+        "Llb;",
+        "Game/Camera",
+        "instance",
+        "Ljava/lang/Object;",
+        true,
+        false);
+    hookConditionalClassVariable(
+        hooks, "client", "qd", "I", "Game/Camera", "fov", "I", false, true, "FOV_BOOL");
+
+    hookClassVariable(hooks, "client", "ai", "I", "Game/Client", "combat_timer", "I", true, true);
+    hookClassVariable(hooks, "client", "Fe", "Z", "Game/Client", "show_bank", "Z", true, false);
+    hookClassVariable(hooks, "client", "dd", "Z", "Game/Client", "show_duel", "Z", true, false);
+    hookClassVariable(
+        hooks, "client", "Pj", "Z", "Game/Client", "show_duelconfirm", "Z", true, false);
+    hookClassVariable(hooks, "client", "Bj", "I", "Game/Client", "show_friends", "I", true, true);
+    hookClassVariable(hooks, "client", "qc", "I", "Game/Client", "show_menu", "I", true, false);
+    hookClassVariable(
+        hooks, "client", "Ph", "Z", "Game/Client", "show_questionmenu", "Z", true, false);
+    hookClassVariable(hooks, "client", "Vf", "I", "Game/Client", "show_report", "I", true, false);
+    hookClassVariable(hooks, "client", "uk", "Z", "Game/Client", "show_shop", "Z", true, false);
+    hookClassVariable(hooks, "client", "Qk", "Z", "Game/Client", "show_sleeping", "Z", true, false);
+    hookClassVariable(hooks, "client", "Hk", "Z", "Game/Client", "show_trade", "Z", true, false);
+    hookClassVariable(
+        hooks, "client", "Xj", "Z", "Game/Client", "show_tradeconfirm", "Z", true, false);
+    hookClassVariable(hooks, "client", "Oh", "Z", "Game/Client", "show_welcome", "Z", true, true);
+
+    hookClassVariable(
+        hooks,
+        "client",
+        "Qd",
+        "Ljava/lang/String;",
+        "Game/Client",
+        "pm_username",
+        "Ljava/lang/String;",
+        true,
+        true);
+
+    hookClassVariable(
+        hooks,
+        "client",
+        "wh",
+        "Ljava/lang/String;",
+        "Game/Client",
+        "username_login",
+        "Ljava/lang/String;",
+        true,
+        true);
+    hookClassVariable(
+        hooks, "client", "Vh", "I", "Game/Client", "autologin_timeout", "I", true, true);
+
+    hookClassVariable(
+        hooks, "client", "lc", "I", "Game/Client", "inventory_count", "I", true, false);
+    hookClassVariable(
+        hooks, "client", "vf", "[I", "Game/Client", "inventory_items", "[I", true, false);
+    hookConditionalClassVariable(
+        hooks,
+        "client",
+        "kg",
+        "I",
+        "Game/Camera",
+        "lookat_x",
+        "I",
+        false,
+        true,
+        "CAMERA_MOVABLE_BOOL");
+    hookConditionalClassVariable(
+        hooks,
+        "client",
+        "Si",
+        "I",
+        "Game/Camera",
+        "lookat_y",
+        "I",
+        false,
+        true,
+        "CAMERA_MOVABLE_BOOL");
+    hookClassVariable(hooks, "client", "Wc", "I", "Game/Camera", "auto_speed", "I", true, true);
+    hookClassVariable(hooks, "client", "Be", "I", "Game/Camera", "rotation_y", "I", true, true);
+    hookClassVariable(hooks, "client", "Kh", "Z", "Game/Camera", "auto", "Z", true, true);
+    hookClassVariable(hooks, "client", "si", "I", "Game/Camera", "angle", "I", true, true);
+
+    hookConditionalClassVariable(
+        hooks,
+        "client",
+        "ug",
+        "I",
+        "Game/Camera",
+        "rotation",
+        "I",
+        false,
+        true,
+        "CAMERA_ROTATABLE_BOOL");
+    hookConditionalClassVariable(
+        hooks,
+        "client",
+        "ac",
+        "I",
+        "Game/Camera",
+        "zoom",
+        "I",
+        false,
+        true,
+        "CAMERA_ZOOMABLE_BOOL");
+
+    // Chat menu
+    hookClassVariable(
+        hooks, "client", "yd", "Lqa;", "Game/Menu", "chat_menu", "Ljava/lang/Object;", true, false);
+    hookClassVariable(hooks, "client", "Fh", "I", "Game/Menu", "chat_type1", "I", true, false);
+    hookClassVariable(hooks, "client", "bh", "I", "Game/Menu", "chat_input", "I", true, false);
+    hookClassVariable(hooks, "client", "ud", "I", "Game/Menu", "chat_type2", "I", true, false);
+    hookClassVariable(hooks, "client", "mc", "I", "Game/Menu", "chat_type3", "I", true, false);
+
+    // Quest menu
+    hookClassVariable(
+        hooks,
+        "client",
+        "fe",
+        "Lqa;",
+        "Game/Menu",
+        "quest_menu",
+        "Ljava/lang/Object;",
+        true,
+        false);
+    hookClassVariable(hooks, "client", "lk", "I", "Game/Menu", "quest_handle", "I", true, false);
+
+    // Friends menu
+    hookClassVariable(
+        hooks,
+        "client",
+        "zk",
+        "Lqa;",
+        "Game/Menu",
+        "friend_menu",
+        "Ljava/lang/Object;",
+        true,
+        false);
+    hookClassVariable(hooks, "client", "Hi", "I", "Game/Menu", "friend_handle", "I", true, false);
+
+    // Spell menu
+    hookClassVariable(
+        hooks,
+        "client",
+        "Mc",
+        "Lqa;",
+        "Game/Menu",
+        "spell_menu",
+        "Ljava/lang/Object;",
+        true,
+        false);
+    hookClassVariable(hooks, "client", "Ud", "I", "Game/Menu", "spell_handle", "I", true, false);
+
+    // Player name
+    hookClassVariable(
+        hooks,
+        "client",
+        "wi",
+        "Lta;",
+        "Game/Client",
+        "player_object",
+        "Ljava/lang/Object;",
+        true,
+        false);
+    // coordinates related
+    hookClassVariable(hooks, "client", "Qg", "I", "Game/Client", "regionX", "I", true, false);
+    hookClassVariable(hooks, "client", "zg", "I", "Game/Client", "regionY", "I", true, false);
+    hookClassVariable(hooks, "client", "Lf", "I", "Game/Client", "localRegionX", "I", true, false);
+    hookClassVariable(hooks, "client", "sh", "I", "Game/Client", "localRegionY", "I", true, false);
+    hookClassVariable(hooks, "client", "Ki", "I", "Game/Client", "planeWidth", "I", true, false);
+    hookClassVariable(hooks, "client", "sk", "I", "Game/Client", "planeHeight", "I", true, false);
+    hookClassVariable(hooks, "client", "bc", "I", "Game/Client", "planeIndex", "I", true, false);
+    hookClassVariable(hooks, "client", "Ub", "Z", "Game/Client", "loadingArea", "Z", true, false);
+
+    hookClassVariable(hooks, "client", "Ug", "I", "Game/Client", "tileSize", "I", true, false);
+
+    // Last mouse activity
+    // hookClassVariable(methodNode, "client", "sb", "I", "Game/Client", "lastMouseAction", "I",
+    // true, true);
+
+    // Client version
+    hookStaticVariable(hooks, "fa", "d", "I", "Game/Client", "version", "I");
+
+    // Client modulus and exponent
+    hookStaticVariable(
+        hooks,
+        "s",
+        "c",
+        "Ljava/math/BigInteger;",
+        "Game/Client",
+        "exponent",
+        "Ljava/math/BigInteger;");
+    hookStaticVariable(
+        hooks,
+        "ja",
+        "K",
+        "Ljava/math/BigInteger;",
+        "Game/Client",
+        "modulus",
+        "Ljava/math/BigInteger;");
+
+    // Shell strings
+    hookStaticVariable(
+        hooks,
+        "e",
+        "Sb",
+        "[Ljava/lang/String;",
+        "Game/Renderer",
+        "shellStrings",
+        "[Ljava/lang/String;");
+
+    hookClassVariable(
+        hooks,
+        "client",
+        "Jh",
+        "Lda;",
+        "Game/Client",
+        "clientStream",
+        "Ljava/lang/Object;",
+        true,
+        false);
+
+    // Bank related vars
+    hookClassVariable(
+        hooks, "client", "ci", "[I", "Game/Client", "new_bank_items", "[I", true, true);
+    hookClassVariable(
+        hooks, "client", "Xe", "[I", "Game/Client", "new_bank_items_count", "[I", true, true);
+    hookClassVariable(hooks, "client", "ae", "[I", "Game/Client", "bank_items", "[I", true, true);
+    hookClassVariable(
+        hooks, "client", "di", "[I", "Game/Client", "bank_items_count", "[I", true, true);
+    hookClassVariable(
+        hooks, "client", "fj", "I", "Game/Client", "new_count_items_bank", "I", true, true);
+    hookClassVariable(
+        hooks, "client", "vj", "I", "Game/Client", "count_items_bank", "I", true, true);
+    hookClassVariable(
+        hooks, "client", "xg", "I", "Game/Client", "bank_active_page", "I", true, true);
+
+    hookClassVariable(hooks, "client", "sj", "I", "Game/Client", "selectedItem", "I", true, false);
+    hookClassVariable(
+        hooks, "client", "Rd", "I", "Game/Client", "selectedItemSlot", "I", true, false);
+
+    return hooks;
   }
 
   private void patchMenu(ClassNode node) {
@@ -885,6 +803,21 @@ public class JClassPatcher {
           }
         }
       }
+      // Game connection, hand it the in-memory replay connection when there is one
+      if (methodNode.name.equals("a")
+          && methodNode.desc.equals("(IILjava/lang/String;)Ljava/net/Socket;")) {
+        AbstractInsnNode insnNode = methodNode.instructions.getFirst();
+        LabelNode label = new LabelNode();
+        methodNode.instructions.insertBefore(
+            insnNode,
+            new MethodInsnNode(
+                Opcodes.INVOKESTATIC, "Game/Replay", "connectHook", "()Ljava/net/Socket;", false));
+        methodNode.instructions.insertBefore(insnNode, new InsnNode(Opcodes.DUP));
+        methodNode.instructions.insertBefore(insnNode, new JumpInsnNode(Opcodes.IFNULL, label));
+        methodNode.instructions.insertBefore(insnNode, new InsnNode(Opcodes.ARETURN));
+        methodNode.instructions.insertBefore(insnNode, label);
+        methodNode.instructions.insertBefore(insnNode, new InsnNode(Opcodes.POP));
+      }
       // handlePacket
       if (methodNode.name.equals("a") && methodNode.desc.equals("(III)V")) {
         Iterator<AbstractInsnNode> insnNodeList = methodNode.instructions.iterator();
@@ -2422,9 +2355,9 @@ public class JClassPatcher {
         Iterator<AbstractInsnNode> insnNodeList = methodNode.instructions.iterator();
         AbstractInsnNode insnNode = insnNodeList.next();
         LabelNode label = new LabelNode();
-        methodNode.instructions.insertBefore(insnNode, new InsnNode(Opcodes.ICONST_0));
         methodNode.instructions.insertBefore(
-            insnNode, new FieldInsnNode(Opcodes.GETSTATIC, "Game/Replay", "isSeeking", "Z"));
+            insnNode,
+            new MethodInsnNode(Opcodes.INVOKESTATIC, "Game/Replay", "skipDrawGame", "()Z", false));
         methodNode.instructions.insertBefore(insnNode, new JumpInsnNode(Opcodes.IFEQ, label));
         methodNode.instructions.insertBefore(insnNode, new InsnNode(Opcodes.RETURN));
         methodNode.instructions.insertBefore(insnNode, label);
@@ -2496,9 +2429,9 @@ public class JClassPatcher {
         FieldInsnNode imageNode = null;
 
         LabelNode label = new LabelNode();
-        methodNode.instructions.insertBefore(findNode, new InsnNode(Opcodes.ICONST_0));
         methodNode.instructions.insertBefore(
-            findNode, new FieldInsnNode(Opcodes.GETSTATIC, "Game/Replay", "isSeeking", "Z"));
+            findNode,
+            new MethodInsnNode(Opcodes.INVOKESTATIC, "Game/Replay", "skipPresent", "()Z", false));
         methodNode.instructions.insertBefore(findNode, new JumpInsnNode(Opcodes.IFEQ, label));
         methodNode.instructions.insertBefore(findNode, new InsnNode(Opcodes.RETURN));
         methodNode.instructions.insertBefore(findNode, label);
@@ -2763,7 +2696,7 @@ public class JClassPatcher {
   /**
    * TODO: Complete JavaDoc
    *
-   * @param methodNode
+   * @param hooks The hooks to add it to
    * @param owner The class of the variable to be hooked
    * @param var The variable to be hooked
    * @param desc
@@ -2774,7 +2707,7 @@ public class JClassPatcher {
    * @param canWrite Specifies if the hooked variable should be writable
    */
   private void hookClassVariable(
-      MethodNode methodNode,
+      GenericPatchVisitor.FieldHooks hooks,
       String owner,
       String var,
       String desc,
@@ -2783,30 +2716,12 @@ public class JClassPatcher {
       String newDesc,
       boolean canRead,
       boolean canWrite) {
-    Iterator<AbstractInsnNode> insnNodeList = methodNode.instructions.iterator();
-    while (insnNodeList.hasNext()) {
-      AbstractInsnNode insnNode = insnNodeList.next();
-
-      int opcode = insnNode.getOpcode();
-      if (opcode == Opcodes.GETFIELD || opcode == Opcodes.PUTFIELD) {
-        FieldInsnNode field = (FieldInsnNode) insnNode;
-        if (field.owner.equals(owner) && field.name.equals(var) && field.desc.equals(desc)) {
-          if (opcode == Opcodes.GETFIELD && canWrite) {
-            methodNode.instructions.insert(
-                insnNode, new FieldInsnNode(Opcodes.GETSTATIC, newClass, newVar, newDesc));
-            methodNode.instructions.insert(insnNode, new InsnNode(Opcodes.POP));
-          } else if (opcode == Opcodes.PUTFIELD && canRead) {
-            methodNode.instructions.insertBefore(insnNode, new InsnNode(Opcodes.DUP_X1));
-            methodNode.instructions.insert(
-                insnNode, new FieldInsnNode(Opcodes.PUTSTATIC, newClass, newVar, newDesc));
-          }
-        }
-      }
-    }
+    hooks.addClassVariable(owner, var, desc, newClass, newVar, newDesc, canRead, canWrite);
   }
 
+
   private void hookConditionalClassVariable(
-      MethodNode methodNode,
+      GenericPatchVisitor.FieldHooks hooks,
       String owner,
       String var,
       String desc,
@@ -2816,64 +2731,15 @@ public class JClassPatcher {
       boolean canRead,
       boolean canWrite,
       String boolTrigger) {
-    Iterator<AbstractInsnNode> insnNodeList = methodNode.instructions.iterator();
-    while (insnNodeList.hasNext()) {
-      AbstractInsnNode insnNode = insnNodeList.next();
-
-      int opcode = insnNode.getOpcode();
-      if (opcode == Opcodes.GETFIELD || opcode == Opcodes.PUTFIELD) {
-        FieldInsnNode field = (FieldInsnNode) insnNode;
-        if (field.owner.equals(owner) && field.name.equals(var) && field.desc.equals(desc)) {
-          if (opcode == Opcodes.GETFIELD && canWrite) {
-            LabelNode label = new LabelNode();
-            methodNode.instructions.insert(insnNode, label);
-            methodNode.instructions.insert(
-                insnNode, new FieldInsnNode(Opcodes.GETSTATIC, newClass, newVar, newDesc));
-            methodNode.instructions.insert(insnNode, new InsnNode(Opcodes.POP));
-            methodNode.instructions.insert(insnNode, new JumpInsnNode(Opcodes.IFEQ, label));
-            methodNode.instructions.insert(
-                insnNode,
-                new FieldInsnNode(Opcodes.GETSTATIC, "Client/Settings", boolTrigger, "Z"));
-            methodNode.instructions.insert(
-                insnNode,
-                new MethodInsnNode(
-                    Opcodes.INVOKESTATIC,
-                    "Client/Settings",
-                    "updateInjectedVariables",
-                    "()V",
-                    false));
-          } else if (opcode == Opcodes.PUTFIELD && canRead) {
-            LabelNode label_end = new LabelNode();
-            LabelNode label = new LabelNode();
-            methodNode.instructions.insertBefore(insnNode, new InsnNode(Opcodes.DUP_X1));
-            methodNode.instructions.insert(insnNode, label_end);
-            methodNode.instructions.insert(insnNode, new InsnNode(Opcodes.POP));
-            methodNode.instructions.insert(insnNode, label);
-            methodNode.instructions.insert(insnNode, new JumpInsnNode(Opcodes.GOTO, label_end));
-            methodNode.instructions.insert(
-                insnNode, new FieldInsnNode(Opcodes.PUTSTATIC, newClass, newVar, newDesc));
-            methodNode.instructions.insert(insnNode, new JumpInsnNode(Opcodes.IFEQ, label));
-            methodNode.instructions.insert(
-                insnNode,
-                new FieldInsnNode(Opcodes.GETSTATIC, "Client/Settings", boolTrigger, "Z"));
-            methodNode.instructions.insert(
-                insnNode,
-                new MethodInsnNode(
-                    Opcodes.INVOKESTATIC,
-                    "Client/Settings",
-                    "updateInjectedVariables",
-                    "()V",
-                    false));
-          }
-        }
-      }
-    }
+    hooks.addConditionalClassVariable(
+        owner, var, desc, newClass, newVar, newDesc, canRead, canWrite, boolTrigger);
   }
 
+
   /**
    * TODO: Complete JavaDoc
    *
-   * @param methodNode
+   * @param hooks The hooks to add it to
    * @param owner The class of the variable to be hooked
    * @param var The variable to be hooked
    * @param desc
@@ -2882,31 +2748,21 @@ public class JClassPatcher {
    * @param newDesc
    */
   private void hookStaticVariable(
-      MethodNode methodNode,
+      GenericPatchVisitor.FieldHooks hooks,
       String owner,
       String var,
       String desc,
       String newClass,
       String newVar,
       String newDesc) {
-    Iterator<AbstractInsnNode> insnNodeList = methodNode.instructions.iterator();
-    while (insnNodeList.hasNext()) {
-      AbstractInsnNode insnNode = insnNodeList.next();
-
-      int opcode = insnNode.getOpcode();
-      if (opcode == Opcodes.GETSTATIC || opcode == Opcodes.PUTSTATIC) {
-        FieldInsnNode field = (FieldInsnNode) insnNode;
-        if (field.owner.equals(owner) && field.name.equals(var) && field.desc.equals(desc)) {
-          field.owner = newClass;
-          field.name = newVar;
-          field.desc = newDesc;
-        }
-      }
-    }
+    hooks.addStaticVariable(owner, var, desc, newClass, newVar, newDesc);
   }
 
+
   private void dumpClass(ClassNode node) {
     BufferedWriter writer = null;
+    Printer printer = new Textifier();
+    TraceMethodVisitor mp = new TraceMethodVisitor(printer);
 
     try {
       File file = new File(Settings.Dir.DUMP + "/" + node.name + ".dump");
@@ -2933,7 +2789,7 @@ public class JClassPatcher {
         Iterator<AbstractInsnNode> insnNodeList = methodNode.instructions.iterator();
         while (insnNodeList.hasNext()) {
           AbstractInsnNode insnNode = insnNodeList.next();
-          String instruction = decodeInstruction(insnNode);
+          String instruction = decodeInstruction(insnNode, printer, mp);
           writer.write(instruction);
         }
         writer.write("\n");
@@ -2965,7 +2821,8 @@ public class JClassPatcher {
     return res;
   }
 
-  private String decodeInstruction(AbstractInsnNode insnNode) {
+  private String decodeInstruction(
+      AbstractInsnNode insnNode, Printer printer, TraceMethodVisitor mp) {
     insnNode.accept(mp);
     StringWriter sw = new StringWriter();
     printer.print(new PrintWriter(sw));
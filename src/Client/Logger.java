@@ -22,6 +22,7 @@ import static Replay.game.constants.Game.incomingOpcodeMap;
 import static Replay.game.constants.Game.outgoingOpcodeMap;
 import static org.fusesource.jansi.Ansi.ansi;
 
+import Replay.scraper.ReplayPacketView;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.PrintWriter;
@@ -77,7 +78,7 @@ public class Logger {
     AnsiConsole.systemUninstall();
   }
 
-  public static void Log(Type type, String message) {
+  public static synchronized void Log(Type type, String message) {
     if (type.id > Settings.LOG_VERBOSITY.get(Settings.currentProfile)) return;
 
     DateFormat dateFormat = new SimpleDateFormat("HH:mm:ss");
@@ -156,6 +157,13 @@ public class Logger {
     Log(Type.DEBUG, message);
   }
 
+  public static void Opcode(int timestamp, String type, ReplayPacketView packet) {
+    // Skip formatting the payload of every packet when it won't be shown
+    if (Type.OPCODE.id > Settings.LOG_VERBOSITY.get(Settings.currentProfile)) return;
+
+    Opcode(timestamp, type, packet.opcode, packet.copyData());
+  }
+
   public static void Opcode(int timestamp, String type, int opcode, byte[] data) {
 
     String data_length;
@@ -56,6 +56,7 @@ import javax.swing.event.ListSelectionListener;
 import javax.swing.plaf.nimbus.NimbusLookAndFeel;
 import javax.swing.table.*;
 import Game.Replay;
+import Game.ReplayCatalog;
 import Game.ReplayQueue;
 
 /**
@@ -650,7 +651,7 @@ public class QueueWindow {
     model.getDataVector().removeAllElements();
     for (int i=0; i < ReplayQueue.queue.size(); i++) {
       String replayFolder = ReplayQueue.queue.get(i).getAbsolutePath();
-      Object[] metadata = Replay.readMetadata(replayFolder);
+      Object[] metadata = ReplayCatalog.readMetadata(replayFolder);
 
       model.addRow(new Object[] {
               ReplayQueue.currentIndex - 1 == i ? "▶" : "",
@@ -664,6 +665,7 @@ public class QueueWindow {
               new Integer((int)metadata[4])
       });
     }
+    ReplayCatalog.save();
     updateReplayCountLabel();
   }
 
@@ -0,0 +1,364 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Client;
+
+import static Replay.game.constants.Game.incomingOpcodeMap;
+import static Replay.game.constants.Game.outgoingOpcodeMap;
+
+import Game.Replay;
+import Replay.scraper.ReplayEditor;
+import Replay.scraper.ReplayPacketStream;
+import Replay.scraper.ReplayPacketView;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Command line entry point that verifies a folder tree of replays without starting the client.
+ *
+ * <p>Every replay is decoded with {@link ReplayEditor#openStream(String)} on a worker pool, its
+ * checksums are checked, and packet counts and sizes are added up per opcode. Decoding only keeps
+ * a window of each file in memory, so every replay gets the same estimate: replays over the
+ * per-replay cap are skipped, and workers wait for each other while the replays they're decoding
+ * would go over the shared budget.
+ *
+ * <p>Usage: java -cp rscplus.jar Client.ReplayAnalyzer [--threads N] [--max-replay-memory MB]
+ * folder...
+ */
+public class ReplayAnalyzer {
+  public static final int DEFAULT_MAX_REPLAY_MEMORY_MB = 512;
+
+  // A reader's window and inflater, the window only grows for packets bigger than it
+  private static final int MEMORY_PER_READER = 256 * 1024;
+
+  private static final int OPCODE_COUNT = 256;
+
+  public enum Status {
+    OK,
+    NO_CHECKSUM,
+    CHECKSUM_MISMATCH,
+    UNREADABLE,
+    TOO_LARGE
+  }
+
+  /** Packet counts and sizes per opcode, for one direction */
+  public static class OpcodeStats {
+    public final long[] count = new long[OPCODE_COUNT];
+    public final long[] bytes = new long[OPCODE_COUNT];
+    public long connects = 0;
+
+    void add(ReplayPacketView packet) {
+      if (packet.opcode == ReplayEditor.VIRTUAL_OPCODE_CONNECT) {
+        connects++;
+      } else if (packet.opcode >= 0 && packet.opcode < OPCODE_COUNT) {
+        count[packet.opcode]++;
+        bytes[packet.opcode] += Math.max(packet.length, 0);
+      }
+    }
+
+    void add(OpcodeStats stats) {
+      for (int i = 0; i < OPCODE_COUNT; i++) {
+        count[i] += stats.count[i];
+        bytes[i] += stats.bytes[i];
+      }
+      connects += stats.connects;
+    }
+  }
+
+  public static class Result {
+    public final File replay;
+    public Status status;
+    public int version = -1;
+    public int length = 0;
+    public int incomingPackets = 0;
+    public int outgoingPackets = 0;
+    public final OpcodeStats incoming = new OpcodeStats();
+    public final OpcodeStats outgoing = new OpcodeStats();
+
+    Result(File replay) {
+      this.replay = replay;
+    }
+  }
+
+  private final int m_threads;
+  private final long m_maxReplayMemory;
+  // Shared memory budget in KiB, so the permits fit in an int
+  private final Semaphore m_memory;
+  private final int m_memoryPermits;
+
+  /**
+   * @param threads number of replays to decode at the same time
+   * @param maxReplayMemory replays estimated to need more bytes than this are skipped
+   */
+  public ReplayAnalyzer(int threads, long maxReplayMemory) {
+    m_threads = threads;
+    m_maxReplayMemory = maxReplayMemory;
+
+    // Leave a quarter of the heap for everything else
+    long budget = Math.min(maxReplayMemory * threads, Runtime.getRuntime().maxMemory() / 4 * 3);
+    m_memoryPermits = (int) Math.max(1, Math.min(budget / 1024, Integer.MAX_VALUE));
+    m_memory = new Semaphore(m_memoryPermits, true);
+  }
+
+  /**
+   * Finds every replay in a folder and its subfolders.
+   *
+   * @param folder the folder to search
+   * @param replays receives the replay folders, sorted by path
+   */
+  public static void findReplays(File folder, List<File> replays) {
+    if (Replay.isValid(folder.getPath())) replays.add(folder);
+
+    File[] files = folder.listFiles();
+    if (files == null) return;
+    Arrays.sort(files);
+    for (File file : files) {
+      if (file.isDirectory()) findReplays(file, replays);
+    }
+  }
+
+  /**
+   * Estimates how much memory decoding a replay takes.
+   *
+   * @param replay the replay folder
+   * @return the estimate in bytes
+   */
+  public static long estimateMemory(File replay) {
+    long memory = 0;
+    if (new File(replay, "in.bin.gz").exists()) memory += MEMORY_PER_READER;
+    if (new File(replay, "out.bin.gz").exists()) memory += MEMORY_PER_READER;
+    return memory;
+  }
+
+  /**
+   * Decodes and checks one replay, waiting for its share of the memory budget first.
+   *
+   * @param replay the replay folder
+   * @return the result
+   */
+  public Result analyze(File replay) throws InterruptedException {
+    Result result = new Result(replay);
+    long memory = estimateMemory(replay);
+    if (memory > m_maxReplayMemory) {
+      result.status = Status.TOO_LARGE;
+      return result;
+    }
+
+    int permits = (int) Math.max(1, Math.min(memory / 1024, m_memoryPermits));
+    m_memory.acquire(permits);
+    try {
+      ReplayEditor editor = new ReplayEditor();
+      ReplayPacketStream packets = editor.openStream(replay.getPath());
+      if (packets == null) {
+        result.status = Status.UNREADABLE;
+        return result;
+      }
+
+      ReplayPacketView packet;
+      while ((packet = packets.next()) != null) {
+        if (packets.isIncoming()) {
+          result.incomingPackets++;
+          result.incoming.add(packet);
+        } else {
+          result.outgoingPackets++;
+          result.outgoing.add(packet);
+        }
+      }
+      result.version = editor.getReplayVersion().version;
+      result.length = editor.getReplayMetadata().replayLength;
+
+      if (!editor.hasChecksums()) result.status = Status.NO_CHECKSUM;
+      else if (editor.checksumsMatch()) result.status = Status.OK;
+      else result.status = Status.CHECKSUM_MISMATCH;
+    } catch (Exception e) {
+      Logger.Error("Unable to analyze replay " + replay.getPath());
+      e.printStackTrace();
+      result.status = Status.UNREADABLE;
+    } catch (OutOfMemoryError e) {
+      // The estimate was too low, the other workers can carry on once this one is collected
+      Logger.Error("Ran out of memory analyzing replay " + replay.getPath());
+      result.status = Status.TOO_LARGE;
+    } finally {
+      m_memory.release(permits);
+    }
+    return result;
+  }
+
+  /**
+   * Analyzes replays on the worker pool, printing a line for each as it finishes.
+   *
+   * @param replays the replay folders
+   * @param incoming receives the incoming packet statistics of every readable replay
+   * @param outgoing receives the outgoing packet statistics of every readable replay
+   * @return the number of replays of each {@link Status}
+   */
+  public int[] analyzeAll(List<File> replays, OpcodeStats incoming, OpcodeStats outgoing)
+      throws InterruptedException {
+    ExecutorService pool =
+        Executors.newFixedThreadPool(
+            m_threads,
+            new ThreadFactory() {
+              private final AtomicInteger count = new AtomicInteger(0);
+
+              @Override
+              public Thread newThread(Runnable runnable) {
+                Thread thread =
+                    new Thread(runnable, "ReplayAnalyzer-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+    CompletionService<Result> completion = new ExecutorCompletionService<Result>(pool);
+
+    int[] statusCounts = new int[Status.values().length];
+    try {
+      for (final File replay : replays) {
+        completion.submit(
+            new Callable<Result>() {
+              @Override
+              public Result call() throws Exception {
+                return analyze(replay);
+              }
+            });
+      }
+
+      for (int i = 0; i < replays.size(); i++) {
+        Result result;
+        try {
+          result = completion.take().get();
+        } catch (ExecutionException e) {
+          Logger.Error("Unable to analyze replay");
+          e.getCause().printStackTrace();
+          continue;
+        }
+
+        statusCounts[result.status.ordinal()]++;
+        if (result.status != Status.UNREADABLE && result.status != Status.TOO_LARGE) {
+          incoming.add(result.incoming);
+          outgoing.add(result.outgoing);
+        }
+        System.out.println(
+            String.format(
+                "[%d/%d] %-17s v%-2d %7d in %7d out %8.1fs  %s",
+                i + 1,
+                replays.size(),
+                result.status,
+                result.version,
+                result.incomingPackets,
+                result.outgoingPackets,
+                result.length / 50.0,
+                result.replay.getPath()));
+      }
+    } finally {
+      pool.shutdownNow();
+      pool.awaitTermination(1, TimeUnit.MINUTES);
+    }
+    return statusCounts;
+  }
+
+  private static void printStats(String title, OpcodeStats stats, Map<Integer, String> names) {
+    System.out.println();
+    System.out.println(String.format("%s (%d connects)", title, stats.connects));
+    System.out.println(String.format("%6s %-36s %12s %14s", "opcode", "name", "packets", "bytes"));
+    for (int i = 0; i < OPCODE_COUNT; i++) {
+      if (stats.count[i] == 0) continue;
+      String name = names.get(i);
+      System.out.println(
+          String.format(
+              "%6d %-36s %12d %14d", i, name != null ? name : "", stats.count[i], stats.bytes[i]));
+    }
+  }
+
+  private static void usage() {
+    System.out.println(
+        "Usage: java -cp rscplus.jar Client.ReplayAnalyzer [--threads N] "
+            + "[--max-replay-memory MB] folder...");
+    System.out.println("Decodes every replay under the folders, checks their checksums and");
+    System.out.println("counts packets per opcode. Exits with 1 if any replay failed.");
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    long maxReplayMemoryMB = DEFAULT_MAX_REPLAY_MEMORY_MB;
+    List<File> folders = new ArrayList<File>();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        if (args[i].equals("--threads")) {
+          threads = Math.max(1, Integer.parseInt(args[++i]));
+        } else if (args[i].equals("--max-replay-memory")) {
+          maxReplayMemoryMB = Math.max(1, Long.parseLong(args[++i]));
+        } else if (args[i].equals("--help")) {
+          usage();
+          return;
+        } else {
+          folders.add(new File(args[i]));
+        }
+      }
+    } catch (Exception e) {
+      usage();
+      System.exit(2);
+    }
+    if (folders.isEmpty()) {
+      usage();
+      System.exit(2);
+    }
+
+    // The logger reads its settings from config.ini, but log.txt is left to the client
+    Settings.initDir();
+    Settings.initSettings();
+
+    List<File> replays = new ArrayList<File>();
+    for (File folder : folders) findReplays(folder, replays);
+    System.out.println(
+        String.format("Analyzing %d replays on %d threads", replays.size(), threads));
+
+    long start = System.nanoTime();
+    OpcodeStats incoming = new OpcodeStats();
+    OpcodeStats outgoing = new OpcodeStats();
+    ReplayAnalyzer analyzer = new ReplayAnalyzer(threads, maxReplayMemoryMB * 1024 * 1024);
+    int[] statusCounts = analyzer.analyzeAll(replays, incoming, outgoing);
+    long elapsed = System.nanoTime() - start;
+
+    printStats("Incoming packets", incoming, incomingOpcodeMap);
+    printStats("Outgoing packets", outgoing, outgoingOpcodeMap);
+
+    System.out.println();
+    for (Status status : Status.values())
+      System.out.println(String.format("%-17s %d", status, statusCounts[status.ordinal()]));
+    System.out.println(String.format("Done in %.1fs", elapsed / 1000000000.0));
+
+    int failed =
+        statusCounts[Status.CHECKSUM_MISMATCH.ordinal()]
+            + statusCounts[Status.UNREADABLE.ordinal()]
+            + statusCounts[Status.TOO_LARGE.ordinal()];
+    System.exit(failed > 0 ? 1 : 0);
+  }
+}
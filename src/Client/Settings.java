@@ -160,6 +160,7 @@ public class Settings {
   public static HashMap<String, Boolean> RECORD_KB_MOUSE = new HashMap<String, Boolean>();
   public static HashMap<String, Boolean> PARSE_OPCODES = new HashMap<String, Boolean>();
   public static HashMap<String, Boolean> FAST_DISCONNECT = new HashMap<String, Boolean>();
+  public static HashMap<String, Boolean> IN_MEMORY_PLAYBACK = new HashMap<String, Boolean>();
   public static HashMap<String, Boolean> RECORD_AUTOMATICALLY = new HashMap<String, Boolean>();
   public static HashMap<String, Boolean> HIDE_PRIVATE_MSGS_REPLAY // only hides, still in data
       = new HashMap<String, Boolean>();
@@ -193,6 +194,7 @@ public class Settings {
       new HashMap<String, Boolean>();
   public static HashMap<String, Boolean> DISASSEMBLE = new HashMap<String, Boolean>();
   public static HashMap<String, String> DISASSEMBLE_DIRECTORY = new HashMap<String, String>();
+  public static HashMap<String, Boolean> LAZY_CLASS_LOADING = new HashMap<String, Boolean>();
 
   // these are variables that are injected with JClassPatcher
   public static int COMBAT_STYLE_INT = Client.COMBAT_AGGRESSIVE;
@@ -974,6 +976,16 @@ public class Settings {
     FAST_DISCONNECT.put(
         "custom", getPropBoolean(props, "fast_disconnect", FAST_DISCONNECT.get("default")));
 
+    IN_MEMORY_PLAYBACK.put("vanilla", false);
+    IN_MEMORY_PLAYBACK.put("vanilla_resizable", false);
+    IN_MEMORY_PLAYBACK.put("lite", false);
+    IN_MEMORY_PLAYBACK.put("default", false);
+    IN_MEMORY_PLAYBACK.put("heavy", false);
+    IN_MEMORY_PLAYBACK.put("all", false);
+    IN_MEMORY_PLAYBACK.put(
+        "custom",
+        getPropBoolean(props, "in_memory_playback", IN_MEMORY_PLAYBACK.get("default")));
+
     RECORD_AUTOMATICALLY.put("vanilla", false);
     RECORD_AUTOMATICALLY.put("vanilla_resizable", false);
     RECORD_AUTOMATICALLY.put("lite", false);
@@ -1140,6 +1152,15 @@ public class Settings {
         "custom",
         getPropString(props, "disassemble_directory", DISASSEMBLE_DIRECTORY.get("default")));
 
+    LAZY_CLASS_LOADING.put("vanilla", false);
+    LAZY_CLASS_LOADING.put("vanilla_resizable", false);
+    LAZY_CLASS_LOADING.put("lite", false);
+    LAZY_CLASS_LOADING.put("default", false);
+    LAZY_CLASS_LOADING.put("heavy", false);
+    LAZY_CLASS_LOADING.put("all", false);
+    LAZY_CLASS_LOADING.put(
+        "custom", getPropBoolean(props, "lazy_class_loading", LAZY_CLASS_LOADING.get("default")));
+
     // Sanitize settings
     if (CUSTOM_CLIENT_SIZE_X.get("custom") < 512) {
       CUSTOM_CLIENT_SIZE_X.put("custom", 512);
@@ -1540,6 +1561,7 @@ public class Settings {
       props.setProperty("record_kb_mouse", Boolean.toString(RECORD_KB_MOUSE.get(preset)));
       props.setProperty("parse_opcodes", Boolean.toString(PARSE_OPCODES.get(preset)));
       props.setProperty("fast_disconnect", Boolean.toString(FAST_DISCONNECT.get(preset)));
+      props.setProperty("in_memory_playback", Boolean.toString(IN_MEMORY_PLAYBACK.get(preset)));
       props.setProperty("record_automatically", Boolean.toString(RECORD_AUTOMATICALLY.get(preset)));
       props.setProperty(
           "hide_private_msgs_replay", Boolean.toString(HIDE_PRIVATE_MSGS_REPLAY.get(preset)));
@@ -1572,6 +1594,7 @@ public class Settings {
           Boolean.toString(RECORD_AUTOMATICALLY_FIRST_TIME.get(preset)));
       props.setProperty("disassemble", Boolean.toString(DISASSEMBLE.get(preset)));
       props.setProperty("disassemble_directory", DISASSEMBLE_DIRECTORY.get(preset));
+      props.setProperty("lazy_class_loading", Boolean.toString(LAZY_CLASS_LOADING.get(preset)));
 
       // Keybinds
       for (KeybindSet kbs : KeyboardHandler.keybindSetList) {
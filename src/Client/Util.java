@@ -18,8 +18,6 @@
  */
 package Client;
 
-import Game.Replay;
-import Game.ReplayQueue;
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.File;
@@ -274,48 +272,6 @@ public class Util {
     return sb.toString();
   }
 
-  public static List<File> getAllReplays(List<File> folderInputs) {
-    ReplayQueue.foundBrokenReplay = false;
-    List<File> potentialReplayFolders = new ArrayList<File>();
-    List<File> replayFolders = new ArrayList<File>();
-
-    for (File folderInputFile : folderInputs) {
-      if (folderInputFile != null) {
-        String folderInput = folderInputFile.getAbsolutePath();
-        listf(folderInput, potentialReplayFolders);
-        if (Replay.isValid(folderInput)) {
-          Replay.checkAndGenerateMetadata(folderInput);
-          replayFolders.add(new File(folderInput));
-        } else {
-          if (Replay.isBroken(folderInput)) {
-            ReplayQueue.foundBrokenReplay = true;
-          }
-        }
-      }
-    }
-    for (File file : potentialReplayFolders) {
-      if (Replay.isValid(file.getAbsolutePath())) {
-        Replay.checkAndGenerateMetadata(file.getAbsolutePath());
-        replayFolders.add(file);
-      } else {
-        if (Replay.isBroken(file.getAbsolutePath())) {
-          ReplayQueue.foundBrokenReplay = true;
-        }
-      }
-    }
-
-    Collections.sort(
-        replayFolders,
-        new Comparator<File>() {
-          @Override
-          public int compare(File file2, File file1) {
-            // sorts alphabetically
-            return file2.compareTo(file1);
-          }
-        });
-    return replayFolders;
-  }
-
   public static int getReplayEnding(File replay) {
     int timestamp_ret = 0;
 
@@ -37,7 +37,6 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.lang.reflect.InvocationTargetException;
 import java.math.BigInteger;
 import java.net.URL;
 import java.net.URLConnection;
@@ -601,14 +600,14 @@ public class Client {
   /** Stores the user's display name in {@link #player_name}. */
   public static void getPlayerName() {
     try {
-      String name = (String) Reflection.characterName.get(player_object);
+      String name = (String) Reflection.Handles.characterName.invokeExact(player_object);
       if (name != null) {
         if (!name.equals(player_name)) {
           player_name = name;
           Camera.reset_lookat();
         }
       }
-    } catch (IllegalArgumentException | IllegalAccessException e1) {
+    } catch (Throwable e1) {
       e1.printStackTrace();
     }
   }
@@ -616,8 +615,8 @@ public class Client {
   public static int getPlayerWaypointX() {
     int x = 0;
     try {
-      x = (int) Reflection.characterWaypointX.get(player_object);
-    } catch (Exception e) {
+      x = (int) Reflection.Handles.characterWaypointX.invokeExact(player_object);
+    } catch (Throwable e) {
     }
     return x;
   }
@@ -625,8 +624,8 @@ public class Client {
   public static int getPlayerWaypointY() {
     int y = 0;
     try {
-      y = (int) Reflection.characterWaypointY.get(player_object);
-    } catch (Exception e) {
+      y = (int) Reflection.Handles.characterWaypointY.invokeExact(player_object);
+    } catch (Throwable e) {
     }
     return y;
   }
@@ -946,12 +945,13 @@ public class Client {
    * @param chat_type the type of message to send
    */
   public static synchronized void displayMessage(String message, int chat_type) {
-    if (Client.state != Client.STATE_GAME || Reflection.displayMessage == null) return;
+    if (Client.state != Client.STATE_GAME || Reflection.Handles.displayMessage == null) return;
 
     try {
-      Reflection.displayMessage.invoke(
-          Client.instance, false, null, 0, message, chat_type, 0, null, null);
-    } catch (Exception e) {
+      Reflection.Handles.displayMessage.invokeExact(
+          Client.instance, false, (String) null, 0, message, chat_type, 0, (String) null,
+          (String) null);
+    } catch (Throwable e) {
     }
   }
 
@@ -1122,7 +1122,7 @@ public class Client {
       int offset = 0;
       if (Client.is_in_wild) offset = 70;
       try {
-        Reflection.drawString.invoke(
+        Reflection.Handles.drawString.invokeExact(
             surfaceInstance,
             "Fps: " + Renderer.fps,
             Renderer.width - 62 - offset,
@@ -1130,7 +1130,7 @@ public class Client {
             0xffff00,
             false,
             1);
-      } catch (Exception e) {
+      } catch (Throwable e) {
       }
     }
   }
@@ -1187,32 +1187,32 @@ public class Client {
         if (!itemCommand.equals("")) {
           if (!Item.shouldPatch(index)) {
             // Edible item command
-            Reflection.menuGen.invoke(
+            Reflection.Handles.menuGen.invokeExact(
                 instance, n, 640, false, itemCommand, Client.strings[34] + itemName);
             // Use
-            Reflection.menuGen.invoke(
+            Reflection.Handles.menuGen.invokeExact(
                 instance, n, 650, false, Client.strings[71], Client.strings[34] + itemName);
           } else {
             // 635 is a synonym for 650 "Use", its lower than 640 since otherwise won't do the swap
             // Use
-            Reflection.menuGen.invoke(
+            Reflection.Handles.menuGen.invokeExact(
                 instance, n, 635, false, Client.strings[71], Client.strings[34] + itemName);
             // Edible item command
-            Reflection.menuGen.invoke(
+            Reflection.Handles.menuGen.invokeExact(
                 instance, n, 640, false, itemCommand, Client.strings[34] + itemName);
           }
         } else {
           // Use
-          Reflection.menuGen.invoke(
+          Reflection.Handles.menuGen.invokeExact(
               instance, n, 650, false, Client.strings[71], Client.strings[34] + itemName);
         }
         // Drop
-        Reflection.menuGen.invoke(
+        Reflection.Handles.menuGen.invokeExact(
             instance, n, 660, false, Client.strings[67], Client.strings[34] + itemName);
         // Examine
-        Reflection.menuGen.invoke(
+        Reflection.Handles.menuGen.invokeExact(
             instance, index, 3600, false, Client.strings[51], Client.strings[34] + itemName);
-      } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+      } catch (Throwable e) {
         // TODO Auto-generated catch block
         e.printStackTrace();
       }
@@ -1227,22 +1227,26 @@ public class Client {
       if (action.containsWorldPoint == 1) {
         Client.displayMenuAction(action.name, idxOrDeltaX + regionX, idxOrDeltaY + regionY);
       } else if (action.containsWorldPoint == 2) {
-        if (Reflection.getNpc == null) return;
+        if (Reflection.Handles.getNpc == null) return;
         try {
-          res = Reflection.getNpc.invoke(Client.instance, idxOrDeltaX, (byte) -123);
-          mx = (Reflection.characterX.getInt(res) - 64) / Client.tileSize;
-          my = (Reflection.characterY.getInt(res) - 64) / Client.tileSize;
+          res =
+              (Object)
+                  Reflection.Handles.getNpc.invokeExact(
+                      Client.instance, idxOrDeltaX, (byte) -123);
+          mx = ((int) Reflection.Handles.characterX.invokeExact(res) - 64) / Client.tileSize;
+          my = ((int) Reflection.Handles.characterY.invokeExact(res) - 64) / Client.tileSize;
           Client.displayMenuAction(action.name, mx + regionX, my + regionY);
-        } catch (Exception e) {
+        } catch (Throwable e) {
         }
       } else if (action.containsWorldPoint == 3) {
-        if (Reflection.getPlayer == null) return;
+        if (Reflection.Handles.getPlayer == null) return;
         try {
-          res = Reflection.getPlayer.invoke(Client.instance, idxOrDeltaX, 220);
-          mx = (Reflection.characterX.getInt(res) - 64) / Client.tileSize;
-          my = (Reflection.characterY.getInt(res) - 64) / Client.tileSize;
+          res =
+              (Object) Reflection.Handles.getPlayer.invokeExact(Client.instance, idxOrDeltaX, 220);
+          mx = ((int) Reflection.Handles.characterX.invokeExact(res) - 64) / Client.tileSize;
+          my = ((int) Reflection.Handles.characterY.invokeExact(res) - 64) / Client.tileSize;
           Client.displayMenuAction(action.name, mx + regionX, my + regionY);
-        } catch (Exception e) {
+        } catch (Throwable e) {
         }
       }
     }
@@ -1281,10 +1285,10 @@ public class Client {
     // object was found
     if (obj != null) {
       try {
-        n1 = Reflection.attackingPlayerIdx.getInt(obj);
-        n2 = Reflection.attackingNpcIdx.getInt(obj);
-        name = (String) Reflection.characterDisplayName.get(obj);
-      } catch (IllegalArgumentException | IllegalAccessException e) {
+        n1 = (int) Reflection.Handles.attackingPlayerIdx.invokeExact(obj);
+        n2 = (int) Reflection.Handles.attackingNpcIdx.invokeExact(obj);
+        name = (String) Reflection.Handles.characterDisplayName.invokeExact(obj);
+      } catch (Throwable e) {
         // TODO Auto-generated catch block
       }
     }
@@ -21,6 +21,9 @@ package Game;
 import Client.JClassLoader;
 import Client.Launcher;
 import Client.Logger;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 
@@ -94,7 +97,89 @@ public class Reflection {
   private static final String GETNPC = "private final ta client.b(int,byte)";
   private static final String GETPLAYER = "private final ta client.d(int,int)";
 
-  public static void Load() {
+  /**
+   * Method handles for the members used every frame.
+   *
+   * <p>Unlike {@link Field#get} and {@link Method#invoke}, calls through a static final handle can
+   * be inlined by the JIT and don't box their arguments. The game's obfuscated classes are Object
+   * in their types, and since invokeExact() needs the call to match the type exactly, receivers are
+   * passed as Object and results are cast. Null if the member wasn't found.
+   */
+  public static class Handles {
+    static {
+      // Handles are made from what Load() found
+      loadOnce();
+    }
+
+    // (Object)String
+    public static final MethodHandle characterName = getter(Reflection.characterName);
+    public static final MethodHandle characterDisplayName =
+        getter(Reflection.characterDisplayName);
+    // (Object)int
+    public static final MethodHandle characterX = getter(Reflection.characterX);
+    public static final MethodHandle characterY = getter(Reflection.characterY);
+    public static final MethodHandle characterWaypointX = getter(Reflection.characterWaypointX);
+    public static final MethodHandle characterWaypointY = getter(Reflection.characterWaypointY);
+    public static final MethodHandle attackingPlayerIdx = getter(Reflection.attackingPlayerIdx);
+    public static final MethodHandle attackingNpcIdx = getter(Reflection.attackingNpcIdx);
+
+    // (Object,boolean,String,int,String,int,int,String,String)void
+    public static final MethodHandle displayMessage = unreflect(Reflection.displayMessage);
+    // (Object,int,int,boolean,String,String)void
+    public static final MethodHandle menuGen = unreflect(Reflection.menuGen);
+    // (Object,String,int,int,int,boolean,int)void
+    public static final MethodHandle drawString = unreflect(Reflection.drawString);
+    // (Object,int,byte)Object
+    public static final MethodHandle getNpc = unreflect(Reflection.getNpc);
+    // (Object,int,int)Object
+    public static final MethodHandle getPlayer = unreflect(Reflection.getPlayer);
+
+    private static MethodHandle getter(Field field) {
+      if (field == null) return null;
+      try {
+        return erase(MethodHandles.lookup().unreflectGetter(field));
+      } catch (IllegalAccessException e) {
+        Logger.Error("Unable to make a method handle for " + field);
+        e.printStackTrace();
+        return null;
+      }
+    }
+
+    private static MethodHandle unreflect(Method method) {
+      if (method == null) return null;
+      try {
+        return erase(MethodHandles.lookup().unreflect(method));
+      } catch (IllegalAccessException e) {
+        Logger.Error("Unable to make a method handle for " + method);
+        e.printStackTrace();
+        return null;
+      }
+    }
+
+    /** Replaces the game's classes in the type of a handle by Object */
+    private static MethodHandle erase(MethodHandle handle) {
+      MethodType type = handle.type();
+      for (int i = 0; i < type.parameterCount(); i++) {
+        if (isGameClass(type.parameterType(i))) type = type.changeParameterType(i, Object.class);
+      }
+      if (isGameClass(type.returnType())) type = type.changeReturnType(Object.class);
+      return handle.asType(type);
+    }
+
+    private static boolean isGameClass(Class<?> c) {
+      return c.getClassLoader() instanceof JClassLoader;
+    }
+  }
+
+  private static boolean loaded = false;
+
+  /** Runs {@link #Load()} unless it already ran. */
+  private static synchronized void loadOnce() {
+    if (!loaded) Load();
+  }
+
+  public static synchronized void Load() {
+    loaded = true;
     try {
       JClassLoader classLoader = Launcher.getInstance().getClassLoader();
       boolean found = false;
@@ -826,6 +826,9 @@ public class Renderer {
         drawShadowText(
             g2, "replay_client_write: " + Replay.getClientWrite(), x, y, color_text, false);
         y += 16;
+        drawShadowText(
+            g2, "replay_prefetch_depth: " + Replay.getPrefetchDepth(), x, y, color_text, false);
+        y += 16;
         drawShadowText(g2, "Last sound effect: " + Client.lastSoundEffect, x, y, color_text, false);
         y += 16;
         drawShadowText(g2, "Mouse Text: " + Client.mouseText, x, y, color_text, false);
@@ -1056,12 +1059,9 @@ public class Renderer {
         if (replayOption == 2) {
           replayOption = 0;
         } else {
-          if (ReplayQueue.replayFileSelectAdd()) {
-            Renderer.replayOption = 2;
-            ReplayQueue.nextReplay();
-          } else {
-            Renderer.replayOption = 0;
-          }
+          // The replays are queued once the folder is indexed
+          Renderer.replayOption = 0;
+          ReplayQueue.replayFileSelectAdd();
         }
       }
 
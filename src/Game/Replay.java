@@ -35,6 +35,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.text.DecimalFormat;
@@ -57,8 +59,8 @@ public class Replay {
   static DataOutputStream metadata = null;
 
   static DataInputStream play_keys = null;
-  static DataInputStream play_keyboard = null;
-  static DataInputStream play_mouse = null;
+  static ReplayInputFormat.Decoder play_keyboard = null;
+  static ReplayInputFormat.Decoder play_mouse = null;
 
   static MessageDigest output_checksum = null;
   static MessageDigest input_checksum = null;
@@ -81,6 +83,11 @@ public class Replay {
   public static final int TIMESTAMP_EOF = -1;
 
   public static boolean isSeeking = false;
+
+  // While seeking, only draw a frame this often so the seek bar still shows progress
+  public static final long SEEK_PREVIEW_INTERVAL_NANOS = 1000000000L;
+  private static long seek_preview_time;
+  private static boolean seek_preview_frame = true;
   public static boolean isPlaying = false;
   public static boolean isRecording = false;
   public static boolean isRestarting = false;
@@ -121,6 +128,13 @@ public class Replay {
 
   public static byte[] ipAddressMetadata;
 
+  static ReplayWriter writer = null;
+
+  // Reused by the recording hooks so they don't allocate per event
+  private static final byte[] key_record = new byte[4];
+  private static ReplayInputFormat.Encoder keyboard_encoder;
+  private static ReplayInputFormat.Encoder mouse_encoder;
+
   public static int timestamp_lag = 0;
 
   public static void incrementTimestamp() {
@@ -167,6 +181,8 @@ public class Replay {
   public static void seek(int new_timestamp) {
     isSeeking = true;
     frame_time_slice = 0;
+    // Draw the first frame right away, so the seek bar shows up
+    seek_preview_time = System.nanoTime() - SEEK_PREVIEW_INTERVAL_NANOS;
     replayServer.seek(new_timestamp);
   }
 
@@ -223,18 +239,18 @@ public class Replay {
         File file = new File(replayDirectory + "/keyboard.bin.gz");
         if (file.exists()) {
           play_keyboard =
-              new DataInputStream(
-                  new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
-          timestamp_kb_input = play_keyboard.readInt();
+              new ReplayInputFormat.Decoder(
+                  new DataInputStream(
+                      new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)))));
+          timestamp_kb_input = nextInputTimestamp(play_keyboard);
         }
         file = new File(replayDirectory + "/mouse.bin.gz");
         if (file.exists()) {
           play_mouse =
-              new DataInputStream(
-                  new BufferedInputStream(
-                      new GZIPInputStream(
-                          new FileInputStream(new File(replayDirectory + "/mouse.bin.gz")))));
-          timestamp_mouse_input = play_mouse.readInt();
+              new ReplayInputFormat.Decoder(
+                  new DataInputStream(
+                      new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)))));
+          timestamp_mouse_input = nextInputTimestamp(play_mouse);
         }
         started_record_kb_mouse = true;
       } else {
@@ -275,6 +291,15 @@ public class Replay {
   }
 
   public static void restartReplayPlayback() {
+    restartReplayPlayback(0);
+  }
+
+  /**
+   * Restarts playback, positioning keys.bin for a restart from a keyframe.
+   *
+   * @param keyIndex the number of XTEA keys the client consumed before the keyframe
+   */
+  public static void restartReplayPlayback(int keyIndex) {
     if (timestamp == 0 || isRestarting || play_keys == null) return;
 
     try {
@@ -284,6 +309,7 @@ public class Replay {
           new DataInputStream(
               new BufferedInputStream(
                   new FileInputStream(new File(replayDirectory + "/keys.bin"))));
+      play_keys.skipBytes(keyIndex * 4);
       replayServer.restart = true;
     } catch (Exception e) {
       e.printStackTrace();
@@ -367,6 +393,10 @@ public class Replay {
                 new BufferedOutputStream(
                     new FlushableGZIPOutputStream(
                         new FileOutputStream(new File(recordingDirectory + "/mouse.bin.gz")))));
+        keyboard.writeInt(ReplayInputFormat.MAGIC);
+        mouse.writeInt(ReplayInputFormat.MAGIC);
+        keyboard_encoder = new ReplayInputFormat.Encoder();
+        mouse_encoder = new ReplayInputFormat.Encoder();
         started_record_kb_mouse =
             true; // need this to know whether or not to close the file if the user changes settings
         // mid-recording
@@ -381,6 +411,12 @@ public class Replay {
       output_checksum = MessageDigest.getInstance("SHA-256");
       input_checksum = MessageDigest.getInstance("SHA-256");
 
+      writer =
+          new ReplayWriter(
+              new OutputStream[] {input, output, keys, keyboard, mouse},
+              new MessageDigest[] {input_checksum, output_checksum, null, null, null});
+      writer.start();
+
       Logger.Info("Replay recording started");
     } catch (Exception e) {
       output = null;
@@ -405,19 +441,15 @@ public class Replay {
       // write it here
       if (retained_timestamp != TIMESTAMP_EOF && retained_bytes != null) {
         try {
-          ByteBuffer buffer = ByteBuffer.allocate(retained_bread + 8);
-          buffer.putInt(retained_timestamp);
-          buffer.putInt(retained_bread);
-          buffer.put(retained_bytes, retained_off, retained_bread);
-          input_checksum.update(buffer.array());
-          input.write(buffer.array());
-          input.flush();
+          writeRetainedRecord();
         } catch (Exception e) {
           e.printStackTrace();
-          shutdown_error();
         }
       }
 
+      // Everything queued has to be written before the checksums are final
+      writer.close();
+
       // Write EOF values
       ByteBuffer buffer = ByteBuffer.allocate(4);
       buffer.putInt(TIMESTAMP_EOF);
@@ -455,8 +487,8 @@ public class Replay {
       input.close();
       keys.close();
       if (started_record_kb_mouse) {
-        keyboard.write(buffer.array());
-        mouse.write(buffer.array());
+        keyboard.write(ReplayInputFormat.END);
+        mouse.write(ReplayInputFormat.END);
         keyboard.close();
         mouse.close();
       }
@@ -466,6 +498,7 @@ public class Replay {
       keys = null;
       keyboard = null;
       mouse = null;
+      writer = null;
 
       output_checksum = null;
       input_checksum = null;
@@ -480,6 +513,7 @@ public class Replay {
       keys = null;
       keyboard = null;
       mouse = null;
+      writer = null;
       Logger.Error("Unable to close replay files");
       return;
     }
@@ -538,13 +572,19 @@ public class Replay {
     return 100 - replayServer.getPercentRemaining();
   }
 
+  /** @return the timestamp of the next input event, or Integer.MAX_VALUE if there are no more */
+  private static int nextInputTimestamp(ReplayInputFormat.Decoder decoder) throws IOException {
+    return decoder.next() ? decoder.timestamp : Integer.MAX_VALUE;
+  }
+
   public static void playKeyboardInput() {
     try {
       while (timestamp >= timestamp_kb_input) {
-        byte event = play_keyboard.readByte();
-        char keychar = play_keyboard.readChar();
-        int keycode = play_keyboard.readInt();
-        int modifier = play_keyboard.readInt();
+        play_keyboard.readKeyboard();
+        byte event = play_keyboard.event;
+        char keychar = play_keyboard.keychar;
+        int keycode = play_keyboard.keycode;
+        int modifier = play_keyboard.modifier;
         KeyEvent keyEvent;
         switch (event) {
           case KEYBOARD_PRESSED:
@@ -581,7 +621,7 @@ public class Replay {
             Client.handler_keyboard.keyTyped(keyEvent);
             break;
         }
-        timestamp_kb_input = play_keyboard.readInt();
+        timestamp_kb_input = nextInputTimestamp(play_keyboard);
       }
     } catch (Exception e) {
     }
@@ -590,16 +630,17 @@ public class Replay {
   public static void playMouseInput() {
     try {
       while (timestamp >= timestamp_mouse_input) {
-        byte event = play_mouse.readByte();
-        int x = play_mouse.readInt();
-        int y = play_mouse.readInt();
-        int rotation = play_mouse.readInt();
-        int modifier = play_mouse.readInt();
-        int clickCount = play_mouse.readInt();
-        int scrollType = play_mouse.readInt();
-        int scrollAmount = play_mouse.readInt();
-        boolean popupTrigger = play_mouse.readBoolean();
-        int button = play_mouse.readInt();
+        play_mouse.readMouse();
+        byte event = play_mouse.event;
+        int x = play_mouse.x;
+        int y = play_mouse.y;
+        int rotation = play_mouse.rotation;
+        int modifier = play_mouse.modifier;
+        int clickCount = play_mouse.clickCount;
+        int scrollType = play_mouse.scrollType;
+        int scrollAmount = play_mouse.scrollAmount;
+        boolean popupTrigger = play_mouse.popupTrigger;
+        int button = play_mouse.button;
         MouseEvent mouseEvent;
         switch (event) {
           case MOUSE_CLICKED:
@@ -717,7 +758,7 @@ public class Replay {
             Client.handler_mouse.mouseWheelMoved(wheelEvent);
             break;
         }
-        timestamp_mouse_input = play_mouse.readInt();
+        timestamp_mouse_input = nextInputTimestamp(play_mouse);
       }
     } catch (Exception e) {
     }
@@ -730,6 +771,7 @@ public class Replay {
       resetFrameTimeSlice();
     } else {
       updateFrameTimeSlice();
+      if (replayServer != null) replayServer.wake();
     }
   }
 
@@ -782,6 +824,7 @@ public class Replay {
       metadata.writeInt(0); // User settings, not implemented for any purpose at this time
       metadata.flush();
       metadata.close();
+      ReplayCatalog.invalidate(replayFolder);
     } catch (IOException e) {
       Logger.Error("Couldn't write metadata.bin!");
     }
@@ -852,6 +895,30 @@ public class Replay {
     return new Object[] {replayLength, dateModified, world, conversionSettings, userField};
   }
 
+  /**
+   * Called by the client before it draws a frame. While seeking this skips every frame except one
+   * per {@link #SEEK_PREVIEW_INTERVAL_NANOS}, so seeking is only limited by packet processing.
+   *
+   * @return if the frame should be skipped
+   */
+  public static boolean skipDrawGame() {
+    if (!isSeeking) return false;
+
+    long now = System.nanoTime();
+    seek_preview_frame = now - seek_preview_time >= SEEK_PREVIEW_INTERVAL_NANOS;
+    if (seek_preview_frame) seek_preview_time = now;
+    return !seek_preview_frame;
+  }
+
+  /**
+   * Called by the client before it presents a frame.
+   *
+   * @return if the frame was skipped by {@link #skipDrawGame()}
+   */
+  public static boolean skipPresent() {
+    return isSeeking && !seek_preview_frame;
+  }
+
   public static void resetFrameTimeSlice() {
     if (isSeeking) return;
 
@@ -863,6 +930,18 @@ public class Replay {
     return frame_time_slice;
   }
 
+  /**
+   * Gets the frame time slice in nanoseconds, so playback isn't limited to whole milliseconds per
+   * frame at high speeds.
+   */
+  public static long getFrameTimeNanos() {
+    if (frame_time_slice == 0) return 0;
+
+    int frames = getFPS();
+    if (frames > 0 && frame_time_slice == 1000 / frames) return 1000000000L / frames;
+    return frame_time_slice * 1000000L;
+  }
+
   // Returns video elapsed time in millis
   public static int elapsedTimeMillis() {
     int time_slice = 1000 / fps;
@@ -914,6 +993,14 @@ public class Replay {
     return replayServer.client_write;
   }
 
+  /** @return how many in.bin.gz records are read ahead of playback */
+  public static int getPrefetchDepth() {
+    if (replayServer == null) return 0;
+
+    ReplayPrefetcher prefetcher = replayServer.prefetcher;
+    return prefetcher != null ? prefetcher.getDepth() : 0;
+  }
+
   // only change port in replay
   public static void changePort(int newPort) {
     if (isPlaying) {
@@ -996,12 +1083,8 @@ public class Replay {
     if (keyboard == null) return;
 
     try {
-      keyboard.writeInt(timestamp);
-      keyboard.writeByte(event);
-      keyboard.writeChar(keychar);
-      keyboard.writeInt(keycode);
-      keyboard.writeInt(modifier);
-      keyboard.flush();
+      int length = keyboard_encoder.encodeKeyboard(timestamp, event, keychar, keycode, modifier);
+      writer.write(ReplayWriter.STREAM_KEYBOARD, keyboard_encoder.getBuffer(), 0, length);
     } catch (Exception e) {
       e.printStackTrace();
       shutdown_error();
@@ -1022,31 +1105,46 @@ public class Replay {
     if (mouse == null) return;
 
     try {
-      mouse.writeInt(timestamp);
-      mouse.writeByte(event);
-      mouse.writeInt(x);
-      mouse.writeInt(y);
-      mouse.writeInt(rotation);
-      mouse.writeInt(modifier);
-      mouse.writeInt(clickCount);
-      mouse.writeInt(scrollType);
-      mouse.writeInt(scrollAmount);
-      mouse.writeBoolean(popupTrigger);
-      mouse.writeInt(button);
-      mouse.flush();
+      int length =
+          mouse_encoder.encodeMouse(
+              timestamp,
+              event,
+              x,
+              y,
+              rotation,
+              modifier,
+              clickCount,
+              scrollType,
+              scrollAmount,
+              popupTrigger,
+              button);
+      writer.write(ReplayWriter.STREAM_MOUSE, mouse_encoder.getBuffer(), 0, length);
     } catch (Exception e) {
       e.printStackTrace();
       shutdown_error();
     }
   }
 
+  /**
+   * Called by the client before it opens the game connection.
+   *
+   * @return an in-memory connection to the replay server, or null to open a socket as usual
+   */
+  public static Socket connectHook() {
+    if (!isPlaying || replayServer == null) return null;
+
+    ReplayTransport transport = replayServer.transport;
+    if (transport == null) return null;
+    return transport.connect();
+  }
+
   public static void dumpRawInputStream(byte[] b, int n, int n2, int n5, int bytesread) {
     // Save timestamp of last time we saw data from the server
     if (bytesread > 0) {
       int lag = timestamp - timestamp_server_last;
       if (lag > 10) timestamp_lag = lag;
       timestamp_server_last = timestamp;
-      if (replayServer != null) replayServer.client_read += bytesread;
+      if (replayServer != null) replayServer.clientRead(bytesread);
     }
 
     if (input == null) return;
@@ -1059,31 +1157,24 @@ public class Replay {
       try {
         // Handle disconnection
         if (timestamp_disconnect != TIMESTAMP_EOF && retained_timestamp >= timestamp_disconnect) {
-          ByteBuffer buffer = ByteBuffer.allocate(8);
-          buffer.putInt(timestamp_disconnect);
-          buffer.putInt(-1);
-          input_checksum.update(buffer.array());
-          input.write(buffer.array());
-          input.flush();
+          writer.writeRecord(ReplayWriter.STREAM_INPUT, timestamp_disconnect, null, 0, 0, -1);
           timestamp_disconnect = TIMESTAMP_EOF;
         }
 
-        ByteBuffer buffer = ByteBuffer.allocate(retained_bread + 8);
-        buffer.putInt(retained_timestamp);
-        buffer.putInt(retained_bread);
-        buffer.put(retained_bytes, retained_off, retained_bread);
-        input_checksum.update(buffer.array());
-        input.write(buffer.array());
-        input.flush();
+        writeRetainedRecord();
       } catch (Exception e) {
         e.printStackTrace();
         shutdown_error();
       }
     }
     retained_timestamp = timestamp;
-    // Important! Cloned since it gets modified by decryption in game logic
-    retained_bytes = b.clone();
-    retained_off = off;
+    // Important! Copied since it gets modified by decryption in game logic
+    if (retained_bytes == null || retained_bytes.length < bytesread) {
+      int capacity = (retained_bytes == null) ? 0 : retained_bytes.length * 2;
+      retained_bytes = new byte[Math.max(bytesread, capacity)];
+    }
+    System.arraycopy(b, off, retained_bytes, 0, bytesread);
+    retained_off = 0;
     retained_bread = bytesread;
   }
 
@@ -1091,49 +1182,40 @@ public class Replay {
     if (output == null) return;
 
     try {
-      boolean isLogin = false;
       int pos = -1;
-      byte[] out_b = null;
       // for the first bytes if byte == (byte)Client.version, 4 bytes before indicate if its
       // login or reconnect and 5 its what determines if its login-related
       for (int i = off + 5; i < off + Math.min(15, len); i++) {
         if (b[i] == (byte) Client.version && b[i - 5] == 0 && (b[i - 4] == 0 || b[i - 4] == 1)) {
-          isLogin = true;
           pos = i + 1;
-          out_b = b.clone();
           break;
         }
       }
-      if (isLogin && pos != -1) {
-        for (int i = pos; i < off + len; i++) {
-          out_b[i] = 0x00;
-        }
-
+      if (pos != -1) {
         Logger.Info("Replay: Removed login block from client output");
 
-        ByteBuffer buffer = ByteBuffer.allocate(len + 8);
-        buffer.putInt(timestamp);
-        buffer.putInt(len);
-        buffer.put(out_b, off, len);
-        output_checksum.update(buffer.array());
-        output.write(buffer.array());
-        output.flush();
+        // Everything after the version is blanked out, without touching the client's buffer
+        writer.writeRecord(ReplayWriter.STREAM_OUTPUT, timestamp, b, off, pos - off, len);
         return;
       }
 
-      ByteBuffer buffer = ByteBuffer.allocate(len + 8);
-      buffer.putInt(timestamp);
-      buffer.putInt(len);
-      buffer.put(b, off, len);
-      output_checksum.update(buffer.array());
-      output.write(buffer.array());
-      output.flush();
+      writer.writeRecord(ReplayWriter.STREAM_OUTPUT, timestamp, b, off, len, len);
     } catch (Exception e) {
       e.printStackTrace();
       shutdown_error();
     }
   }
 
+  private static void writeRetainedRecord() throws IOException {
+    writer.writeRecord(
+        ReplayWriter.STREAM_INPUT,
+        retained_timestamp,
+        retained_bytes,
+        retained_off,
+        retained_bread,
+        retained_bread);
+  }
+
   public static int hookXTEAKey(int key) {
     if (replayServer != null) {
       int serverXTEAKey = replayServer.getXTEAKey();
@@ -1154,8 +1236,11 @@ public class Replay {
 
     try {
       Logger.Debug(String.format("Writing XTEA key: %d", key));
-      keys.writeInt(key); // data length
-      keys.flush();
+      key_record[0] = (byte) (key >>> 24);
+      key_record[1] = (byte) (key >>> 16);
+      key_record[2] = (byte) (key >>> 8);
+      key_record[3] = (byte) key;
+      writer.write(ReplayWriter.STREAM_KEYS, key_record, 0, 4);
     } catch (Exception e) {
       // e.printStackTrace();
       shutdown_error();
@@ -1183,25 +1268,17 @@ public class Replay {
         // in here probably would need to check the position
         // don't care about the packet if 182, just rewrite it using the enc opcode
         try {
-          ByteBuffer buffer = ByteBuffer.allocate(retained_bread + 8);
-          buffer.putInt(retained_timestamp);
-          buffer.putInt(retained_bread);
           retained_bytes[retained_off + 1] = (byte) 127;
           retained_bytes[retained_off + 2] = 0;
           retained_bytes[retained_off + 3] = 0;
           retained_bytes[retained_off + 4] = 1;
-          buffer.put(retained_bytes, retained_off, retained_bread);
-          input_checksum.update(buffer.array());
-          input.write(buffer.array());
-          input.flush();
+          writeRetainedRecord();
           Logger.Debug("Replay: Removed host block from client input");
         } catch (Exception e) {
           e.printStackTrace();
           shutdown_error();
         }
         retained_timestamp = TIMESTAMP_EOF;
-        // free memory
-        retained_bytes = null;
       }
     }
   }
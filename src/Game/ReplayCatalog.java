@@ -0,0 +1,199 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import Client.Logger;
+import Client.Settings;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * On-disk cache of every replay's metadata.bin, so the queue window doesn't have to open a file per
+ * row each time it's rebuilt.
+ *
+ * <p>Entries are keyed by replay folder and checked against the size and modification time of
+ * metadata.bin the first time they're used in a session, after that they're trusted until {@link
+ * #invalidate(String)} is called.
+ */
+public class ReplayCatalog {
+  public static final int VERSION = 1;
+
+  private static final String FILENAME = "replay_catalog.bin";
+
+  private static class Entry {
+    long metadataModified;
+    long metadataSize;
+    int replayLength;
+    long dateModified;
+    String world;
+    byte conversionSettings;
+    int userField;
+
+    boolean verified;
+  }
+
+  private static Map<String, Entry> entries;
+  private static boolean dirty = false;
+
+  /**
+   * Gets the metadata of a replay, the same as {@link Replay#readMetadata(String)}.
+   *
+   * @param replayFolder the replay folder
+   * @return {replayLength, dateModified, world, conversionSettings, userField}
+   */
+  public static synchronized Object[] readMetadata(String replayFolder) {
+    load();
+
+    Entry entry = entries.get(replayFolder);
+    if (entry != null && entry.verified) return toMetadata(entry);
+
+    File metadataFile = new File(replayFolder + "/metadata.bin");
+    long modified = metadataFile.lastModified();
+    long size = metadataFile.length();
+    if (modified == 0) {
+      // Missing, don't cache the defaults
+      if (entries.remove(replayFolder) != null) dirty = true;
+      return Replay.readMetadata(replayFolder);
+    }
+
+    if (entry != null && entry.metadataModified == modified && entry.metadataSize == size) {
+      entry.verified = true;
+      return toMetadata(entry);
+    }
+
+    Object[] metadata = Replay.readMetadata(replayFolder);
+    entry = new Entry();
+    entry.metadataModified = modified;
+    entry.metadataSize = size;
+    entry.replayLength = (int) metadata[0];
+    entry.dateModified = (long) metadata[1];
+    entry.world = (String) metadata[2];
+    entry.conversionSettings = (byte) metadata[3];
+    entry.userField = (int) metadata[4];
+    entry.verified = true;
+    entries.put(replayFolder, entry);
+    dirty = true;
+    return metadata;
+  }
+
+  /**
+   * Drops the cached metadata of a replay, call after writing its metadata.bin.
+   *
+   * @param replayFolder the replay folder
+   */
+  public static synchronized void invalidate(String replayFolder) {
+    if (entries == null) return;
+    if (entries.remove(replayFolder) != null) dirty = true;
+  }
+
+  /** Writes the catalog to disk if anything changed since it was loaded. */
+  public static synchronized void save() {
+    if (entries == null || !dirty) return;
+
+    File file = getFile();
+    File temp = new File(file.getPath() + ".tmp");
+    try {
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      out.writeInt(VERSION);
+      out.writeInt(entries.size());
+      for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+        Entry entry = mapEntry.getValue();
+        out.writeUTF(mapEntry.getKey());
+        out.writeLong(entry.metadataModified);
+        out.writeLong(entry.metadataSize);
+        out.writeInt(entry.replayLength);
+        out.writeLong(entry.dateModified);
+        out.writeUTF(entry.world);
+        out.writeByte(entry.conversionSettings);
+        out.writeInt(entry.userField);
+      }
+      out.close();
+
+      if (file.exists() && !file.delete()) throw new IOException("Unable to replace " + file);
+      if (!temp.renameTo(file)) throw new IOException("Unable to rename " + temp);
+      dirty = false;
+    } catch (IOException e) {
+      Logger.Error("Couldn't write " + FILENAME + "!");
+      e.printStackTrace();
+      temp.delete();
+    }
+  }
+
+  private static void load() {
+    if (entries != null) return;
+
+    entries = new HashMap<String, Entry>();
+    File file = getFile();
+    if (!file.exists()) return;
+
+    try {
+      DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (in.readInt() != VERSION) {
+          Logger.Info("Replay catalog is from an older version, rebuilding");
+          dirty = true;
+          return;
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          String replayFolder = in.readUTF();
+          Entry entry = new Entry();
+          entry.metadataModified = in.readLong();
+          entry.metadataSize = in.readLong();
+          entry.replayLength = in.readInt();
+          entry.dateModified = in.readLong();
+          entry.world = in.readUTF();
+          entry.conversionSettings = in.readByte();
+          entry.userField = in.readInt();
+          entries.put(replayFolder, entry);
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      Logger.Warn("Replay catalog is corrupted, rebuilding");
+      entries.clear();
+      dirty = true;
+    }
+  }
+
+  private static Object[] toMetadata(Entry entry) {
+    return new Object[] {
+      entry.replayLength,
+      entry.dateModified,
+      entry.world,
+      entry.conversionSettings,
+      entry.userField
+    };
+  }
+
+  private static File getFile() {
+    return new File(Settings.Dir.JAR, FILENAME);
+  }
+}
@@ -0,0 +1,185 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import Client.Logger;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds replay folders and generates their missing metadata in parallel.
+ *
+ * <p>Folders are walked on a fork-join pool, and metadata generation, which has to decompress the
+ * whole in.bin.gz, runs on a small fixed pool so a large archive doesn't saturate the disk.
+ */
+public class ReplayIndexer {
+  /** Maximum number of replays having their metadata generated at the same time */
+  public static final int METADATA_THREADS =
+      Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+  /** Receives progress updates, called from worker threads */
+  public interface ProgressListener {
+    /**
+     * @param generated number of replays that had their metadata generated so far
+     * @param total number of replays found so far that need metadata
+     */
+    void onProgress(int generated, int total);
+  }
+
+  public static class Result {
+    public final List<File> replays;
+    public final boolean foundBrokenReplay;
+
+    Result(List<File> replays, boolean foundBrokenReplay) {
+      this.replays = replays;
+      this.foundBrokenReplay = foundBrokenReplay;
+    }
+  }
+
+  private final ConcurrentLinkedQueue<File> m_replays = new ConcurrentLinkedQueue<File>();
+  private final ConcurrentLinkedQueue<Future<?>> m_metadataTasks =
+      new ConcurrentLinkedQueue<Future<?>>();
+  private final AtomicBoolean m_foundBrokenReplay = new AtomicBoolean(false);
+  private final AtomicInteger m_metadataTotal = new AtomicInteger(0);
+  private final AtomicInteger m_metadataGenerated = new AtomicInteger(0);
+  private final ProgressListener m_listener;
+  private ExecutorService m_metadataPool;
+
+  private ReplayIndexer(ProgressListener listener) {
+    m_listener = listener;
+  }
+
+  /**
+   * Finds every replay in the given folders and their subfolders, generating missing metadata.
+   *
+   * <p>This blocks until indexing is done, so it shouldn't be called from the UI thread.
+   *
+   * @param folderInputs the folders to search
+   * @param listener receives progress updates, may be null
+   * @return the replays found, sorted by path
+   */
+  public static Result index(List<File> folderInputs, ProgressListener listener) {
+    ReplayIndexer indexer = new ReplayIndexer(listener);
+    return indexer.run(folderInputs);
+  }
+
+  private Result run(List<File> folderInputs) {
+    ForkJoinPool scanPool = new ForkJoinPool();
+    m_metadataPool =
+        Executors.newFixedThreadPool(
+            METADATA_THREADS,
+            new ThreadFactory() {
+              private final AtomicInteger count = new AtomicInteger(0);
+
+              @Override
+              public Thread newThread(Runnable runnable) {
+                Thread thread =
+                    new Thread(runnable, "ReplayIndexer-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+
+    try {
+      List<ScanTask> tasks = new ArrayList<ScanTask>();
+      for (File folderInput : folderInputs) {
+        if (folderInput != null) tasks.add(new ScanTask(folderInput.getAbsoluteFile()));
+      }
+      for (ScanTask task : tasks) scanPool.execute(task);
+      for (ScanTask task : tasks) task.join();
+
+      // Wait for metadata, the scan has queued everything by now
+      Future<?> task;
+      while ((task = m_metadataTasks.poll()) != null) {
+        try {
+          task.get();
+        } catch (Exception e) {
+          Logger.Error("Unable to generate replay metadata");
+          e.printStackTrace();
+        }
+      }
+    } finally {
+      scanPool.shutdown();
+      m_metadataPool.shutdown();
+    }
+
+    List<File> replays = new ArrayList<File>(m_replays);
+    // sorts alphabetically
+    Collections.sort(replays);
+    return new Result(replays, m_foundBrokenReplay.get());
+  }
+
+  private void queueMetadata(final String replayFolder) {
+    if (new File(replayFolder + "/metadata.bin").exists()) return;
+
+    m_metadataTotal.incrementAndGet();
+    m_metadataTasks.add(
+        m_metadataPool.submit(
+            new Runnable() {
+              @Override
+              public void run() {
+                Replay.checkAndGenerateMetadata(replayFolder);
+                int generated = m_metadataGenerated.incrementAndGet();
+                if (m_listener != null) m_listener.onProgress(generated, m_metadataTotal.get());
+              }
+            }));
+  }
+
+  /** Checks a folder and forks a task for each of its subfolders */
+  private class ScanTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final File m_folder;
+
+    ScanTask(File folder) {
+      m_folder = folder;
+    }
+
+    @Override
+    protected void compute() {
+      String path = m_folder.getAbsolutePath();
+      if (Replay.isValid(path)) {
+        queueMetadata(path);
+        m_replays.add(m_folder);
+      } else if (Replay.isBroken(path)) {
+        m_foundBrokenReplay.set(true);
+      }
+
+      File[] files = m_folder.listFiles();
+      if (files == null) return;
+
+      List<ScanTask> subtasks = new ArrayList<ScanTask>();
+      for (File file : files) {
+        if (file.isDirectory()) subtasks.add(new ScanTask(file));
+      }
+      invokeAll(subtasks);
+    }
+  }
+}
@@ -0,0 +1,296 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Encoding of keyboard.bin.gz and mouse.bin.gz.
+ *
+ * <p>The original format is every field of every event as a full int. Version 1 files start with
+ * {@link #MAGIC} (negative, so it can't be mistaken for the first timestamp of an original file),
+ * and every event is a header byte followed by varints: the timestamp and mouse position are deltas
+ * from the previous event, and fields that rarely change are only written when they differ from
+ * the previous event, so a mouse move usually takes 4 to 6 bytes instead of 41.
+ */
+public class ReplayInputFormat {
+  public static final int VERSION = 1;
+  public static final int MAGIC = 0x80524900 | VERSION;
+
+  /** Header byte marking the end of the stream */
+  public static final int END = 0xFF;
+
+  // Keyboard header: event in bits 0-1
+  private static final int KEYBOARD_EVENT_MASK = 0x03;
+  private static final int KEYBOARD_MODIFIER_CHANGED = 0x04;
+
+  // Mouse header: event in bits 0-2
+  private static final int MOUSE_EVENT_MASK = 0x07;
+  private static final int MOUSE_POPUP_TRIGGER = 0x08;
+  private static final int MOUSE_FIELDS_CHANGED = 0x10;
+
+  // Mouse fields only written when they change
+  private static final int FIELD_ROTATION = 0x01;
+  private static final int FIELD_MODIFIER = 0x02;
+  private static final int FIELD_CLICK_COUNT = 0x04;
+  private static final int FIELD_SCROLL_TYPE = 0x08;
+  private static final int FIELD_SCROLL_AMOUNT = 0x10;
+  private static final int FIELD_BUTTON = 0x20;
+
+  /** Encodes events into a reused buffer, one encoder per stream */
+  public static class Encoder {
+    private final byte[] m_buffer = new byte[64];
+    private int m_position;
+
+    private int m_timestamp = 0;
+    private int m_x = 0;
+    private int m_y = 0;
+    private int m_rotation = 0;
+    private int m_modifier = 0;
+    private int m_clickCount = 0;
+    private int m_scrollType = 0;
+    private int m_scrollAmount = 0;
+    private int m_button = 0;
+
+    /** @return the buffer holding the last encoded event */
+    public byte[] getBuffer() {
+      return m_buffer;
+    }
+
+    /** @return the length of the encoded event */
+    public int encodeKeyboard(int timestamp, byte event, char keychar, int keycode, int modifier) {
+      int header = event & KEYBOARD_EVENT_MASK;
+      if (modifier != m_modifier) header |= KEYBOARD_MODIFIER_CHANGED;
+
+      m_position = 0;
+      putByte(header);
+      putVarInt(zigzag(timestamp - m_timestamp));
+      putVarInt(keychar);
+      putVarInt(zigzag(keycode));
+      if (modifier != m_modifier) putVarInt(zigzag(modifier));
+
+      m_timestamp = timestamp;
+      m_modifier = modifier;
+      return m_position;
+    }
+
+    /** @return the length of the encoded event */
+    public int encodeMouse(
+        int timestamp,
+        byte event,
+        int x,
+        int y,
+        int rotation,
+        int modifier,
+        int clickCount,
+        int scrollType,
+        int scrollAmount,
+        boolean popupTrigger,
+        int button) {
+      int fields = 0;
+      if (rotation != m_rotation) fields |= FIELD_ROTATION;
+      if (modifier != m_modifier) fields |= FIELD_MODIFIER;
+      if (clickCount != m_clickCount) fields |= FIELD_CLICK_COUNT;
+      if (scrollType != m_scrollType) fields |= FIELD_SCROLL_TYPE;
+      if (scrollAmount != m_scrollAmount) fields |= FIELD_SCROLL_AMOUNT;
+      if (button != m_button) fields |= FIELD_BUTTON;
+
+      int header = event & MOUSE_EVENT_MASK;
+      if (popupTrigger) header |= MOUSE_POPUP_TRIGGER;
+      if (fields != 0) header |= MOUSE_FIELDS_CHANGED;
+
+      m_position = 0;
+      putByte(header);
+      putVarInt(zigzag(timestamp - m_timestamp));
+      putVarInt(zigzag(x - m_x));
+      putVarInt(zigzag(y - m_y));
+      if (fields != 0) {
+        putByte(fields);
+        if ((fields & FIELD_ROTATION) != 0) putVarInt(zigzag(rotation));
+        if ((fields & FIELD_MODIFIER) != 0) putVarInt(zigzag(modifier));
+        if ((fields & FIELD_CLICK_COUNT) != 0) putVarInt(zigzag(clickCount));
+        if ((fields & FIELD_SCROLL_TYPE) != 0) putVarInt(zigzag(scrollType));
+        if ((fields & FIELD_SCROLL_AMOUNT) != 0) putVarInt(zigzag(scrollAmount));
+        if ((fields & FIELD_BUTTON) != 0) putVarInt(zigzag(button));
+      }
+
+      m_timestamp = timestamp;
+      m_x = x;
+      m_y = y;
+      m_rotation = rotation;
+      m_modifier = modifier;
+      m_clickCount = clickCount;
+      m_scrollType = scrollType;
+      m_scrollAmount = scrollAmount;
+      m_button = button;
+      return m_position;
+    }
+
+    private void putByte(int value) {
+      m_buffer[m_position++] = (byte) value;
+    }
+
+    private void putVarInt(int value) {
+      while ((value & ~0x7F) != 0) {
+        putByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      putByte(value);
+    }
+  }
+
+  /**
+   * Reads events from either format.
+   *
+   * <p>Call {@link #next()} to read the timestamp and type of the next event, then {@link
+   * #readKeyboard()} or {@link #readMouse()} for the rest of it.
+   */
+  public static class Decoder {
+    private final DataInputStream m_in;
+    private final int m_version;
+    private int m_pending;
+    private boolean m_hasPending;
+    private int m_header;
+
+    public int timestamp = 0;
+    public byte event;
+    public char keychar;
+    public int keycode;
+    public int modifier = 0;
+    public int x = 0;
+    public int y = 0;
+    public int rotation = 0;
+    public int clickCount = 0;
+    public int scrollType = 0;
+    public int scrollAmount = 0;
+    public boolean popupTrigger;
+    public int button = 0;
+
+    public Decoder(DataInputStream in) throws IOException {
+      m_in = in;
+      int first = in.readInt();
+      if ((first & 0xFFFFFF00) == (MAGIC & 0xFFFFFF00)) {
+        m_version = first & 0xFF;
+        if (m_version > VERSION)
+          throw new IOException("Unsupported input format version " + m_version);
+      } else {
+        // Original format, that was the first timestamp
+        m_version = 0;
+        m_pending = first;
+        m_hasPending = true;
+      }
+    }
+
+    public int getVersion() {
+      return m_version;
+    }
+
+    /**
+     * Reads the timestamp and type of the next event.
+     *
+     * @return false at the end of the stream
+     */
+    public boolean next() throws IOException {
+      try {
+        if (m_version == 0) {
+          timestamp = m_hasPending ? m_pending : m_in.readInt();
+          m_hasPending = false;
+          if (timestamp == Replay.TIMESTAMP_EOF) return false;
+          event = m_in.readByte();
+          return true;
+        }
+
+        m_header = m_in.readUnsignedByte();
+        if (m_header == END) return false;
+        timestamp += unzigzag(readVarInt());
+        return true;
+      } catch (EOFException e) {
+        // Recording wasn't closed properly
+        return false;
+      }
+    }
+
+    public void readKeyboard() throws IOException {
+      if (m_version == 0) {
+        keychar = m_in.readChar();
+        keycode = m_in.readInt();
+        modifier = m_in.readInt();
+        return;
+      }
+
+      event = (byte) (m_header & KEYBOARD_EVENT_MASK);
+      keychar = (char) readVarInt();
+      keycode = unzigzag(readVarInt());
+      if ((m_header & KEYBOARD_MODIFIER_CHANGED) != 0) modifier = unzigzag(readVarInt());
+    }
+
+    public void readMouse() throws IOException {
+      if (m_version == 0) {
+        x = m_in.readInt();
+        y = m_in.readInt();
+        rotation = m_in.readInt();
+        modifier = m_in.readInt();
+        clickCount = m_in.readInt();
+        scrollType = m_in.readInt();
+        scrollAmount = m_in.readInt();
+        popupTrigger = m_in.readBoolean();
+        button = m_in.readInt();
+        return;
+      }
+
+      event = (byte) (m_header & MOUSE_EVENT_MASK);
+      popupTrigger = (m_header & MOUSE_POPUP_TRIGGER) != 0;
+      x += unzigzag(readVarInt());
+      y += unzigzag(readVarInt());
+      if ((m_header & MOUSE_FIELDS_CHANGED) != 0) {
+        int fields = m_in.readUnsignedByte();
+        if ((fields & FIELD_ROTATION) != 0) rotation = unzigzag(readVarInt());
+        if ((fields & FIELD_MODIFIER) != 0) modifier = unzigzag(readVarInt());
+        if ((fields & FIELD_CLICK_COUNT) != 0) clickCount = unzigzag(readVarInt());
+        if ((fields & FIELD_SCROLL_TYPE) != 0) scrollType = unzigzag(readVarInt());
+        if ((fields & FIELD_SCROLL_AMOUNT) != 0) scrollAmount = unzigzag(readVarInt());
+        if ((fields & FIELD_BUTTON) != 0) button = unzigzag(readVarInt());
+      }
+    }
+
+    public void close() throws IOException {
+      m_in.close();
+    }
+
+    private int readVarInt() throws IOException {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int b = m_in.readUnsignedByte();
+        value |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) return value;
+      }
+      throw new IOException("Malformed varint");
+    }
+  }
+
+  private static int zigzag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  private static int unzigzag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
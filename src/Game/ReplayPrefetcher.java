@@ -0,0 +1,284 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import Client.Logger;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the records of in.bin.gz ahead of playback on its own thread.
+ *
+ * <p>Inflating and framing happen here, the replay server only takes finished records off a bounded
+ * ring, so gzip latency doesn't add to packet timing. The records in the ring are reused, and
+ * either side that has to wait is only woken up once a batch is ready, so a seek that outruns
+ * inflating doesn't pay for a thread handoff on every record.
+ */
+public class ReplayPrefetcher implements Runnable {
+  public static final int DEFAULT_DEPTH = 256;
+
+  // How many records or free slots to wait for before waking up the other side
+  private static final int WAKE_BATCH = 32;
+
+  /** A record of in.bin.gz */
+  public static class Record {
+    public int timestamp;
+    // -1 for a disconnect
+    public int length;
+    public byte[] data = new byte[256];
+    // Compressed bytes left in the file after this record, for the progress bar
+    public long available;
+
+    boolean end;
+  }
+
+  private final File m_file;
+  private final long m_skip;
+  private final Record[] m_records;
+  private final int m_wakeBatch;
+  private final ReentrantLock m_lock = new ReentrantLock();
+  private final Condition m_notEmpty = m_lock.newCondition();
+  private final Condition m_notFull = m_lock.newCondition();
+  private int m_head = 0;
+  private int m_count = 0;
+  // The record last returned by next(), it can't be reused until the one after is taken
+  private boolean m_held = false;
+  private boolean m_takerWaiting = false;
+  private boolean m_readerWaiting = false;
+  private volatile boolean m_closed = false;
+  private volatile IOException m_error = null;
+  private Thread m_thread;
+
+  // Only touched by the taking thread
+  private boolean m_finished = false;
+  private int m_peakDepth = 0;
+  private int m_underruns = 0;
+
+  /**
+   * @param file in.bin.gz
+   * @param skip how many uncompressed bytes to skip, to start from a keyframe
+   */
+  public ReplayPrefetcher(File file, long skip) {
+    this(file, skip, DEFAULT_DEPTH);
+  }
+
+  /**
+   * @param file in.bin.gz
+   * @param skip how many uncompressed bytes to skip, to start from a keyframe
+   * @param depth how many records to read ahead
+   */
+  public ReplayPrefetcher(File file, long skip, int depth) {
+    m_file = file;
+    m_skip = skip;
+    // One more, for the record the server is still using
+    m_records = new Record[depth + 1];
+    for (int i = 0; i < m_records.length; i++) m_records[i] = new Record();
+    m_wakeBatch = Math.max(1, Math.min(WAKE_BATCH, depth / 2));
+  }
+
+  public void start() {
+    m_thread = new Thread(this, "ReplayPrefetcher");
+    m_thread.setDaemon(true);
+    m_thread.start();
+  }
+
+  /**
+   * Takes the next record, waiting for it if the reader is behind. The record is only valid until
+   * the next call.
+   *
+   * @return the record, or null at the end of the replay
+   * @throws IOException if reading the replay failed
+   */
+  public Record next() throws IOException {
+    if (m_finished) return null;
+
+    Record record;
+    m_lock.lock();
+    try {
+      // Done with the last one
+      if (m_held) {
+        m_head = (m_head + 1) % m_records.length;
+        m_held = false;
+        if (m_readerWaiting && m_records.length - m_count >= m_wakeBatch) m_notFull.signal();
+      }
+
+      if (m_count > m_peakDepth) m_peakDepth = m_count;
+      if (m_count == 0) {
+        m_underruns++;
+        m_takerWaiting = true;
+        try {
+          while (m_count == 0) m_notEmpty.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while waiting for the replay prefetcher");
+        } finally {
+          m_takerWaiting = false;
+        }
+      }
+
+      record = m_records[m_head];
+      m_count--;
+      m_held = true;
+    } finally {
+      m_lock.unlock();
+    }
+
+    if (record.end) {
+      m_finished = true;
+      if (m_error != null) throw m_error;
+      return null;
+    }
+    return record;
+  }
+
+  /** @return how many records are ready to be taken */
+  public int getDepth() {
+    m_lock.lock();
+    try {
+      return m_count;
+    } finally {
+      m_lock.unlock();
+    }
+  }
+
+  public int getPeakDepth() {
+    return m_peakDepth;
+  }
+
+  /** @return how many times the replay server had to wait for a record */
+  public int getUnderruns() {
+    return m_underruns;
+  }
+
+  /** Stops reading, the thread exits on its own. */
+  public void close() {
+    m_closed = true;
+    if (m_thread != null) m_thread.interrupt();
+
+    Logger.Debug(
+        String.format(
+            "Replay prefetcher: peak depth %d, waited for records %d times",
+            m_peakDepth, m_underruns));
+  }
+
+  @Override
+  public void run() {
+    DataInputStream in = null;
+    try {
+      FileInputStream fileInput = new FileInputStream(m_file);
+      in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(fileInput)));
+      skipFully(in, m_skip);
+
+      while (!m_closed) {
+        Record record = awaitFree();
+        record.end = false;
+        record.timestamp = in.readInt();
+        if (record.timestamp == Replay.TIMESTAMP_EOF) {
+          finish(record);
+          return;
+        }
+
+        record.length = in.readInt();
+        if (record.length > 0) {
+          if (record.data.length < record.length)
+            record.data = new byte[Math.max(record.length, record.data.length * 2)];
+          in.readFully(record.data, 0, record.length);
+        }
+        record.available = fileInput.available();
+        publish(false);
+      }
+    } catch (InterruptedException e) {
+      // Closed
+    } catch (EOFException e) {
+      // Older replays end without an EOF marker, and unfinished ones can end mid record
+      finishQuietly();
+    } catch (IOException e) {
+      if (!m_closed) {
+        Logger.Error("Unable to read replay " + m_file);
+        e.printStackTrace();
+        m_error = e;
+        finishQuietly();
+      }
+    } finally {
+      try {
+        if (in != null) in.close();
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  /** @return the next free record, it's not visible to the taker until it's published */
+  private Record awaitFree() throws InterruptedException {
+    m_lock.lock();
+    try {
+      int used = m_count + (m_held ? 1 : 0);
+      if (used == m_records.length) {
+        m_readerWaiting = true;
+        try {
+          while (m_count + (m_held ? 1 : 0) == m_records.length) m_notFull.await();
+        } finally {
+          m_readerWaiting = false;
+        }
+      }
+      int tail = (m_head + (m_held ? 1 : 0) + m_count) % m_records.length;
+      return m_records[tail];
+    } finally {
+      m_lock.unlock();
+    }
+  }
+
+  private void publish(boolean end) {
+    m_lock.lock();
+    try {
+      m_count++;
+      if (m_takerWaiting && (end || m_count >= m_wakeBatch)) m_notEmpty.signal();
+    } finally {
+      m_lock.unlock();
+    }
+  }
+
+  private void finish(Record record) {
+    record.end = true;
+    publish(true);
+  }
+
+  /** Queues the end of the replay when the file ends early or can't be read. */
+  private void finishQuietly() {
+    try {
+      finish(awaitFree());
+    } catch (InterruptedException e) {
+      // Closed
+    }
+  }
+
+  private static void skipFully(DataInputStream in, long count) throws IOException {
+    while (count > 0) {
+      long skipped = in.skip(count);
+      if (skipped <= 0) throw new IOException("Unable to skip to keyframe");
+      count -= skipped;
+    }
+  }
+}
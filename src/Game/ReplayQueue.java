@@ -22,7 +22,6 @@ import Client.Launcher;
 import Client.Logger;
 import Client.QueueWindow;
 import Client.Settings;
-import Client.Util;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.dnd.DnDConstants;
 import java.awt.dnd.DropTarget;
@@ -33,6 +32,7 @@ import java.util.ArrayList;
 import java.util.List;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 public class ReplayQueue {
   public static int currentIndex = 0;
@@ -42,7 +42,12 @@ public class ReplayQueue {
   public static ArrayList<File> queue = new ArrayList<File>();
   public static boolean foundBrokenReplay = false;
 
-  // returns if it found valid replays in the directory chosen
+  /**
+   * Asks for a replay folder, then indexes it in the background like dropped files. The replays
+   * found are queued and played on the EDT once indexing is done.
+   *
+   * @return if a folder was chosen
+   */
   public static boolean replayFileSelectAdd() {
     JFileChooser j;
     try {
@@ -57,30 +62,37 @@ public class ReplayQueue {
     if (selection != null && response != JFileChooser.CANCEL_OPTION) {
       List<File> selectionArr = new ArrayList<File>();
       selectionArr.add(selection);
-      List<File> replays = Util.getAllReplays(selectionArr);
-      if (replays.size() > 0) {
-        ReplayQueue.queue.addAll(replays);
-        QueueWindow.copyQueueToTable();
-        Logger.Info(
-            String.format(
-                "@|cyan Added |@@|cyan,intensity_bold %d |@@|cyan replays to the queue. New size: |@@|cyan,intensity_bold %d |@",
-                replays.size(), ReplayQueue.queue.size()));
-        return true;
-      } else {
-        JOptionPane.showMessageDialog(
-            Game.getInstance().getApplet(),
-            "The replay folder you selected is not valid.\n"
-                + "\n"
-                + "You need to select a folder that contains the 'version.bin', 'in.bin.gz', and 'keys.bin' for your replay.\n"
-                + "They're usually in a folder with your login username.",
-            "rscplus",
-            JOptionPane.ERROR_MESSAGE,
-            Launcher.icon_warn);
-      }
+      indexInBackground(selectionArr, true);
+      return true;
     }
     return false;
   }
 
+  private static void onSelectedReplaysIndexed(ReplayIndexer.Result result) {
+    List<File> replays = result.replays;
+    if (replays.size() > 0) {
+      ReplayQueue.queue.addAll(replays);
+      QueueWindow.copyQueueToTable();
+      Logger.Info(
+          String.format(
+              "@|cyan Added |@@|cyan,intensity_bold %d |@@|cyan replays to the queue. New size: |@@|cyan,intensity_bold %d |@",
+              replays.size(), ReplayQueue.queue.size()));
+      Renderer.replayOption = 2;
+      ReplayQueue.nextReplay();
+    } else {
+      Renderer.replayOption = 0;
+      JOptionPane.showMessageDialog(
+          Game.getInstance().getApplet(),
+          "The replay folder you selected is not valid.\n"
+              + "\n"
+              + "You need to select a folder that contains the 'version.bin', 'in.bin.gz', and 'keys.bin' for your replay.\n"
+              + "They're usually in a folder with your login username.",
+          "rscplus",
+          JOptionPane.ERROR_MESSAGE,
+          Launcher.icon_warn);
+    }
+  }
+
   static DropTarget dropReplays =
       new DropTarget() {
         public synchronized void drop(DropTargetDropEvent evt) {
@@ -89,46 +101,8 @@ public class ReplayQueue {
               evt.acceptDrop(DnDConstants.ACTION_LINK);
               List<File> droppedFiles =
                   (List<File>) evt.getTransferable().getTransferData(DataFlavor.javaFileListFlavor);
-              List<File> replays = Util.getAllReplays(droppedFiles);
               Logger.Debug("Got some files");
-
-              if (replays.size() == 0) {
-                // no valid replays
-                if (foundBrokenReplay) {
-                  JOptionPane.showMessageDialog(
-                      Game.getInstance().getApplet(),
-                      "The replay you dragged onto the client has a keys.bin file which is empty.\n"
-                          + "The data inside is encrypted without a key to decrypt it. :(\n\n"
-                          + "Some information might be able to be retrieved from this replay\n"
-                          + "through reverse engineering, but basically it's broken.",
-                      "rscplus",
-                      JOptionPane.ERROR_MESSAGE,
-                      Launcher.icon_warn);
-                } else {
-                  // nothing that even looks like a replay was found
-                  JOptionPane.showMessageDialog(
-                      Game.getInstance().getApplet(),
-                      "The folder you dropped onto the client is not a replay, nor does it contain replay folders.\n"
-                          + "\n"
-                          + "You need to drop a folder that contains a 'version.bin', 'in.bin.gz', and 'keys.bin' for the replay.",
-                      "rscplus",
-                      JOptionPane.ERROR_MESSAGE,
-                      Launcher.icon_warn);
-                }
-                return;
-              } else {
-                // at least 1 replay found
-                ReplayQueue.queue.addAll(replays);
-                QueueWindow.copyQueueToTable();
-                Logger.Info(
-                    String.format(
-                        "Added %d replay%s to the queue. New size: %d",
-                        replays.size(), replays.size() != 1 ? "s" : "", ReplayQueue.queue.size()));
-
-                if (Client.state == Client.STATE_LOGIN) {
-                  ReplayQueue.nextReplay();
-                }
-              }
+              indexInBackground(droppedFiles, false);
             } else {
               // This can happen for example if a person drags rows from the replay queue window
               // into the main window
@@ -143,6 +117,87 @@ public class ReplayQueue {
         }
       };
 
+  /**
+   * Indexes dropped or selected files on a background thread, so large replay archives don't
+   * freeze the UI while metadata is generated, then adds the replays found to the queue.
+   *
+   * @param selected if the files were chosen with {@link #replayFileSelectAdd()}
+   */
+  private static void indexInBackground(final List<File> files, final boolean selected) {
+    Thread indexThread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                final ReplayIndexer.Result result =
+                    ReplayIndexer.index(
+                        files,
+                        new ReplayIndexer.ProgressListener() {
+                          @Override
+                          public void onProgress(int generated, int total) {
+                            if (generated % 100 == 0 || generated == total)
+                              Logger.Info(
+                                  String.format(
+                                      "Generated metadata for %d/%d replays", generated, total));
+                          }
+                        });
+                SwingUtilities.invokeLater(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        if (selected) onSelectedReplaysIndexed(result);
+                        else onDroppedReplaysIndexed(result);
+                      }
+                    });
+              }
+            },
+            "ReplayIndexer");
+    indexThread.setDaemon(true);
+    indexThread.start();
+  }
+
+  private static void onDroppedReplaysIndexed(ReplayIndexer.Result result) {
+    List<File> replays = result.replays;
+    foundBrokenReplay = result.foundBrokenReplay;
+
+    if (replays.size() == 0) {
+      // no valid replays
+      if (foundBrokenReplay) {
+        JOptionPane.showMessageDialog(
+            Game.getInstance().getApplet(),
+            "The replay you dragged onto the client has a keys.bin file which is empty.\n"
+                + "The data inside is encrypted without a key to decrypt it. :(\n\n"
+                + "Some information might be able to be retrieved from this replay\n"
+                + "through reverse engineering, but basically it's broken.",
+            "rscplus",
+            JOptionPane.ERROR_MESSAGE,
+            Launcher.icon_warn);
+      } else {
+        // nothing that even looks like a replay was found
+        JOptionPane.showMessageDialog(
+            Game.getInstance().getApplet(),
+            "The folder you dropped onto the client is not a replay, nor does it contain replay folders.\n"
+                + "\n"
+                + "You need to drop a folder that contains a 'version.bin', 'in.bin.gz', and 'keys.bin' for the replay.",
+            "rscplus",
+            JOptionPane.ERROR_MESSAGE,
+            Launcher.icon_warn);
+      }
+    } else {
+      // at least 1 replay found
+      ReplayQueue.queue.addAll(replays);
+      QueueWindow.copyQueueToTable();
+      Logger.Info(
+          String.format(
+              "Added %d replay%s to the queue. New size: %d",
+              replays.size(), replays.size() != 1 ? "s" : "", ReplayQueue.queue.size()));
+
+      if (Client.state == Client.STATE_LOGIN) {
+        ReplayQueue.nextReplay();
+      }
+    }
+  }
+
   public static void nextReplay() {
     if (currentIndex < queue.size()) {
       lastIndex = currentIndex;
@@ -0,0 +1,210 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import Client.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Keyframe index used to seek through in.bin.gz without replaying it from the beginning.
+ *
+ * <p>Every login in a replay is a point where the client rebuilds its whole state from what the
+ * server sends, so playback can be restarted from any of them. For each login we store its
+ * timestamp, the uncompressed offset of its record in in.bin.gz and the number of XTEA keys the
+ * client consumed before it. The index is written to seek.bin next to the replay the first time it
+ * is opened.
+ */
+public class ReplaySeekIndex {
+  public static final int VERSION = 1;
+  public static final int KEYS_PER_LOGIN = 4;
+
+  /** Timestamp of the last packet in the replay */
+  public int timestamp_end = 0;
+
+  /** Number of keyframes in the index */
+  public int count = 0;
+
+  public int[] timestamps = new int[16];
+  public long[] offsets = new long[16];
+  public int[] keyIndices = new int[16];
+
+  private ReplaySeekIndex() {}
+
+  /**
+   * Loads seek.bin for a replay, building and saving it if it is missing or out of date.
+   *
+   * @param replayDirectory the replay folder
+   * @param replayVersion the version from version.bin
+   * @return the index, never null
+   */
+  public static ReplaySeekIndex load(String replayDirectory, int replayVersion) {
+    File inFile = new File(replayDirectory + "/in.bin.gz");
+    File indexFile = new File(replayDirectory + "/seek.bin");
+
+    if (indexFile.exists()) {
+      ReplaySeekIndex index = read(indexFile, inFile);
+      if (index != null) return index;
+    }
+
+    ReplaySeekIndex index = build(inFile, replayVersion);
+    try {
+      index.write(indexFile, inFile);
+    } catch (IOException e) {
+      Logger.Warn("Unable to write seek index for " + replayDirectory);
+    }
+    return index;
+  }
+
+  /**
+   * Builds the index by scanning the records of in.bin.gz.
+   *
+   * <p>Only v1+ replays mark disconnects, older replays will only have the initial keyframe.
+   *
+   * @param inFile the in.bin.gz file
+   * @param replayVersion the version from version.bin
+   * @return the index
+   */
+  public static ReplaySeekIndex build(File inFile, int replayVersion) {
+    ReplaySeekIndex index = new ReplaySeekIndex();
+
+    try {
+      DataInputStream in =
+          new DataInputStream(
+              new BufferedInputStream(new GZIPInputStream(new FileInputStream(inFile))));
+      long offset = 0;
+      int logins = 0;
+      boolean login = true;
+      for (; ; ) {
+        int timestamp = in.readInt();
+
+        // EOF
+        if (timestamp == Replay.TIMESTAMP_EOF) break;
+
+        int length = in.readInt();
+        if (length > 0) {
+          int skipped = in.skipBytes(length);
+          if (skipped != length) break;
+        }
+
+        if (length == -1 && replayVersion >= 1) {
+          // Disconnect, next record is the login response
+          login = true;
+        } else if (login) {
+          index.add(timestamp, offset, logins * KEYS_PER_LOGIN);
+          logins++;
+          login = false;
+        }
+
+        index.timestamp_end = timestamp;
+        offset += 8 + Math.max(length, 0);
+      }
+      in.close();
+    } catch (Exception e) {
+      // Truncated replay, keep what we have
+    }
+
+    return index;
+  }
+
+  /**
+   * Finds the last keyframe at or before a timestamp.
+   *
+   * @param timestamp the timestamp to seek to
+   * @return the keyframe index, or -1 if there is none
+   */
+  public int floor(int timestamp) {
+    int low = 0;
+    int high = count - 1;
+    int ret = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (timestamps[mid] <= timestamp) {
+        ret = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return ret;
+  }
+
+  private void add(int timestamp, long offset, int keyIndex) {
+    if (count == timestamps.length) {
+      int newLength = count * 2;
+      timestamps = Arrays.copyOf(timestamps, newLength);
+      offsets = Arrays.copyOf(offsets, newLength);
+      keyIndices = Arrays.copyOf(keyIndices, newLength);
+    }
+    timestamps[count] = timestamp;
+    offsets[count] = offset;
+    keyIndices[count] = keyIndex;
+    count++;
+  }
+
+  private static ReplaySeekIndex read(File indexFile, File inFile) {
+    try {
+      DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+      try {
+        // Rebuild if the format or the replay changed
+        if (in.readInt() != VERSION
+            || in.readLong() != inFile.length()
+            || in.readLong() != inFile.lastModified()) return null;
+
+        ReplaySeekIndex index = new ReplaySeekIndex();
+        index.timestamp_end = in.readInt();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) index.add(in.readInt(), in.readLong(), in.readInt());
+        return index;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private void write(File indexFile, File inFile) throws IOException {
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+    try {
+      out.writeInt(VERSION);
+      out.writeLong(inFile.length());
+      out.writeLong(inFile.lastModified());
+      out.writeInt(timestamp_end);
+      out.writeInt(count);
+      for (int i = 0; i < count; i++) {
+        out.writeInt(timestamps[i]);
+        out.writeLong(offsets[i]);
+        out.writeInt(keyIndices[i]);
+      }
+    } finally {
+      out.close();
+    }
+  }
+}
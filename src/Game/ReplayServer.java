@@ -25,36 +25,35 @@ import static Replay.scraper.ReplayEditor.VIRTUAL_OPCODE_NOP;
 
 import Client.Logger;
 import Client.Settings;
-import Client.Util;
 import Replay.common.ISAACCipher;
 import Replay.game.constants.Game.ItemAction;
 import Replay.scraper.ReplayEditor;
 import Replay.scraper.ReplayKeyPair;
-import Replay.scraper.ReplayPacket;
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
+import Replay.scraper.ReplayPacketStream;
+import Replay.scraper.ReplayPacketView;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
-import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.locks.LockSupport;
 
 public class ReplayServer implements Runnable {
   String playbackDirectory;
-  DataInputStream input = null;
-  FileInputStream file_input = null;
+  volatile ReplayPrefetcher prefetcher = null;
   ServerSocketChannel sock = null;
-  SocketChannel client = null;
+  volatile ReplayTransport transport = null;
+  WritableByteChannel client = null;
   ByteBuffer readBuffer = null;
-  long frame_timer = 0;
+  // System.nanoTime() of the next frame
+  long frame_deadline = 0;
   int timestamp_new = Replay.TIMESTAMP_EOF;
 
   int keyIndex = 0;
@@ -62,6 +61,13 @@ public class ReplayServer implements Runnable {
   int[] keys = null;
   boolean firstConnection = true;
 
+  // Keyframes to restart playback from when seeking
+  ReplaySeekIndex seekIndex = null;
+  int seekKeyframe = -1;
+  int editorKeyframeCount = 0;
+  int[] editorKeyframeTimestamps = null;
+  ReplayPacketStream.Keyframe[] editorKeyframes = null;
+
   public boolean isReady = false;
   public boolean isDone = false;
   public boolean isSeeking = false;
@@ -70,20 +76,22 @@ public class ReplayServer implements Runnable {
   public long available = 0;
   public int timestamp_end = 0;
 
-  public int client_read = 0;
+  public volatile int client_read = 0;
   public int client_write = 0;
   public int client_writePrev = 0;
   ISAACCipher isaac = new ISAACCipher();
 
-  public LinkedList<ReplayPacket> incomingPackets;
-  public LinkedList<ReplayPacket> outgoingPackets;
-  public int incomingPacketsSizeCache = 0;
-  public int outgoingPacketsSizeCache = 0;
-  public int outgoingPacketsIndex = 0;
-  public int incomingPacketsIndex = 0;
-  public ReplayPacket nextOutgoingPacket;
-  public ReplayPacket nextIncomingPacket;
+  // Editor mode decodes packets as it plays them, and restarts from a login to seek
+  ReplayPacketStream editorPackets = null;
   public AtomicReference<ArrayList<String>> lastMenu;
+
+  // Longest the server parks before checking again, in case a wake up was missed
+  private static final long PARK_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+  private volatile Thread serverThread = null;
+  // Packets due at the same timestamp, or at many timestamps while seeking, are sent in one write
+  private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+  private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+  private int writeTimestamp = Replay.TIMESTAMP_EOF;
   public int lastErrorChosenOptStamp; // timestamp in which couldnt replay chosen option
   public int lastErrorChosenOpt; // chosen option which couldnt be replayed in that moment
 
@@ -92,30 +100,111 @@ public class ReplayServer implements Runnable {
     readBuffer = ByteBuffer.allocate(1024);
   }
 
+  /**
+   * Called from the client when it reads data we sent.
+   *
+   * @param bytesread the number of bytes read
+   */
+  public void clientRead(int bytesread) {
+    client_read += bytesread;
+    wake();
+  }
+
+  /** Wakes up the server if it's waiting on the client, a frame, or unpausing. */
+  public void wake() {
+    Thread thread = serverThread;
+    if (thread != null) LockSupport.unpark(thread);
+  }
+
+  /** Waits for the client to connect, over the socket or in memory. */
+  private WritableByteChannel acceptClient() throws IOException {
+    if (transport == null) return sock.accept();
+
+    try {
+      while (!isDone) {
+        ReplayTransport.Connection connection = transport.accept(PARK_TIMEOUT_NANOS);
+        if (connection != null) return connection;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    throw new IOException("Playback stopped while waiting for the client");
+  }
+
+  /** @return if we're seeking and not yet close to the target */
+  private boolean isSeekingFar() {
+    return timestamp_new != Replay.TIMESTAMP_EOF && timestamp_new - Replay.timestamp > 400;
+  }
+
   private void sync_with_client() {
     if (Settings.PARSE_OPCODES.get(Settings.currentProfile)) {
-      int diff = client_write - client_read;
-      int timestampDiff = timestamp_new - Replay.timestamp;
-
-      int threshold = 5000;
-      if (timestampDiff <= 400) threshold = 1;
+      int threshold = 1;
+      if (isSeekingFar()) threshold = 5000;
 
       // Wait for client
-      while (diff >= threshold) {
-        try {
-          Thread.sleep(1);
-        } catch (Exception e) {
-        }
-        diff = client_write - client_read;
+      while (client_write - client_read >= threshold) {
+        LockSupport.parkNanos(this, PARK_TIMEOUT_NANOS);
       }
     } else {
-      int diff = client_writePrev - client_read;
-      while (diff >= 200) {
-        try {
-          Thread.sleep(1);
-        } catch (Exception e) {
-        }
-        diff = client_writePrev - client_read;
+      // Let the client buffer more while seeking, until we get close to the target
+      int threshold = 200;
+      if (isSeekingFar()) threshold = 5000;
+
+      while (client_writePrev - client_read >= threshold) {
+        LockSupport.parkNanos(this, PARK_TIMEOUT_NANOS);
+      }
+    }
+  }
+
+  /**
+   * Makes room for a packet in the write buffer, sending what's pending if it's full.
+   *
+   * @return false if sending failed
+   */
+  private boolean reserveWrite(int size) {
+    if (writeBuffer.remaining() >= size) return true;
+    if (!flushPackets()) return false;
+    if (writeBuffer.capacity() < size) writeBuffer = ByteBuffer.allocateDirect(size);
+    return true;
+  }
+
+  /**
+   * Sends the pending packets to the client in one write, then waits for it to catch up.
+   *
+   * @return false if sending failed
+   */
+  private boolean flushPackets() {
+    if (writeBuffer.position() == 0) return true;
+
+    writeBuffer.flip();
+    try {
+      int writeSize = 0;
+      while (writeBuffer.hasRemaining()) writeSize += client.write(writeBuffer);
+      client_writePrev = client_write;
+      client_write += writeSize;
+      sync_with_client();
+      return true;
+    } catch (Exception e) {
+      return false;
+    } finally {
+      writeBuffer.clear();
+    }
+  }
+
+  /**
+   * Advances the client timestamp until it reaches a target, one frame at a time.
+   *
+   * @param timestamp the target timestamp
+   */
+  private void advanceTimestamp(int timestamp) {
+    while (Replay.timestamp < timestamp) {
+      long now = System.nanoTime();
+      if (now - frame_deadline >= 0) {
+        frame_deadline += Replay.getFrameTimeNanos();
+        Replay.incrementTimestamp();
+      } else {
+        // Don't hammer the cpu
+        LockSupport.parkNanos(this, Math.min(frame_deadline - now, PARK_TIMEOUT_NANOS));
       }
     }
   }
@@ -129,20 +218,62 @@ public class ReplayServer implements Runnable {
   }
 
   public void seek(int new_timestamp) {
-    if (Replay.timestamp > new_timestamp) Replay.restartReplayPlayback();
+    // Find the closest login we can restart the client from
+    int keyframe = -1;
+    int keyframeTimestamp = 0;
+    int keyframeKeyIndex = 0;
+    if (Settings.PARSE_OPCODES.get(Settings.currentProfile)) {
+      keyframe = findEditorKeyframe(new_timestamp);
+      if (keyframe != -1) {
+        keyframeTimestamp = editorKeyframeTimestamps[keyframe];
+        keyframeKeyIndex = keyframe * ReplaySeekIndex.KEYS_PER_LOGIN;
+      }
+    } else if (seekIndex != null) {
+      keyframe = seekIndex.floor(new_timestamp);
+      if (keyframe != -1) {
+        keyframeTimestamp = seekIndex.timestamps[keyframe];
+        keyframeKeyIndex = seekIndex.keyIndices[keyframe];
+      }
+    }
+
+    // Restart when seeking backwards, or when a later login lets us skip ahead
+    if (Replay.timestamp > new_timestamp
+        || (keyframe > 0 && keyframeTimestamp > Replay.timestamp)) {
+      seekKeyframe = keyframe;
+      Replay.restartReplayPlayback(keyframeKeyIndex);
+    }
 
     timestamp_new = new_timestamp;
     isSeeking = true;
+    wake();
+  }
+
+  private int findEditorKeyframe(int timestamp) {
+    int low = 0;
+    int high = editorKeyframeCount - 1;
+    int ret = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (editorKeyframeTimestamps[mid] <= timestamp) {
+        ret = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return ret;
   }
 
   @Override
   public void run() {
+    serverThread = Thread.currentThread();
     sock = null;
+    boolean inMemory = Settings.IN_MEMORY_PLAYBACK.get(Settings.currentProfile);
     // this one will try to find open port
     int port = -1;
-    int usePort;
+    int usePort = -1;
     // attempt to find free port starting from default port
-    for (int i = 0; i < 10; i++) {
+    for (int i = 0; i < 10 && !inMemory; i++) {
       try {
         new ServerSocket(Replay.DEFAULT_PORT + i).close();
         port = Replay.DEFAULT_PORT + i;
@@ -156,35 +287,40 @@ public class ReplayServer implements Runnable {
       // Load replay
       File file = new File(playbackDirectory + "/in.bin.gz");
       size = file.length();
-      file_input = new FileInputStream(file);
-      input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(file_input)));
-      timestamp_end = Util.getReplayEnding(file);
+      prefetcher = new ReplayPrefetcher(file, 0);
+      prefetcher.start();
+      seekIndex = ReplaySeekIndex.load(playbackDirectory, Replay.replay_version);
+      timestamp_end = seekIndex.timestamp_end;
       Logger.Debug("ReplayServer: Replay loaded, waiting for client; length=" + timestamp_end);
 
       // Load replay a second time but using the RSCMinus method
       if (Settings.PARSE_OPCODES.get(Settings.currentProfile)) {
         initializeIncomingOutgoingPackets();
-        initializeNextIncomingOutgoingPackets();
       }
 
       // Start the server
-      sock = ServerSocketChannel.open();
-      // last attempt 10 + default port
-      usePort = port == -1 ? Replay.DEFAULT_PORT + 10 : port;
-      if (usePort != Replay.DEFAULT_PORT) {
-        Replay.changePort(usePort);
+      if (inMemory) {
+        transport = new ReplayTransport();
+      } else {
+        sock = ServerSocketChannel.open();
+        // last attempt 10 + default port
+        usePort = port == -1 ? Replay.DEFAULT_PORT + 10 : port;
+        if (usePort != Replay.DEFAULT_PORT) {
+          Replay.changePort(usePort);
+        }
+        sock.bind(new InetSocketAddress(usePort));
       }
-      sock.bind(new InetSocketAddress(usePort));
 
       // Let's connect our client
       Logger.Debug("ReplayServer: Syncing playback to client...");
       isReady = true;
-      client = sock.accept();
+      client = acceptClient();
 
-      Logger.Debug("ReplayServer: Starting playback; port=" + usePort);
+      Logger.Debug(
+          "ReplayServer: Starting playback; " + (inMemory ? "in memory" : "port=" + usePort));
 
       isDone = false;
-      frame_timer = System.currentTimeMillis();
+      frame_deadline = System.nanoTime();
       boolean parseOpcodesPrev = Settings.PARSE_OPCODES.get(Settings.currentProfile);
 
       while (!isDone) {
@@ -205,32 +341,52 @@ public class ReplayServer implements Runnable {
             Replay.frame_time_slice = 1000 / 50;
             client.close();
             Replay.paused = false;
-            client = sock.accept();
+            client = acceptClient();
             if (Replay.isSeeking) Replay.paused = wasPaused;
             else Replay.paused = false;
             Replay.frame_time_slice = oldTimeSlice;
           }
-          input.close();
-          file_input = new FileInputStream(file);
-          input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(file_input)));
+          prefetcher.close();
+          long skip = 0;
           Replay.timestamp = 0;
           Replay.timestamp_client = 0;
           Replay.timestamp_server_last = 0;
           client_read = 0;
           client_write = 0;
+          writeBuffer.clear();
           keyIndex = 0;
           serverKeyIndex = 0;
-          frame_timer = System.currentTimeMillis() + Replay.getFrameTimeSlice();
-          incomingPacketsIndex = 0;
-          outgoingPacketsIndex = 0;
+          frame_deadline = System.nanoTime() + Replay.getFrameTimeNanos();
 
           if (Settings.PARSE_OPCODES.get(Settings.currentProfile)) {
-            if (incomingPackets == null) {
+            if (editorPackets == null) {
               initializeIncomingOutgoingPackets();
             }
-            initializeNextIncomingOutgoingPackets();
+
+            // Start from the login we are seeking to
+            if (editorPackets == null) {
+              // Nothing to play
+            } else if (seekKeyframe > 0 && seekKeyframe < editorKeyframeCount) {
+              editorPackets.restart(editorKeyframes[seekKeyframe]);
+              serverKeyIndex = seekKeyframe;
+              keyIndex = seekKeyframe * ReplaySeekIndex.KEYS_PER_LOGIN;
+              Replay.timestamp = editorKeyframeTimestamps[seekKeyframe];
+              Replay.timestamp_server_last = Replay.timestamp;
+              Logger.Debug("ReplayServer: Restarting from keyframe " + seekKeyframe);
+            } else {
+              editorPackets.restart(null);
+            }
+          } else if (seekKeyframe > 0 && seekKeyframe < seekIndex.count) {
+            skip = seekIndex.offsets[seekKeyframe];
+            Replay.timestamp = seekIndex.timestamps[seekKeyframe];
+            Replay.timestamp_server_last = Replay.timestamp;
+            Logger.Debug("ReplayServer: Restarting from keyframe " + seekKeyframe);
           }
 
+          prefetcher = new ReplayPrefetcher(file, skip);
+          prefetcher.start();
+
+          seekKeyframe = -1;
           restart = false;
           Replay.isRestarting = false;
         }
@@ -242,15 +398,18 @@ public class ReplayServer implements Runnable {
             if (!doEditorTick()) isDone = true;
           }
         } else {
+          // Send the frame we paused on, it would wait for the next timestamp otherwise
+          flushPackets();
           // Update timestamp immediately on unpausing
-          frame_timer = System.currentTimeMillis();
-          Thread.sleep(1);
+          frame_deadline = System.nanoTime();
+          LockSupport.parkNanos(this, PARK_TIMEOUT_NANOS);
         }
       }
 
       client.close();
-      sock.close();
-      input.close();
+      if (sock != null) sock.close();
+      prefetcher.close();
+      if (editorPackets != null) editorPackets.close();
       if (ReplayQueue.currentIndex >= ReplayQueue.queue.size()) {
         Logger.Info("ReplayServer: Playback has finished");
       } else {
@@ -260,13 +419,12 @@ public class ReplayServer implements Runnable {
       }
       ReplayQueue.skipped = false;
     } catch (Exception e) {
-      if (sock != null) {
-        try {
-          sock.close();
-          client.close();
-          input.close();
-        } catch (Exception e2) {
-        }
+      try {
+        if (sock != null) sock.close();
+        if (client != null) client.close();
+        if (prefetcher != null) prefetcher.close();
+        if (editorPackets != null) editorPackets.close();
+      } catch (Exception e2) {
       }
 
       isReady = true;
@@ -275,14 +433,14 @@ public class ReplayServer implements Runnable {
     }
   }
 
-  public void replayOutput(ReplayPacket packet) {
+  public void replayOutput(ReplayPacketView packet) {
     int menuAction = opcodeToItemActionId.getOrDefault(packet.opcode, -1);
 
     // DROP_ITEM
     if (packet.opcode == 246) {
       int item = -1;
       try {
-        item = Byte.toUnsignedInt(packet.data[0]) << 8 | Byte.toUnsignedInt(packet.data[1]);
+        item = packet.getUnsignedShort(0);
       } catch (Exception e) {
       }
       if (item < 0) return;
@@ -293,7 +451,7 @@ public class ReplayServer implements Runnable {
     else if (packet.opcode == 116) {
       int chosen = -1;
       try {
-        chosen = packet.data[0];
+        chosen = packet.getByte(0);
       } catch (Exception e) {
       }
       String[] menuOptions =
@@ -313,8 +471,8 @@ public class ReplayServer implements Runnable {
     // WALK_TO_SOURCE
     else if (packet.opcode == 16 || packet.opcode == 187) {
       int posX, posY;
-      posX = Byte.toUnsignedInt(packet.data[0]) << 8 | Byte.toUnsignedInt(packet.data[1]);
-      posY = Byte.toUnsignedInt(packet.data[2]) << 8 | Byte.toUnsignedInt(packet.data[3]);
+      posX = packet.getUnsignedShort(0);
+      posY = packet.getUnsignedShort(2);
       Client.displayWalkToSource(posX, posY);
     }
     // MENU ACTIONS such as NPC TALK TO, OBJECT COMMAND, etc
@@ -323,43 +481,44 @@ public class ReplayServer implements Runnable {
       ItemAction action = itemActionMap.get(menuAction);
       if (action != null) {
         if (action.containsWorldPoint == 1) {
-          posX = Byte.toUnsignedInt(packet.data[0]) << 8 | Byte.toUnsignedInt(packet.data[1]);
-          posY = Byte.toUnsignedInt(packet.data[2]) << 8 | Byte.toUnsignedInt(packet.data[3]);
+          posX = packet.getUnsignedShort(0);
+          posY = packet.getUnsignedShort(2);
           Client.displayMenuAction(action.name, posX, posY);
         } else if (action.containsWorldPoint == 2 || action.containsWorldPoint == 3) {
-          id = Byte.toUnsignedInt(packet.data[0]) << 8 | Byte.toUnsignedInt(packet.data[1]);
+          id = packet.getUnsignedShort(0);
           Client.displayMenuAction(action.name, id);
         }
       }
     }
   }
 
-  public void readInput(ReplayPacket packet) {
+  public void readInput(ReplayPacketView packet) {
     // SHOW_DIALOGUE_MENU
     if (packet.opcode == 245) {
+      byte[] data = packet.copyData();
       ArrayList<String> menu = new ArrayList<String>();
       int numOpts = 0;
       boolean read = true;
       byte[] option;
       try {
-        numOpts = packet.data[0];
+        numOpts = data[0];
         if (numOpts > 0) {
           read = true;
           int start = 1;
           int end = 1;
           int cur;
           while (read) {
-            for (cur = start + 1; cur < packet.data.length; cur++) {
-              if (packet.data[cur] == 0) {
+            for (cur = start + 1; cur < data.length; cur++) {
+              if (data[cur] == 0) {
                 end = cur;
                 break;
               }
             }
             // inclusive from, exclusive to
-            option = Arrays.copyOfRange(packet.data, start + 1, end);
+            option = Arrays.copyOfRange(data, start + 1, end);
             menu.add(new String(option));
             start = ++end;
-            if (cur >= packet.data.length || menu.size() == numOpts) {
+            if (cur >= data.length || menu.size() == numOpts) {
               read = false;
             }
           }
@@ -390,69 +549,58 @@ public class ReplayServer implements Runnable {
   }
 
   public boolean doEditorTick() {
-    int timestamp_input = nextIncomingPacket.timestamp;
+    if (editorPackets == null) return false;
 
-    // Handle outgoing packets
-    while (outgoingPacketsIndex != (outgoingPacketsSizeCache - 1)
-        && nextOutgoingPacket.timestamp <= timestamp_input) {
-      Logger.Opcode(
-          nextOutgoingPacket.timestamp, "OUT", nextOutgoingPacket.opcode, nextOutgoingPacket.data);
-      replayOutput(nextOutgoingPacket);
-      nextOutgoingPacket = outgoingPackets.get(++outgoingPacketsIndex);
+    // Handle outgoing packets, they come before incoming packets with the same timestamp
+    ReplayPacketView nextIncomingPacket;
+    while ((nextIncomingPacket = editorPackets.next()) != null && !editorPackets.isIncoming()) {
+      Logger.Opcode(nextIncomingPacket.timestamp, "OUT", nextIncomingPacket);
+      replayOutput(nextIncomingPacket);
     }
 
+    // End of replay
+    if (nextIncomingPacket == null) {
+      flushPackets();
+      return false;
+    }
+
+    int timestamp_input = nextIncomingPacket.timestamp;
+
+    // Send the previous timestamp's packets, unless we're still batching up a seek
+    if (timestamp_input != writeTimestamp && !isSeekingFar() && !flushPackets()) return false;
+
     // Handle incoming packet logging
-    Logger.Opcode(
-        nextIncomingPacket.timestamp, " IN", nextIncomingPacket.opcode, nextIncomingPacket.data);
+    Logger.Opcode(nextIncomingPacket.timestamp, " IN", nextIncomingPacket);
     readInput(nextIncomingPacket);
 
     // Handle seeking
+    boolean seekDone = false;
     if (timestamp_new != Replay.TIMESTAMP_EOF) {
       Replay.timestamp = timestamp_input;
       if (Replay.timestamp >= timestamp_new) {
+        seekDone = true;
         Replay.isSeeking = false;
         timestamp_new = Replay.TIMESTAMP_EOF;
         Replay.updateFrameTimeSlice();
-        frame_timer = System.currentTimeMillis();
+        frame_deadline = System.nanoTime();
         if (Replay.paused) Replay.resetFrameTimeSlice();
         isSeeking = false;
       }
     }
 
     // Synchronize the server to input
-    while (Replay.timestamp < timestamp_input) {
-      long time = System.currentTimeMillis();
-      if (time >= frame_timer) {
-        frame_timer += Replay.getFrameTimeSlice();
-        Replay.incrementTimestamp();
-      }
-
-      // Don't hammer the cpu, unless we have to
-      long sleepTime = frame_timer - System.currentTimeMillis() - 1;
-      if (sleepTime > 0) {
-        try {
-          Thread.sleep(sleepTime);
-        } catch (Exception e) {
-        }
-      }
-    }
+    advanceTimestamp(timestamp_input);
 
     // Do nothing
-    if (nextIncomingPacket.opcode == VIRTUAL_OPCODE_NOP) {
-      nextIncomingPacket = incomingPackets.get(++incomingPacketsIndex);
-      return true;
-    }
-
-    ByteBuffer buffer = null;
+    if (nextIncomingPacket.opcode == VIRTUAL_OPCODE_NOP) return true;
 
     // Login response/disconnect
     if (nextIncomingPacket.opcode == VIRTUAL_OPCODE_CONNECT) {
-      byte loginResponse = nextIncomingPacket.data[0];
-      buffer = ByteBuffer.allocate(1);
-      buffer.put(loginResponse);
+      byte loginResponse = nextIncomingPacket.getByte(0);
 
       // Handle disconnecting
       if (!firstConnection) {
+        if (!flushPackets()) return false;
         try {
           Client.loseConnection(false);
           int oldTimeSlice = Replay.frame_time_slice;
@@ -462,7 +610,7 @@ public class ReplayServer implements Runnable {
           Logger.Info("ReplayServer: Killing client connection");
           client.close();
           Logger.Info("ReplayServer: Reconnecting client");
-          client = sock.accept();
+          client = acceptClient();
           Logger.Info("ReplayServer: Client reconnected");
           Replay.frame_time_slice = oldTimeSlice;
           Replay.paused = oldPaused;
@@ -478,74 +626,59 @@ public class ReplayServer implements Runnable {
       int[] isaacKeys =
           new int[] {keys[offset], keys[offset + 1], keys[offset + 2], keys[offset + 3]};
       serverKeyIndex += 1;
-      isaac.reset();
-      isaac.setKeys(isaacKeys);
+      isaac.seed(isaacKeys);
+
+      if (!reserveWrite(1)) return false;
+      writeBuffer.put(loginResponse);
     } else {
       int packetLength = 1;
-      if (nextIncomingPacket.data != null) packetLength += nextIncomingPacket.data.length;
+      if (nextIncomingPacket.hasData()) packetLength += nextIncomingPacket.length;
 
-      // Encode packet and send
+      // Encode packet and queue it
       int encodedOpcode = (nextIncomingPacket.opcode + isaac.getNextValue()) & 0xFF;
+      if (!reserveWrite(packetLength + 2)) return false;
       if (packetLength == 1) {
-        buffer = ByteBuffer.allocate(2);
-        buffer.put((byte) (packetLength));
-        buffer.put((byte) (encodedOpcode));
+        writeBuffer.put((byte) (packetLength));
+        writeBuffer.put((byte) (encodedOpcode));
       } else {
         if (packetLength < 160) {
-          buffer = ByteBuffer.allocate(packetLength + 1);
           int dataSize = packetLength - 1;
-          buffer.put((byte) (packetLength));
-          buffer.put((byte) (nextIncomingPacket.data[dataSize - 1]));
-          buffer.put((byte) (encodedOpcode));
-          if (dataSize > 1) buffer.put(nextIncomingPacket.data, 0, dataSize - 1);
+          writeBuffer.put((byte) (packetLength));
+          writeBuffer.put(nextIncomingPacket.data[nextIncomingPacket.offset + dataSize - 1]);
+          writeBuffer.put((byte) (encodedOpcode));
+          if (dataSize > 1)
+            writeBuffer.put(nextIncomingPacket.data, nextIncomingPacket.offset, dataSize - 1);
         } else {
-          buffer = ByteBuffer.allocate(packetLength + 2);
-          buffer.put((byte) (packetLength / 256 + 160));
-          buffer.put((byte) (packetLength & 0xFF));
-          buffer.put((byte) (encodedOpcode));
-          buffer.put(nextIncomingPacket.data, 0, nextIncomingPacket.data.length);
+          writeBuffer.put((byte) (packetLength / 256 + 160));
+          writeBuffer.put((byte) (packetLength & 0xFF));
+          writeBuffer.put((byte) (encodedOpcode));
+          writeBuffer.put(
+              nextIncomingPacket.data, nextIncomingPacket.offset, nextIncomingPacket.length);
         }
       }
     }
+    writeTimestamp = timestamp_input;
 
-    if (buffer != null) {
-      try {
-        buffer.flip();
-        int writeSize = client.write(buffer);
-        if (writeSize > 0) {
-          client_writePrev = client_write;
-          client_write += writeSize;
-          sync_with_client();
-        }
-      } catch (Exception e) {
-        return false;
-      }
-    }
-
-    // End of replay
-    if (incomingPacketsIndex == (incomingPacketsSizeCache - 1)) return false;
-
-    // Load next packet
-    nextIncomingPacket = incomingPackets.get(++incomingPacketsIndex);
+    // Show the frame we seeked to right away, playback may be paused on it
+    if (seekDone && !flushPackets()) return false;
 
     return true;
   }
 
   public boolean doTick() {
     try {
-      int timestamp_input = input.readInt();
+      ReplayPrefetcher.Record record = prefetcher.next();
 
       // We've reached the end of the replay
-      if (timestamp_input == Replay.TIMESTAMP_EOF) return false;
-
-      int length = input.readInt();
-      ByteBuffer buffer = null;
-      if (length > 0) {
-        buffer = ByteBuffer.allocate(length);
-        input.read(buffer.array());
-        available = file_input.available();
+      if (record == null) {
+        flushPackets();
+        return false;
       }
 
+      int timestamp_input = record.timestamp;
+      int length = record.length;
+      if (length > 0) available = record.available;
+
       if (timestamp_input < Replay.timestamp) {
         Logger.Debug(
             String.format(
@@ -554,6 +687,9 @@ public class ReplayServer implements Runnable {
         return true;
       }
 
+      // Send the previous timestamp's packets, unless we're still batching up a seek
+      if (timestamp_input != writeTimestamp && !isSeekingFar()) flushPackets();
+
       boolean disconnected = false;
 
       // Handle disconnects in replay playback
@@ -562,9 +698,10 @@ public class ReplayServer implements Runnable {
         // If packet length is -1, it's a disconnection
         if (length == -1) {
           Logger.Info("ReplayServer: Killing client connection");
+          flushPackets();
           client.close();
           Logger.Info("ReplayServer: Reconnecting client");
-          client = sock.accept();
+          client = acceptClient();
           Logger.Info("ReplayServer: Client reconnected");
 
           if (Replay.isSeeking || Settings.FAST_DISCONNECT.get(Settings.currentProfile))
@@ -585,8 +722,9 @@ public class ReplayServer implements Runnable {
                   + Replay.timestamp
                   + ", timestamp_diff="
                   + timestamp_diff);
+          flushPackets();
           client.close();
-          client = sock.accept();
+          client = acceptClient();
           timestamp_diff -= 400;
           Replay.timestamp = timestamp_input - timestamp_diff;
           Logger.Info("ReplayServer: Reconnected client; timestamp=" + Replay.timestamp);
@@ -599,66 +737,56 @@ public class ReplayServer implements Runnable {
       }
 
       // Handle seeking
+      boolean seekDone = false;
       if (timestamp_new != Replay.TIMESTAMP_EOF) {
         Replay.timestamp = timestamp_input;
         if (Replay.timestamp >= timestamp_new) {
+          seekDone = true;
           Replay.isSeeking = false;
           timestamp_new = Replay.TIMESTAMP_EOF;
           Replay.updateFrameTimeSlice();
-          frame_timer = System.currentTimeMillis();
+          frame_deadline = System.nanoTime();
           if (Replay.paused) Replay.resetFrameTimeSlice();
           isSeeking = false;
         }
       }
 
       // Synchronize the server to input
-      while (Replay.timestamp < timestamp_input) {
-        long time = System.currentTimeMillis();
-        if (time >= frame_timer) {
-          frame_timer += Replay.getFrameTimeSlice();
-          Replay.incrementTimestamp();
-        }
+      advanceTimestamp(timestamp_input);
 
-        // Don't hammer the cpu, unless we have to
-        long sleepTime = frame_timer - System.currentTimeMillis() - 1;
-        if (sleepTime > 0) Thread.sleep(sleepTime);
-      }
+      // Queue replay data for the client
+      if (length > 0 && reserveWrite(length)) writeBuffer.put(record.data, 0, length);
+      writeTimestamp = timestamp_input;
 
-      // Write out replay data to the client
-      try {
-        if (buffer != null) {
-          int writeSize = client.write(buffer);
-          if (writeSize > 0) {
-            client_writePrev = client_write;
-            client_write += writeSize;
-            sync_with_client();
-          }
-        }
-      } catch (Exception e) {
-      }
+      // Show the frame we seeked to right away, playback may be paused on it
+      if (seekDone) flushPackets();
 
       return true;
     } catch (Exception e) {
       // e.printStackTrace();
     }
 
+    flushPackets();
     return false;
   }
 
   public void initializeIncomingOutgoingPackets() {
     ReplayEditor editor = new ReplayEditor();
-    boolean success = editor.importData(playbackDirectory);
+    editorPackets = editor.openStream(playbackDirectory);
+    lastMenu = new AtomicReference<ArrayList<String>>();
+    editorKeyframeCount = 0;
 
-    if (!success) {
+    if (editorPackets == null) {
       Logger.Warn("@|red Can't parse this as complete replay!|@");
+      // RSC+ won't be able to play this replay, so let's skip it.
+      Logger.Warn("@|red No incoming packets in that Replay, moving on...|@");
+      ReplayQueue.nextReplay();
+      return;
     }
 
     Logger.Debug("client version: " + editor.getReplayVersion().clientVersion);
     Logger.Debug("replay version: " + editor.getReplayVersion().version);
 
-    incomingPackets = editor.getIncomingPackets();
-    outgoingPackets = editor.getOutgoingPackets();
-
     // Load keys
     LinkedList<ReplayKeyPair> replay_keys = editor.getKeyPairs();
     keys = new int[replay_keys.size() * 4];
@@ -671,25 +799,36 @@ public class ReplayServer implements Runnable {
       keys[offset + 3] = keyPair.keys[3];
     }
 
-    lastMenu = new AtomicReference<ArrayList<String>>();
+    initializeEditorKeyframes();
+  }
 
-    Logger.Info(String.format("Incoming packet length: %d", incomingPackets.size()));
-    Logger.Info(String.format("Outgoing packet length: %d", outgoingPackets.size()));
+  /** Goes through the replay once for the logins to restart from, then goes back to the start */
+  private void initializeEditorKeyframes() {
+    ArrayList<ReplayPacketStream.Keyframe> keyframes = new ArrayList<ReplayPacketStream.Keyframe>();
+    int incomingCount = 0;
+    int outgoingCount = 0;
+    ReplayPacketView packet;
+    while ((packet = editorPackets.next()) != null) {
+      if (!editorPackets.isIncoming()) {
+        outgoingCount++;
+        continue;
+      }
+      incomingCount++;
+      if (packet.opcode == VIRTUAL_OPCODE_CONNECT) keyframes.add(editorPackets.getKeyframe());
+    }
 
-    incomingPacketsIndex = 0;
-    outgoingPacketsIndex = 0;
-    incomingPacketsSizeCache = incomingPackets.size();
-    outgoingPacketsSizeCache = outgoingPackets.size();
-  }
+    Logger.Info(String.format("Incoming packet length: %d", incomingCount));
+    Logger.Info(String.format("Outgoing packet length: %d", outgoingCount));
 
-  public void initializeNextIncomingOutgoingPackets() {
-    if (incomingPacketsSizeCache > 0) {
-      nextIncomingPacket = incomingPackets.getFirst();
-    } else {
-      // RSC+ won't be able to play this replay, so let's skip it.
-      Logger.Warn("@|red No incoming packets in that Replay, moving on...|@");
-      ReplayQueue.nextReplay();
+    editorKeyframeCount = keyframes.size();
+    editorKeyframes = keyframes.toArray(new ReplayPacketStream.Keyframe[editorKeyframeCount]);
+    editorKeyframeTimestamps = new int[editorKeyframeCount];
+    for (int i = 0; i < editorKeyframeCount; i++) {
+      // Logins that can't be restarted from aren't used, they keep the previous timestamp
+      if (editorKeyframes[i] != null) editorKeyframeTimestamps[i] = editorKeyframes[i].timestamp;
+      else if (i > 0) editorKeyframeTimestamps[i] = editorKeyframeTimestamps[i - 1];
     }
-    if (outgoingPacketsSizeCache > 0) nextOutgoingPacket = outgoingPackets.getFirst();
+
+    if (!editorPackets.restart(null)) editorPackets = null;
   }
 }
@@ -0,0 +1,291 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory replacement for the loopback socket between the replay server and the client.
+ *
+ * <p>The client's connect hook gets a {@link Socket} whose streams read from a bounded byte buffer
+ * the server writes into, so playback doesn't need a free port and data never goes through the
+ * kernel. Writes block while the buffer is full and reads block while it's empty, like a socket
+ * would. Closing either end shows up as end of stream for the client, or as an error for the
+ * server's next write.
+ */
+public class ReplayTransport {
+  public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+  private final int m_capacity;
+  private final ReentrantLock m_lock = new ReentrantLock();
+  private final Condition m_changed = m_lock.newCondition();
+  private Connection m_pending = null;
+
+  public ReplayTransport() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public ReplayTransport(int capacity) {
+    m_capacity = capacity;
+  }
+
+  /**
+   * Opens a connection to the server, called from the client.
+   *
+   * @return the client end of the connection
+   */
+  public Socket connect() {
+    Connection connection = new Connection();
+    m_lock.lock();
+    try {
+      // The server never picked up the last one
+      if (m_pending != null) m_pending.closeLocked();
+      m_pending = connection;
+      m_changed.signalAll();
+    } finally {
+      m_lock.unlock();
+    }
+    return connection.m_socket;
+  }
+
+  /**
+   * Waits for the client to connect.
+   *
+   * @param timeoutNanos how long to wait
+   * @return the server end of the connection, or null if the client didn't connect in time
+   */
+  public Connection accept(long timeoutNanos) throws InterruptedException {
+    m_lock.lock();
+    try {
+      while (m_pending == null) {
+        if (timeoutNanos <= 0) return null;
+        timeoutNanos = m_changed.awaitNanos(timeoutNanos);
+      }
+      Connection connection = m_pending;
+      m_pending = null;
+      return connection;
+    } finally {
+      m_lock.unlock();
+    }
+  }
+
+  /** The server end of a connection, written to like a socket channel */
+  public class Connection implements WritableByteChannel {
+    private final byte[] m_buffer = new byte[m_capacity];
+    private int m_head = 0;
+    private int m_size = 0;
+    private boolean m_serverClosed = false;
+    private boolean m_clientClosed = false;
+    private final Socket m_socket = new ClientSocket();
+
+    /** Writes all of src, blocking while the client is behind by a full buffer */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      int written = 0;
+      m_lock.lock();
+      try {
+        while (src.hasRemaining()) {
+          if (m_serverClosed || m_clientClosed) throw new ClosedChannelException();
+          if (m_size == m_capacity) {
+            m_changed.awaitUninterruptibly();
+            continue;
+          }
+
+          int tail = (m_head + m_size) % m_capacity;
+          int count = Math.min(src.remaining(), Math.min(m_capacity - m_size, m_capacity - tail));
+          src.get(m_buffer, tail, count);
+          m_size += count;
+          written += count;
+          m_changed.signalAll();
+        }
+      } finally {
+        m_lock.unlock();
+      }
+      return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+      m_lock.lock();
+      try {
+        return !m_serverClosed && !m_clientClosed;
+      } finally {
+        m_lock.unlock();
+      }
+    }
+
+    /** Closes the server end, the client still gets what was already written */
+    @Override
+    public void close() {
+      m_lock.lock();
+      try {
+        closeLocked();
+      } finally {
+        m_lock.unlock();
+      }
+    }
+
+    private void closeLocked() {
+      m_serverClosed = true;
+      m_changed.signalAll();
+    }
+
+    /** @return false at the end of the stream, must be called with the lock held */
+    private boolean awaitData() throws IOException {
+      while (m_size == 0) {
+        if (m_clientClosed) throw new IOException("Socket closed");
+        if (m_serverClosed) return false;
+        m_changed.awaitUninterruptibly();
+      }
+      return true;
+    }
+
+    private int read() throws IOException {
+      m_lock.lock();
+      try {
+        if (!awaitData()) return -1;
+
+        int b = m_buffer[m_head] & 0xFF;
+        m_head = (m_head + 1) % m_capacity;
+        m_size--;
+        m_changed.signalAll();
+        return b;
+      } finally {
+        m_lock.unlock();
+      }
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+
+      m_lock.lock();
+      try {
+        if (!awaitData()) return -1;
+
+        int count = Math.min(len, Math.min(m_size, m_capacity - m_head));
+        System.arraycopy(m_buffer, m_head, b, off, count);
+        m_head = (m_head + count) % m_capacity;
+        m_size -= count;
+        m_changed.signalAll();
+        return count;
+      } finally {
+        m_lock.unlock();
+      }
+    }
+
+    private int available() {
+      m_lock.lock();
+      try {
+        return m_size;
+      } finally {
+        m_lock.unlock();
+      }
+    }
+
+    private void closeClient() {
+      m_lock.lock();
+      try {
+        m_clientClosed = true;
+        m_changed.signalAll();
+      } finally {
+        m_lock.unlock();
+      }
+    }
+
+    /** What the client sees, it never connects anywhere */
+    private class ClientSocket extends Socket {
+      private final InputStream m_in =
+          new InputStream() {
+            @Override
+            public int read() throws IOException {
+              return Connection.this.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+              return Connection.this.read(b, off, len);
+            }
+
+            @Override
+            public int available() {
+              return Connection.this.available();
+            }
+
+            @Override
+            public void close() {
+              closeClient();
+            }
+          };
+
+      // The replay server doesn't listen to the client
+      private final OutputStream m_out =
+          new OutputStream() {
+            @Override
+            public void write(int b) {}
+
+            @Override
+            public void write(byte[] b, int off, int len) {}
+          };
+
+      @Override
+      public InputStream getInputStream() {
+        return m_in;
+      }
+
+      @Override
+      public OutputStream getOutputStream() {
+        return m_out;
+      }
+
+      @Override
+      public boolean isConnected() {
+        return true;
+      }
+
+      @Override
+      public boolean isClosed() {
+        m_lock.lock();
+        try {
+          return m_clientClosed;
+        } finally {
+          m_lock.unlock();
+        }
+      }
+
+      @Override
+      public void setSoTimeout(int timeout) {}
+
+      @Override
+      public void setTcpNoDelay(boolean on) {}
+
+      @Override
+      public void close() {
+        closeClient();
+      }
+    }
+  }
+}
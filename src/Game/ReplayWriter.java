@@ -0,0 +1,354 @@
+/**
+ * rscplus
+ *
+ * <p>This file is part of rscplus.
+ *
+ * <p>rscplus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscplus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscplus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscplus>
+ */
+package Game;
+
+import Client.Logger;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes a replay recording on a background thread.
+ *
+ * <p>The recording hooks copy already encoded records into a bounded byte queue and return, the
+ * writer thread drains it in batches, updates the checksums and flushes the files once enough time
+ * has passed or enough data was written, so a slow disk doesn't stall the game loop. Hooks only
+ * block if the queue fills up.
+ */
+public class ReplayWriter implements Runnable {
+  public static final int STREAM_INPUT = 0;
+  public static final int STREAM_OUTPUT = 1;
+  public static final int STREAM_KEYS = 2;
+  public static final int STREAM_KEYBOARD = 3;
+  public static final int STREAM_MOUSE = 4;
+
+  public static final int DEFAULT_CAPACITY = 1024 * 1024;
+  public static final long DEFAULT_FLUSH_INTERVAL_MS = 250;
+  public static final int DEFAULT_FLUSH_BYTES = 64 * 1024;
+
+  // Every queued entry starts with the stream it belongs to and its length
+  private static final int ENTRY_HEADER_SIZE = 5;
+
+  private final OutputStream[] m_streams;
+  private final MessageDigest[] m_checksums;
+  private final boolean[] m_dirty;
+  private final long m_flushIntervalNanos;
+  private final int m_flushBytes;
+
+  private final ReentrantLock m_lock = new ReentrantLock();
+  private final Condition m_notEmpty = m_lock.newCondition();
+  private final Condition m_notFull = m_lock.newCondition();
+  private byte[] m_queue;
+  private int m_head = 0;
+  private int m_size = 0;
+  private boolean m_running = true;
+  private volatile IOException m_error = null;
+  private Thread m_thread;
+
+  // Only touched by the writer thread
+  private long m_lastFlush;
+  private int m_unflushed = 0;
+
+  // Back-pressure metrics
+  private int m_peakSize = 0;
+  private int m_stalls = 0;
+  private long m_stallNanos = 0;
+
+  /**
+   * @param streams the streams to write to, indexed by the STREAM_ constants, may contain nulls
+   * @param checksums the checksum of each stream, may contain nulls
+   */
+  public ReplayWriter(OutputStream[] streams, MessageDigest[] checksums) {
+    this(streams, checksums, DEFAULT_CAPACITY, DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_FLUSH_BYTES);
+  }
+
+  /**
+   * @param streams the streams to write to, indexed by the STREAM_ constants, may contain nulls
+   * @param checksums the checksum of each stream, may contain nulls
+   * @param capacity the queue size in bytes, hooks block once it's full
+   * @param flushIntervalMs the maximum time written data can stay unflushed
+   * @param flushBytes how much data can be written before flushing early
+   */
+  public ReplayWriter(
+      OutputStream[] streams,
+      MessageDigest[] checksums,
+      int capacity,
+      long flushIntervalMs,
+      int flushBytes) {
+    m_streams = streams;
+    m_checksums = checksums;
+    m_dirty = new boolean[streams.length];
+    m_queue = new byte[capacity];
+    m_flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+    m_flushBytes = flushBytes;
+  }
+
+  public void start() {
+    m_lastFlush = System.nanoTime();
+    m_thread = new Thread(this, "ReplayWriter");
+    m_thread.setDaemon(true);
+    m_thread.start();
+  }
+
+  /**
+   * Queues raw bytes for a stream.
+   *
+   * @throws IOException if the writer thread failed
+   */
+  public void write(int stream, byte[] b, int off, int len) throws IOException {
+    m_lock.lock();
+    try {
+      if (!reserve(len)) return;
+      putEntryHeader(stream, len);
+      put(b, off, len);
+      m_notEmpty.signal();
+    } finally {
+      m_lock.unlock();
+    }
+  }
+
+  /**
+   * Queues a timestamped record for a stream.
+   *
+   * @param timestamp the record timestamp
+   * @param b the payload
+   * @param off the payload offset in b
+   * @param count how much of the payload to take from b, the rest is written as zeros
+   * @param length the payload length, -1 for a disconnect
+   * @throws IOException if the writer thread failed
+   */
+  public void writeRecord(int stream, int timestamp, byte[] b, int off, int count, int length)
+      throws IOException {
+    int size = 8 + Math.max(length, 0);
+    m_lock.lock();
+    try {
+      if (!reserve(size)) return;
+      putEntryHeader(stream, size);
+      putInt(timestamp);
+      putInt(length);
+      if (count > 0) put(b, off, count);
+      for (int i = Math.max(count, 0); i < length; i++) putByte(0);
+      m_notEmpty.signal();
+    } finally {
+      m_lock.unlock();
+    }
+  }
+
+  /**
+   * Writes everything still queued, flushes, and stops the writer thread. The streams are left open
+   * so the caller can finish the files.
+   *
+   * @throws IOException if the writer thread failed
+   */
+  public void close() throws IOException {
+    m_lock.lock();
+    try {
+      m_running = false;
+      m_notEmpty.signal();
+    } finally {
+      m_lock.unlock();
+    }
+
+    boolean interrupted = false;
+    while (m_thread.isAlive()) {
+      try {
+        m_thread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+
+    Logger.Debug(
+        String.format(
+            "Replay writer: peak queue %d bytes, stalled %d times for %d ms",
+            m_peakSize, m_stalls, TimeUnit.NANOSECONDS.toMillis(m_stallNanos)));
+
+    if (m_error != null) throw m_error;
+  }
+
+  public int getPeakSize() {
+    return m_peakSize;
+  }
+
+  public int getStalls() {
+    return m_stalls;
+  }
+
+  public long getStallNanos() {
+    return m_stallNanos;
+  }
+
+  @Override
+  public void run() {
+    byte[] batch = new byte[4096];
+    try {
+      for (; ; ) {
+        int length;
+        boolean running;
+
+        m_lock.lock();
+        try {
+          while (m_size == 0 && m_running) {
+            if (m_unflushed == 0) {
+              m_notEmpty.await();
+            } else {
+              long wait = m_lastFlush + m_flushIntervalNanos - System.nanoTime();
+              if (wait <= 0) break;
+              m_notEmpty.awaitNanos(wait);
+            }
+          }
+
+          running = m_running;
+          length = m_size;
+          if (batch.length < length) batch = new byte[Math.max(length, batch.length * 2)];
+          int first = Math.min(length, m_queue.length - m_head);
+          System.arraycopy(m_queue, m_head, batch, 0, first);
+          System.arraycopy(m_queue, 0, batch, first, length - first);
+          m_head = (m_head + length) % m_queue.length;
+          m_size = 0;
+          m_notFull.signalAll();
+        } finally {
+          m_lock.unlock();
+        }
+
+        process(batch, length);
+
+        if (!running) {
+          flush();
+          return;
+        }
+        if (m_unflushed >= m_flushBytes || System.nanoTime() - m_lastFlush >= m_flushIntervalNanos)
+          flush();
+      }
+    } catch (IOException e) {
+      Logger.Error("Unable to write replay files");
+      e.printStackTrace();
+      fail(e);
+    } catch (InterruptedException e) {
+      fail(new IOException("Replay writer was interrupted"));
+    }
+  }
+
+  private void process(byte[] batch, int length) throws IOException {
+    int offset = 0;
+    while (offset < length) {
+      int stream = batch[offset];
+      int size =
+          ((batch[offset + 1] & 0xFF) << 24)
+              | ((batch[offset + 2] & 0xFF) << 16)
+              | ((batch[offset + 3] & 0xFF) << 8)
+              | (batch[offset + 4] & 0xFF);
+      offset += ENTRY_HEADER_SIZE;
+
+      if (m_streams[stream] != null) {
+        if (m_checksums[stream] != null) m_checksums[stream].update(batch, offset, size);
+        m_streams[stream].write(batch, offset, size);
+        m_dirty[stream] = true;
+        m_unflushed += size;
+      }
+      offset += size;
+    }
+  }
+
+  private void flush() throws IOException {
+    for (int i = 0; i < m_streams.length; i++) {
+      if (m_dirty[i]) {
+        m_streams[i].flush();
+        m_dirty[i] = false;
+      }
+    }
+    m_unflushed = 0;
+    m_lastFlush = System.nanoTime();
+  }
+
+  private void fail(IOException e) {
+    m_lock.lock();
+    try {
+      m_error = e;
+      m_running = false;
+      m_notFull.signalAll();
+    } finally {
+      m_lock.unlock();
+    }
+  }
+
+  /**
+   * Waits for room for an entry, must be called with the lock held.
+   *
+   * @return false if the writer was closed and the entry should be dropped
+   */
+  private boolean reserve(int size) throws IOException {
+    int needed = ENTRY_HEADER_SIZE + size;
+    if (m_size + needed > m_queue.length) {
+      long start = System.nanoTime();
+      m_stalls++;
+      try {
+        while (m_running && m_size + needed > m_queue.length) {
+          if (m_size == 0) {
+            // Larger than the whole queue, grow it
+            m_queue = new byte[Math.max(needed, m_queue.length * 2)];
+            m_head = 0;
+            break;
+          }
+          m_notFull.await();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for the replay writer");
+      } finally {
+        m_stallNanos += System.nanoTime() - start;
+      }
+    }
+
+    if (m_error != null) throw m_error;
+    if (!m_running) return false;
+
+    m_peakSize = Math.max(m_peakSize, m_size + needed);
+    return true;
+  }
+
+  private void putEntryHeader(int stream, int size) {
+    putByte(stream);
+    putInt(size);
+  }
+
+  private void putInt(int value) {
+    putByte(value >>> 24);
+    putByte(value >>> 16);
+    putByte(value >>> 8);
+    putByte(value);
+  }
+
+  private void putByte(int value) {
+    m_queue[(m_head + m_size) % m_queue.length] = (byte) value;
+    m_size++;
+  }
+
+  private void put(byte[] b, int off, int len) {
+    int tail = (m_head + m_size) % m_queue.length;
+    int first = Math.min(len, m_queue.length - tail);
+    System.arraycopy(b, off, m_queue, tail, first);
+    System.arraycopy(b, off + first, m_queue, 0, len - first);
+    m_size += len;
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.common;
+
+/**
+ * A byte pattern where each position accepts a set of values, searched with Boyer-Moore-Horspool.
+ *
+ * <p>Positions can be left as wildcards or accept several values, the skip table takes them into
+ * account so the search stays correct, it just can't skip as far past them.
+ */
+public class BytePattern {
+  private final int m_length;
+
+  /** 256 bit set of accepted values for every position */
+  private final long[][] m_accept;
+
+  private volatile int[] m_skip;
+
+  public BytePattern(byte[] pattern) {
+    m_length = pattern.length;
+    m_accept = new long[m_length][4];
+    for (int i = 0; i < m_length; i++) allow(i, pattern[i]);
+  }
+
+  public int length() {
+    return m_length;
+  }
+
+  /**
+   * Makes a position match any value.
+   *
+   * @param position the position in the pattern
+   * @return this pattern
+   */
+  public BytePattern any(int position) {
+    for (int i = 0; i < 4; i++) m_accept[position][i] = -1L;
+    m_skip = null;
+    return this;
+  }
+
+  /**
+   * Makes a position also match a value.
+   *
+   * @param position the position in the pattern
+   * @param value the value to accept
+   * @return this pattern
+   */
+  public BytePattern allow(int position, byte value) {
+    int v = value & 0xFF;
+    m_accept[position][v >> 6] |= 1L << (v & 63);
+    m_skip = null;
+    return this;
+  }
+
+  /**
+   * Checks if the pattern matches at an offset.
+   *
+   * @param data the data to check
+   * @param offset the offset to check at
+   * @param end the end of valid data
+   * @return if the whole pattern fits before end and matches
+   */
+  public boolean matches(byte[] data, int offset, int end) {
+    if (offset < 0 || end - offset < m_length) return false;
+    for (int i = m_length - 1; i >= 0; i--) {
+      if (!accepts(i, data[offset + i])) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Finds the next match.
+   *
+   * @param data the data to search
+   * @param from the first offset to check
+   * @param end the end of valid data
+   * @return the offset of the match, or -1 if there is none
+   */
+  public int indexOf(byte[] data, int from, int end) {
+    int[] skip = getSkipTable();
+    int last = m_length - 1;
+    int offset = Math.max(from, 0);
+    while (offset <= end - m_length) {
+      int i = last;
+      while (i >= 0 && accepts(i, data[offset + i])) i--;
+      if (i < 0) return offset;
+      offset += skip[data[offset + last] & 0xFF];
+    }
+    return -1;
+  }
+
+  private boolean accepts(int position, byte value) {
+    int v = value & 0xFF;
+    return (m_accept[position][v >> 6] & (1L << (v & 63))) != 0;
+  }
+
+  private int[] getSkipTable() {
+    if (m_skip != null) return m_skip;
+
+    // Distance from the last position a value can match at to the end of the pattern
+    int[] skip = new int[256];
+    for (int v = 0; v < 256; v++) {
+      skip[v] = m_length;
+      for (int i = m_length - 2; i >= 0; i--) {
+        if (accepts(i, (byte) v)) {
+          skip[v] = m_length - 1 - i;
+          break;
+        }
+      }
+    }
+    m_skip = skip;
+    return skip;
+  }
+}
@@ -21,6 +21,7 @@ package Replay.common;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
 import java.nio.file.Files;
 
 public class FileUtil {
@@ -46,4 +47,32 @@ public class FileUtil {
       return null;
     }
   }
+
+  /**
+   * Reads the uncompressed size stored in the trailer of a gzip file.
+   *
+   * <p>The trailer only holds the size modulo 2^32 and is missing from files that weren't closed
+   * properly, so this should only be used as a hint.
+   *
+   * @param f the gzip file
+   * @return the uncompressed size, or -1 if it couldn't be read
+   */
+  public static long readGZIPSize(File f) {
+    try {
+      RandomAccessFile file = new RandomAccessFile(f, "r");
+      try {
+        if (file.length() < 18) return -1;
+        file.seek(file.length() - 4);
+        int b0 = file.read();
+        int b1 = file.read();
+        int b2 = file.read();
+        int b3 = file.read();
+        return ((long) b3 << 24) | (b2 << 16) | (b1 << 8) | b0;
+      } finally {
+        file.close();
+      }
+    } catch (Exception e) {
+      return -1;
+    }
+  }
 }
@@ -18,6 +18,8 @@
  */
 package Replay.common;
 
+import java.util.Arrays;
+
 /**
  * An implementation of an ISAAC cipher. See <a href="http://en.wikipedia.org/wiki/ISAAC_(cipher)">
  * http://en.wikipedia.org/wiki/ISAAC_(cipher)</a> for more information.
@@ -72,6 +74,37 @@ public class ISAACCipher {
     init(true);
   }
 
+  /**
+   * Resets the cipher and changes its key, the same as {@link #reset()} followed by {@link
+   * #setKeys(int[])}, without clearing the memory that the key schedule overwrites anyway.
+   *
+   * @param seed The seed.
+   */
+  public void seed(int[] seed) {
+    Arrays.fill(results, seed.length, SIZE, 0);
+    a = 0;
+    b = 0;
+    c = 0;
+    setKeys(seed);
+  }
+
+  /**
+   * Copies the state of another cipher, so this one continues where it is.
+   *
+   * <p>Keeping a copy is cheaper than seeding again to go back to a known position in the
+   * keystream.
+   *
+   * @param other The cipher to copy.
+   */
+  public void copyFrom(ISAACCipher other) {
+    System.arraycopy(other.results, 0, results, 0, SIZE);
+    System.arraycopy(other.memory, 0, memory, 0, SIZE);
+    count = other.count;
+    a = other.a;
+    b = other.b;
+    c = other.c;
+  }
+
   /** Resets the ISAAC cipher */
   public void reset() {
     for (int i = 0; i < memory.length; i++) memory[i] = 0x00;
@@ -94,6 +127,29 @@ public class ISAACCipher {
     return results[count];
   }
 
+  /**
+   * Gets the next values in bulk, the same values as calling {@link #getNextValue()} for each.
+   *
+   * @param values The array to fill.
+   * @param offset The first index to fill.
+   * @param length The number of values.
+   */
+  public void getNextValues(int[] values, int offset, int length) {
+    while (length > 0) {
+      if (count == 0) {
+        isaac();
+        count = SIZE;
+      }
+
+      // Results are handed out from the end
+      int n = Math.min(count, length);
+      for (int i = 0; i < n; i++) values[offset + i] = results[count - 1 - i];
+      count -= n;
+      offset += n;
+      length -= n;
+    }
+  }
+
   /** Generates 256 results. */
   public void isaac() {
     int i, j, x, y;
@@ -0,0 +1,164 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.scraper;
+
+import java.util.Arrays;
+
+/**
+ * Decodes the Huffman coded strings of chat packets, giving the same bytes as the client's {@link
+ * Replay.scraper.client.Class11#method240}, four bits at a time.
+ *
+ * <p>The code tree is built the same way the client builds it. Every internal node then gets a
+ * table of where each four bit nibble leads to: the node it ends on and the bytes it completes, so
+ * decoding takes two lookups per input byte instead of a branch per bit.
+ */
+public final class RSCStringDecoder {
+  private static final int BITS = 4;
+
+  // Codes are at least 3 bits long, so a nibble completes at most 2 of them
+  private static final int MAX_SYMBOLS = 2;
+
+  // An entry is next node << NODE_SHIFT | symbol count << COUNT_SHIFT | second << 8 | first
+  private static final int COUNT_SHIFT = 16;
+  private static final int NODE_SHIFT = 18;
+
+  private final int[] m_table;
+
+  /** @param lengths the code length of every byte value, 0 if it has no code */
+  public RSCStringDecoder(byte[] lengths) {
+    int[] tree = buildTree(lengths);
+
+    // Only internal nodes get a table, numbered in tree order
+    int[] nodes = new int[tree.length];
+    int nodeCount = 0;
+    for (int i = 0; i < tree.length; i++) nodes[i] = tree[i] >= 0 ? nodeCount++ : -1;
+
+    m_table = new int[nodeCount << BITS];
+    for (int i = 0; i < tree.length; i++) {
+      if (nodes[i] < 0) continue;
+      for (int nibble = 0; nibble < (1 << BITS); nibble++) {
+        int node = i;
+        int count = 0;
+        int symbols = 0;
+        for (int bit = BITS - 1; bit >= 0; bit--) {
+          node = ((nibble >>> bit) & 1) != 0 ? tree[node] : node + 1;
+          if (tree[node] < 0) {
+            if (count == MAX_SYMBOLS)
+              throw new IllegalArgumentException("Codes must be at least 3 bits long");
+            symbols |= (~tree[node] & 0xFF) << (count << 3);
+            count++;
+            node = 0;
+          }
+        }
+        m_table[(nodes[i] << BITS) | nibble] =
+            (nodes[node] << NODE_SHIFT) | (count << COUNT_SHIFT) | symbols;
+      }
+    }
+  }
+
+  /**
+   * Decodes a string.
+   *
+   * @param src the encoded string
+   * @param srcOffset where the encoded string starts
+   * @param dest where to put the decoded bytes
+   * @param destOffset the first index to fill
+   * @param length how many bytes the decoded string has
+   * @return how many bytes of the encoded string were read
+   */
+  public int decode(byte[] src, int srcOffset, byte[] dest, int destOffset, int length) {
+    if (length == 0) return 0;
+
+    int end = destOffset + length;
+    int position = srcOffset;
+    int node = 0;
+    for (; ; ) {
+      int value = src[position++] & 0xFF;
+      int entry = m_table[(node << BITS) | (value >>> BITS)];
+      if ((destOffset = put(entry, dest, destOffset, end)) == end) break;
+      entry = m_table[((entry >>> NODE_SHIFT) << BITS) | (value & 0xF)];
+      if ((destOffset = put(entry, dest, destOffset, end)) == end) break;
+      node = entry >>> NODE_SHIFT;
+    }
+    return position - srcOffset;
+  }
+
+  /** Puts the bytes completed by a table entry, stopping at the end of the string. */
+  private static int put(int entry, byte[] dest, int offset, int end) {
+    int count = (entry >>> COUNT_SHIFT) & 0x3;
+    if (count > 0) {
+      dest[offset++] = (byte) entry;
+      if (count > 1 && offset < end) dest[offset++] = (byte) (entry >>> 8);
+    }
+    return offset;
+  }
+
+  /**
+   * Builds the code tree like the client does. A node's left child is the next node, its right
+   * child is the node it holds, and leaves hold the inverted byte value.
+   */
+  private static int[] buildTree(byte[] lengths) {
+    // The next free code of every length, left aligned
+    int[] codes = new int[33];
+    int[] tree = new int[8];
+    int nodeCount = 0;
+
+    for (int symbol = 0; symbol < lengths.length; symbol++) {
+      int length = lengths[symbol];
+      if (length == 0) continue;
+
+      int bit = 1 << (32 - length);
+      int code = codes[length];
+      int following;
+      if ((code & bit) == 0) {
+        following = code | bit;
+        for (int i = length - 1; i >= 1; i--) {
+          int shorter = codes[i];
+          if (shorter != code) break;
+          int shorterBit = 1 << (32 - i);
+          if ((shorter & shorterBit) != 0) {
+            codes[i] = codes[i - 1];
+            break;
+          }
+          codes[i] = shorter | shorterBit;
+        }
+      } else {
+        following = codes[length - 1];
+      }
+      codes[length] = following;
+      for (int i = length + 1; i <= 32; i++) {
+        if (codes[i] == code) codes[i] = following;
+      }
+
+      int node = 0;
+      for (int i = 0; i < length; i++) {
+        if ((code & (Integer.MIN_VALUE >>> i)) != 0) {
+          if (tree[node] == 0) tree[node] = nodeCount;
+          node = tree[node];
+        } else {
+          node++;
+        }
+        if (node >= tree.length) tree = Arrays.copyOf(tree, tree.length * 2);
+      }
+      if (node >= nodeCount) nodeCount = node + 1;
+      tree[node] = ~symbol;
+    }
+    return Arrays.copyOf(tree, nodeCount);
+  }
+}
@@ -20,14 +20,15 @@ package Replay.scraper;
 
 import Replay.common.ISAACCipher;
 import java.io.*;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.zip.GZIPOutputStream;
 
 public class ReplayEditor {
   private LinkedList<ReplayKeyPair> m_keys = new LinkedList<ReplayKeyPair>();
-  private LinkedList<ReplayPacket> m_incomingPackets = new LinkedList<ReplayPacket>();
-  private LinkedList<ReplayPacket> m_outgoingPackets = new LinkedList<ReplayPacket>();
+  private ReplayPacketStore m_incomingPackets = new ReplayPacketStore();
+  private ReplayPacketStore m_outgoingPackets = new ReplayPacketStore();
   private ReplayVersion m_replayVersion = new ReplayVersion();
   private ReplayMetadata m_replayMetadata = new ReplayMetadata();
   private byte[] m_inMetadata = new byte[32];
@@ -36,6 +37,10 @@ public class ReplayEditor {
   private byte[] m_outChecksum = new byte[32];
   private byte[] m_metadata = new byte[1];
 
+  // Only set while a replay is being opened
+  private ReplayReader m_incomingReader;
+  private ReplayReader m_outgoingReader;
+
   public static final int VERSION = 5;
 
   public static final int METADATA_FLAGS_OFFSET = 0;
@@ -51,11 +56,11 @@ public class ReplayEditor {
     return m_metadata;
   }
 
-  public LinkedList<ReplayPacket> getIncomingPackets() {
+  public ReplayPacketStore getIncomingPackets() {
     return m_incomingPackets;
   }
 
-  public LinkedList<ReplayPacket> getOutgoingPackets() {
+  public ReplayPacketStore getOutgoingPackets() {
     return m_outgoingPackets;
   }
 
@@ -88,7 +93,75 @@ public class ReplayEditor {
     return true;
   }
 
+  /** @return if the replay stores checksums of its packet data, they were added in version 3 */
+  public boolean hasChecksums() {
+    return m_replayVersion.version >= 3;
+  }
+
+  /** @return if the packet data matches the checksums stored after it, see {@link #hasChecksums} */
+  public boolean checksumsMatch() {
+    return Arrays.equals(m_inChecksum, m_inMetadata) && Arrays.equals(m_outChecksum, m_outMetadata);
+  }
+
   public boolean importData(String fname) {
+    boolean success = openReaders(fname);
+
+    try {
+      // Import incoming packets
+      if (m_incomingReader != null) {
+        m_incomingPackets = new ReplayPacketStore(1024, m_incomingReader.getDataSizeEstimate());
+        m_incomingReader.readPackets(m_incomingPackets);
+        m_incomingPackets.trimToSize();
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    if (m_incomingReader != null) m_incomingReader.close();
+    m_incomingReader = null;
+
+    try {
+      // Import outgoing packets
+      if (m_outgoingReader != null) {
+        m_outgoingPackets = new ReplayPacketStore(1024, m_outgoingReader.getDataSizeEstimate());
+        m_outgoingReader.readPackets(m_outgoingPackets);
+        m_outgoingPackets.trimToSize();
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+
+    if (m_outgoingReader != null) m_outgoingReader.close();
+    m_outgoingReader = null;
+    return success;
+  }
+
+  /**
+   * Opens a replay for reading its packets one at a time, instead of importing all of them.
+   *
+   * <p>Version and keys are read like {@link #importData(String)} does, but the packet stores stay
+   * empty. Checksums and the replay length are filled in once the stream has been read to the end.
+   *
+   * @param fname the replay folder
+   * @return the packets, or null if the replay can't be read
+   */
+  public ReplayPacketStream openStream(String fname) {
+    ReplayPacketStream stream = null;
+    if (openReaders(fname) && m_incomingReader != null) {
+      stream = new ReplayPacketStream(m_incomingReader, m_outgoingReader);
+    } else {
+      if (m_incomingReader != null) m_incomingReader.close();
+      if (m_outgoingReader != null) m_outgoingReader.close();
+    }
+    m_incomingReader = null;
+    m_outgoingReader = null;
+    return stream;
+  }
+
+  /** Reads the version, keys and metadata and opens the packet data of a replay */
+  private boolean openReaders(String fname) {
+    m_incomingReader = null;
+    m_outgoingReader = null;
+
     // Required files
     File keysFile = new File(fname + "/keys.bin");
     File versionFile = new File(fname + "/version.bin");
@@ -143,7 +216,6 @@ public class ReplayEditor {
       e.printStackTrace();
     }
 
-    ReplayPacket replayPacket;
     try {
       // Import incoming packets
       ReplayReader incomingReader = new ReplayReader();
@@ -158,10 +230,7 @@ public class ReplayEditor {
               m_inChecksum,
               false);
       if (!success) return false;
-      while ((replayPacket = incomingReader.readPacket(false)) != null) {
-        m_incomingPackets.add(replayPacket);
-      }
-      // FileUtil.writeFull("output/in.raw", incomingReader.getData());
+      m_incomingReader = incomingReader;
     } catch (Exception e) {
       e.printStackTrace();
     }
@@ -181,43 +250,12 @@ public class ReplayEditor {
                 m_outChecksum,
                 true);
         if (!success) return false;
-        while ((replayPacket = outgoingReader.readPacket(false)) != null) {
-          m_outgoingPackets.add(replayPacket);
-        }
-        // FileUtil.writeFull("output/out.raw", outgoingReader.getData());
+        m_outgoingReader = outgoingReader;
       } catch (Exception e) {
         e.printStackTrace();
       }
     }
 
-    // Skew disconnect timestamps
-    boolean firstLogin = false;
-    ReplayPacket previousPacket = null;
-    int skew = 0;
-    for (ReplayPacket packet : m_incomingPackets) {
-      packet.timestamp += skew;
-      if (packet.opcode == VIRTUAL_OPCODE_CONNECT) {
-        if (firstLogin) {
-          int timestampDiff = packet.timestamp - previousPacket.timestamp;
-          if (timestampDiff <= 400) {
-            int offset = 401 - timestampDiff;
-            skew += offset;
-            packet.timestamp += offset;
-            System.out.println(
-                "WARNING: Skewing timestamps by +"
-                    + offset
-                    + " ("
-                    + (packet.timestamp - offset)
-                    + ":"
-                    + packet.timestamp
-                    + ")");
-          }
-        }
-        firstLogin = true;
-      }
-      previousPacket = packet;
-    }
-
     return true;
   }
 
@@ -255,13 +293,19 @@ public class ReplayEditor {
       DataOutputStream in =
           new DataOutputStream(
               new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(inFile))));
-      for (ReplayPacket packet : m_incomingPackets) {
-        if (packet.opcode == VIRTUAL_OPCODE_NOP) {
+      byte[] data = m_incomingPackets.getData();
+      for (int i = 0; i < m_incomingPackets.size(); i++) {
+        int opcode = m_incomingPackets.getOpcode(i);
+        int timestamp = m_incomingPackets.getTimestamp(i);
+        int dataOffset = m_incomingPackets.getDataOffset(i);
+        int dataLength = m_incomingPackets.getDataLength(i);
+
+        if (opcode == VIRTUAL_OPCODE_NOP) {
           continue;
         }
 
         // Handle virtual packets
-        if (packet.opcode == VIRTUAL_OPCODE_CONNECT) {
+        if (opcode == VIRTUAL_OPCODE_CONNECT) {
           // Write disconnect
           if (m_replayVersion.version > 0 && disconnectCount > 0) {
             in.writeInt(lastTimestamp);
@@ -269,22 +313,21 @@ public class ReplayEditor {
           }
 
           disconnectCount++;
-          in.writeInt(packet.timestamp);
+          in.writeInt(timestamp);
           in.writeInt(1);
-          in.writeByte(packet.data[0]);
-          if ((packet.data[0] & 64) != 0) {
-            isaac.reset();
-            isaac.setKeys(m_keys.get(++keyIndex).keys);
+          in.writeByte(data[dataOffset]);
+          if ((data[dataOffset] & 64) != 0) {
+            isaac.seed(m_keys.get(++keyIndex).keys);
           }
           continue;
         }
 
         // Write timestamp
-        in.writeInt(packet.timestamp);
+        in.writeInt(timestamp);
 
         // Handle normal packets
         int packetLength = 1;
-        if (packet.data != null) packetLength += packet.data.length;
+        if (dataLength > 0) packetLength += dataLength;
         if (packetLength >= 160) {
           in.writeInt(packetLength + 2);
           in.writeByte(packetLength / 256 + 160);
@@ -295,29 +338,29 @@ public class ReplayEditor {
         }
 
         // Write data
-        int encodedOpcode = (packet.opcode + isaac.getNextValue()) & 0xFF;
+        int encodedOpcode = (opcode + isaac.getNextValue()) & 0xFF;
         if (packetLength == 1) {
           in.writeByte(encodedOpcode);
         } else {
           if (packetLength < 160) {
             int dataSize = packetLength - 1;
-            in.writeByte(packet.data[dataSize - 1]);
+            in.writeByte(data[dataOffset + dataSize - 1]);
             in.writeByte(encodedOpcode);
-            if (dataSize > 1) in.write(packet.data, 0, dataSize - 1);
+            if (dataSize > 1) in.write(data, dataOffset, dataSize - 1);
           } else {
             in.writeByte(encodedOpcode);
-            in.write(packet.data, 0, packet.data.length);
+            in.write(data, dataOffset, dataLength);
           }
         }
 
-        if (packet.timestamp < lastTimestamp) {
+        if (timestamp < lastTimestamp) {
           System.out.println("Timestamp is in the past");
         }
 
         // Update metadata length
-        m_replayMetadata.replayLength = packet.timestamp;
+        m_replayMetadata.replayLength = timestamp;
 
-        lastTimestamp = packet.timestamp;
+        lastTimestamp = timestamp;
       }
       in.writeInt(ReplayReader.TIMESTAMP_EOF);
       if (m_replayVersion.version >= 3) in.write(m_inMetadata);
@@ -329,17 +372,23 @@ public class ReplayEditor {
           new DataOutputStream(
               new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(outFile))));
       keyIndex = -1;
-      for (ReplayPacket packet : m_outgoingPackets) {
-        if (packet.opcode == VIRTUAL_OPCODE_NOP) {
+      data = m_outgoingPackets.getData();
+      for (int i = 0; i < m_outgoingPackets.size(); i++) {
+        int opcode = m_outgoingPackets.getOpcode(i);
+        int timestamp = m_outgoingPackets.getTimestamp(i);
+        int dataOffset = m_outgoingPackets.getDataOffset(i);
+        int dataLength = m_outgoingPackets.getDataLength(i);
+
+        if (opcode == VIRTUAL_OPCODE_NOP) {
           continue;
         }
 
         // Write timestamp
-        out.writeInt(packet.timestamp);
+        out.writeInt(timestamp);
 
         // Handle normal packets
         int packetLength = 1;
-        if (packet.data != null) packetLength += packet.data.length;
+        if (dataLength > 0) packetLength += dataLength;
         if (packetLength >= 160) {
           out.writeInt(packetLength + 2);
           out.writeByte(packetLength / 256 + 160);
@@ -350,11 +399,10 @@ public class ReplayEditor {
         }
 
         // Write data
-        int encodedOpcode = packet.opcode;
+        int encodedOpcode = opcode;
         if (encodedOpcode == VIRTUAL_OPCODE_CONNECT) {
           encodedOpcode = 0;
-          isaac.reset();
-          isaac.setKeys(m_keys.get(++keyIndex).keys);
+          isaac.seed(m_keys.get(++keyIndex).keys);
         } else {
           encodedOpcode = (encodedOpcode + isaac.getNextValue()) & 0xFF;
         }
@@ -363,15 +411,15 @@ public class ReplayEditor {
         } else {
           if (packetLength < 160) {
             int dataSize = packetLength - 1;
-            out.writeByte(packet.data[dataSize - 1]);
+            out.writeByte(data[dataOffset + dataSize - 1]);
             out.writeByte(encodedOpcode);
-            if (dataSize > 1) out.write(packet.data, 0, dataSize - 1);
+            if (dataSize > 1) out.write(data, dataOffset, dataSize - 1);
           } else {
             out.writeByte(encodedOpcode);
-            out.write(packet.data, 0, packet.data.length);
+            out.write(data, dataOffset, dataLength);
           }
         }
-        lastTimestamp = packet.timestamp;
+        lastTimestamp = timestamp;
       }
       out.writeInt(ReplayReader.TIMESTAMP_EOF);
       if (m_replayVersion.version >= 3) out.write(m_outMetadata);
@@ -0,0 +1,197 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.scraper;
+
+import java.util.Arrays;
+
+/**
+ * Columnar storage for decoded replay packets.
+ *
+ * <p>Timestamps, opcodes and payload locations are kept in parallel int arrays, and every payload
+ * is appended to one shared byte array, so random access by index is O(1) and a replay with
+ * hundreds of thousands of packets doesn't need an object per packet.
+ */
+public class ReplayPacketStore {
+  private int m_size = 0;
+  private int[] m_timestamps;
+  private int[] m_opcodes;
+  private int[] m_dataOffsets;
+  private int[] m_dataLengths;
+  private byte[] m_data;
+  private int m_dataSize = 0;
+
+  public ReplayPacketStore() {
+    this(1024, 16384);
+  }
+
+  public ReplayPacketStore(int packetCapacity, int dataCapacity) {
+    m_timestamps = new int[packetCapacity];
+    m_opcodes = new int[packetCapacity];
+    m_dataOffsets = new int[packetCapacity];
+    m_dataLengths = new int[packetCapacity];
+    m_data = new byte[dataCapacity];
+  }
+
+  public int size() {
+    return m_size;
+  }
+
+  public boolean isEmpty() {
+    return m_size == 0;
+  }
+
+  /**
+   * Appends a packet, copying its payload into the store.
+   *
+   * @param packet the packet to add
+   */
+  public void add(ReplayPacket packet) {
+    if (packet.data == null) add(packet.timestamp, packet.opcode, null, 0, -1);
+    else add(packet.timestamp, packet.opcode, packet.data, 0, packet.data.length);
+  }
+
+  /**
+   * Appends a packet.
+   *
+   * @param timestamp the packet timestamp
+   * @param opcode the decoded opcode
+   * @param data the buffer containing the payload, may be null
+   * @param offset the payload offset in data
+   * @param length the payload length, or -1 if the packet has no payload
+   */
+  public void add(int timestamp, int opcode, byte[] data, int offset, int length) {
+    if (m_size == m_timestamps.length) {
+      int newLength = Math.max(m_size * 2, 16);
+      m_timestamps = Arrays.copyOf(m_timestamps, newLength);
+      m_opcodes = Arrays.copyOf(m_opcodes, newLength);
+      m_dataOffsets = Arrays.copyOf(m_dataOffsets, newLength);
+      m_dataLengths = Arrays.copyOf(m_dataLengths, newLength);
+    }
+
+    m_timestamps[m_size] = timestamp;
+    m_opcodes[m_size] = opcode;
+    m_dataOffsets[m_size] = m_dataSize;
+    m_dataLengths[m_size] = (data == null) ? -1 : length;
+
+    if (data != null && length > 0) {
+      if (m_dataSize + length > m_data.length)
+        m_data = Arrays.copyOf(m_data, Math.max(m_data.length * 2, m_dataSize + length));
+      System.arraycopy(data, offset, m_data, m_dataSize, length);
+      m_dataSize += length;
+    }
+
+    m_size++;
+  }
+
+  public int getTimestamp(int index) {
+    return m_timestamps[index];
+  }
+
+  public void setTimestamp(int index, int timestamp) {
+    m_timestamps[index] = timestamp;
+  }
+
+  public int getOpcode(int index) {
+    return m_opcodes[index];
+  }
+
+  /**
+   * Gets the payload length of a packet.
+   *
+   * @param index the packet index
+   * @return the payload length, or -1 if the packet has no payload
+   */
+  public int getDataLength(int index) {
+    return m_dataLengths[index];
+  }
+
+  /** @return the offset of a packet payload in {@link #getData()} */
+  public int getDataOffset(int index) {
+    return m_dataOffsets[index];
+  }
+
+  /** @return the shared payload buffer, only valid until the next {@link #add} */
+  public byte[] getData() {
+    return m_data;
+  }
+
+  /**
+   * Gets a packet as a standalone object, with its own copy of the payload.
+   *
+   * @param index the packet index
+   * @return the packet
+   */
+  public ReplayPacket get(int index) {
+    ReplayPacket packet = new ReplayPacket();
+    packet.timestamp = m_timestamps[index];
+    packet.opcode = m_opcodes[index];
+    int length = m_dataLengths[index];
+    if (length >= 0) {
+      int offset = m_dataOffsets[index];
+      packet.data = Arrays.copyOfRange(m_data, offset, offset + length);
+    } else {
+      packet.data = null;
+    }
+    return packet;
+  }
+
+  /**
+   * Points a view at a packet without copying its payload, the view stays valid until the next
+   * {@link #add}.
+   *
+   * @param index the packet index
+   * @param view the view to fill
+   * @return the view
+   */
+  public ReplayPacketView view(int index, ReplayPacketView view) {
+    view.timestamp = m_timestamps[index];
+    view.opcode = m_opcodes[index];
+    view.data = m_data;
+    view.offset = m_dataOffsets[index];
+    view.length = m_dataLengths[index];
+    view.skipKeys = 0;
+    return view;
+  }
+
+  /**
+   * Finds the first packet at or after a timestamp, timestamps must be ascending.
+   *
+   * @param timestamp the timestamp to search for
+   * @return the packet index, or {@link #size()} if every packet is earlier
+   */
+  public int search(int timestamp) {
+    int low = 0;
+    int high = m_size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (m_timestamps[mid] < timestamp) low = mid + 1;
+      else high = mid;
+    }
+    return low;
+  }
+
+  /** Releases unused capacity once the store is fully populated. */
+  public void trimToSize() {
+    m_timestamps = Arrays.copyOf(m_timestamps, m_size);
+    m_opcodes = Arrays.copyOf(m_opcodes, m_size);
+    m_dataOffsets = Arrays.copyOf(m_dataOffsets, m_size);
+    m_dataLengths = Arrays.copyOf(m_dataLengths, m_size);
+    m_data = Arrays.copyOf(m_data, m_dataSize);
+  }
+}
@@ -0,0 +1,174 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.scraper;
+
+import Client.Logger;
+import java.io.IOException;
+
+/**
+ * Incoming and outgoing packets of a replay, decoded one at a time in timestamp order.
+ *
+ * <p>Unlike {@link ReplayEditor#importData(String)}, nothing is collected: every packet is decoded
+ * when it's asked for, into a view over the reader's own buffer, so going through a replay doesn't
+ * allocate per packet and doesn't keep a second copy of it in a {@link ReplayPacketStore}. Outgoing
+ * packets come before incoming packets with the same timestamp, like they do in editor playback.
+ *
+ * <p>The readers only keep a window of the files, so memory doesn't depend on the length of the
+ * replay. To go back, the stream is restarted from the {@link Keyframe} of a login.
+ */
+public class ReplayPacketStream {
+  /** Where both readers were at an incoming login, see {@link #getKeyframe()} */
+  public static class Keyframe {
+    public final int timestamp;
+    final ReplayReader.Checkpoint incoming;
+    final ReplayReader.Checkpoint outgoing;
+
+    Keyframe(int timestamp, ReplayReader.Checkpoint incoming, ReplayReader.Checkpoint outgoing) {
+      this.timestamp = timestamp;
+      this.incoming = incoming;
+      this.outgoing = outgoing;
+    }
+  }
+
+  private final ReplayReader m_incoming;
+  private final ReplayReader m_outgoing;
+  private final ReplayPacketView m_incomingPacket = new ReplayPacketView();
+  private final ReplayPacketView m_outgoingPacket = new ReplayPacketView();
+  private boolean m_hasIncoming;
+  private boolean m_hasOutgoing;
+  private boolean m_started = false;
+  private boolean m_lastIncoming;
+
+  // Logins of the packets read ahead, and of the last outgoing login returned
+  private ReplayReader.Checkpoint m_incomingLogin;
+  private ReplayReader.Checkpoint m_outgoingLogin;
+  private ReplayReader.Checkpoint m_lastOutgoingLogin;
+  // Outgoing packets before a keyframe we restarted from are skipped
+  private int m_outgoingFrom = Integer.MIN_VALUE;
+
+  /**
+   * @param incoming the opened in.bin.gz reader
+   * @param outgoing the opened out.bin.gz reader, may be null
+   */
+  public ReplayPacketStream(ReplayReader incoming, ReplayReader outgoing) {
+    m_incoming = incoming;
+    m_outgoing = outgoing;
+  }
+
+  /**
+   * Decodes the next packet.
+   *
+   * @return the packet, only valid until the next call, or null at the end of the replay
+   */
+  public ReplayPacketView next() {
+    if (m_started && !m_hasIncoming && !m_hasOutgoing) return null;
+
+    if (!m_started) {
+      m_hasIncoming = readIncoming();
+      m_hasOutgoing = readOutgoing();
+      m_started = true;
+    } else if (m_lastIncoming) {
+      m_hasIncoming = readIncoming();
+    } else {
+      m_hasOutgoing = readOutgoing();
+    }
+
+    if (m_hasOutgoing
+        && (!m_hasIncoming || m_outgoingPacket.timestamp <= m_incomingPacket.timestamp)) {
+      m_lastIncoming = false;
+      if (m_outgoingPacket.opcode == ReplayEditor.VIRTUAL_OPCODE_CONNECT)
+        m_lastOutgoingLogin = m_outgoingLogin;
+      return m_outgoingPacket;
+    }
+    if (m_hasIncoming) {
+      m_lastIncoming = true;
+      return m_incomingPacket;
+    }
+    return null;
+  }
+
+  /** @return if the packet last returned by {@link #next()} was sent by the server */
+  public boolean isIncoming() {
+    return m_lastIncoming;
+  }
+
+  /**
+   * Gets the keyframe to restart from the packet last returned by {@link #next()}, it has to be an
+   * incoming {@link ReplayEditor#VIRTUAL_OPCODE_CONNECT}.
+   *
+   * @return the keyframe, or null if the login can't be restarted from
+   */
+  public Keyframe getKeyframe() {
+    if (!m_lastIncoming || m_incomingLogin == null) return null;
+    return new Keyframe(m_incomingPacket.timestamp, m_incomingLogin, m_lastOutgoingLogin);
+  }
+
+  /**
+   * Restarts decoding from a keyframe. Outgoing packets from before it are skipped, the first
+   * incoming packet is its login.
+   *
+   * @param keyframe the keyframe, or null to start over
+   * @return false if the replay can't be read again
+   */
+  public boolean restart(Keyframe keyframe) {
+    m_started = false;
+    m_hasIncoming = false;
+    m_hasOutgoing = false;
+    m_lastIncoming = false;
+    m_incomingLogin = null;
+    m_outgoingLogin = null;
+    m_lastOutgoingLogin = keyframe != null ? keyframe.outgoing : null;
+    m_outgoingFrom = keyframe != null ? keyframe.timestamp : Integer.MIN_VALUE;
+    try {
+      m_incoming.restart(keyframe != null ? keyframe.incoming : null);
+      if (m_outgoing != null) m_outgoing.restart(keyframe != null ? keyframe.outgoing : null);
+      return true;
+    } catch (IOException e) {
+      Logger.Error("Unable to restart the replay");
+      e.printStackTrace();
+      close();
+      return false;
+    }
+  }
+
+  /** Stops reading the replay files, if they weren't read to the end. */
+  public void close() {
+    m_incoming.close();
+    if (m_outgoing != null) m_outgoing.close();
+  }
+
+  private boolean readIncoming() {
+    if (!m_incoming.readPacket(m_incomingPacket)) return false;
+    if (m_incomingPacket.opcode == ReplayEditor.VIRTUAL_OPCODE_CONNECT)
+      m_incomingLogin = m_incoming.getLoginCheckpoint();
+    return true;
+  }
+
+  private boolean readOutgoing() {
+    if (m_outgoing == null) return false;
+    while (m_outgoing.readPacket(m_outgoingPacket)) {
+      if (m_outgoingPacket.opcode == ReplayEditor.VIRTUAL_OPCODE_CONNECT)
+        m_outgoingLogin = m_outgoing.getLoginCheckpoint();
+      if (m_outgoingPacket.timestamp < m_outgoingFrom) continue;
+      m_outgoingFrom = Integer.MIN_VALUE;
+      return true;
+    }
+    return false;
+  }
+}
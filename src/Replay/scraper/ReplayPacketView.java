@@ -0,0 +1,70 @@
+/**
+ * rscminus
+ *
+ * <p>This file is part of rscminus.
+ *
+ * <p>rscminus is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * <p>rscminus is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * <p>You should have received a copy of the GNU General Public License along with rscminus. If not,
+ * see <http://www.gnu.org/licenses/>.
+ *
+ * <p>Authors: see <https://github.com/RSCPlus/rscminus>
+ */
+package Replay.scraper;
+
+import java.util.Arrays;
+
+/**
+ * A packet whose payload is a range of a shared buffer.
+ *
+ * <p>Views are reused, whoever fills one owns the buffer, so the payload is only valid until the
+ * view is filled again. Use {@link #toReplayPacket()} to keep a packet around.
+ */
+public class ReplayPacketView {
+  public int timestamp;
+  public int opcode;
+  public byte[] data;
+  public int offset;
+  // -1 if the packet has no payload
+  public int length = -1;
+  public int skipKeys = 0;
+
+  public boolean hasData() {
+    return length >= 0;
+  }
+
+  public byte getByte(int index) {
+    if (index < 0 || index >= length) throw new ArrayIndexOutOfBoundsException(index);
+    return data[offset + index];
+  }
+
+  public int getUnsignedByte(int index) {
+    return getByte(index) & 0xFF;
+  }
+
+  public int getUnsignedShort(int index) {
+    return (getUnsignedByte(index) << 8) | getUnsignedByte(index + 1);
+  }
+
+  /** @return a copy of the payload, or null if the packet has none */
+  public byte[] copyData() {
+    if (length < 0) return null;
+    return Arrays.copyOfRange(data, offset, offset + length);
+  }
+
+  /** @return a standalone packet with its own copy of the payload */
+  public ReplayPacket toReplayPacket() {
+    ReplayPacket packet = new ReplayPacket();
+    packet.timestamp = timestamp;
+    packet.opcode = opcode;
+    packet.data = copyData();
+    packet.skipKeys = skipKeys;
+    return packet;
+  }
+}
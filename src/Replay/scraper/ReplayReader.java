@@ -19,26 +19,75 @@
 package Replay.scraper;
 
 import Client.Logger;
+import Replay.common.BytePattern;
+import Replay.common.FileUtil;
 import Replay.common.ISAACCipher;
 import Replay.game.PacketBuilder;
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.Map;
-import java.util.Queue;
 import java.util.zip.GZIPInputStream;
 
+/**
+ * Decodes the packets of in.bin.gz or out.bin.gz.
+ *
+ * <p>The file is inflated as packets are decoded, only a window of packet data around the read
+ * position is kept, so memory doesn't grow with the length of the replay. The checksum, metadata
+ * and replay length are filled in once the whole file has been read, which happens when the last
+ * packet has been decoded. Decoding can be restarted from a login, see {@link #restart}.
+ */
 public class ReplayReader {
-  private byte[] m_data;
-  private Queue<Integer> m_timestamps = new LinkedList<Integer>();
-  LinkedList<Integer> m_disconnectOffsets = new LinkedList<Integer>();
+  // Packet data kept around the read position, it only grows for larger packets
+  private static final int WINDOW_SIZE = 64 * 1024;
+
+  private File m_file;
+  private DataInputStream m_in;
+  // Uncompressed bytes of the file read so far
+  private long m_fileOffset;
+  private boolean m_fileEnded = true;
+  // Only reading from the start fills in the checksum, metadata and replay length
+  private boolean m_fromStart;
+  private int m_dataSizeEstimate;
+  private final byte[] m_header = new byte[8];
+
+  // Filled in once the file is read
+  private MessageDigest m_messageDigest;
+  private ReplayMetadata m_replayMetadata;
+  private byte[] m_fileMetadata;
+  private byte[] m_metadata;
+  private byte[] m_checksum;
+  private boolean m_hasPreviousRecord;
+  private int m_previousRecordTimestamp;
+
+  // Packet data from offset m_windowStart to m_windowEnd, offsets count from the start of the file
+  private byte[] m_window = new byte[WINDOW_SIZE];
+  private int m_windowStart;
+  private int m_windowEnd;
+  // Data before this offset has been decoded and can be dropped
+  private int m_keepFrom;
+
+  // Records of the file in the window: where their data starts, their timestamp, their header
+  private int[] m_recordOffsets = new int[1024];
+  private int[] m_recordTimestamps = new int[1024];
+  private long[] m_recordFileOffsets = new long[1024];
+  private int m_recordCount = 0;
+  private int m_recordCursor = 0;
+  private int m_timestamp;
+
+  // Logins too close together are pushed apart, everything after them moves with them
+  private int m_skew;
+  private int m_previousTimestamp;
+  private boolean m_firstLogin;
+  // Disconnects can't be found before this offset, the first login isn't one
+  private int m_disconnectFrom;
+  private Checkpoint m_loginCheckpoint;
 
   private static final byte[] m_inputDisconnectPattern = {
     0x40, 0x05, 0x00, 0x6E, 0x00, 0x00, 0x00, 0x1A, 0x00, 0x6C, 0x03, 0x00, 0x00, 0x57, 0x65, 0x6C,
@@ -49,6 +98,10 @@ public class ReplayReader {
     0x00, 0x01, 0x00, 0x00, 0x00, (byte) 0xEB
   };
 
+  private static final BytePattern m_inputDisconnectSearch = createInputDisconnectSearch();
+  private static final BytePattern m_outputDisconnectSearch =
+      new BytePattern(m_outputDisconnectPattern);
+
   // Reader state
   private boolean m_loggedIn;
   private boolean m_forceQuit;
@@ -57,21 +110,60 @@ public class ReplayReader {
   private LinkedList<ReplayKeyPair> m_keys;
   private int m_keyIndex;
   private ISAACCipher isaac = new ISAACCipher();
+  // The cipher right after a login, to go back to once the packets after it are checked
+  private final ISAACCipher m_isaacLogin = new ISAACCipher();
+
+  // Payload of the last decoded packet, shared by the views filled by this reader
+  private byte[] m_packetData = new byte[256];
+  private final ReplayPacketView m_packet = new ReplayPacketView();
+  private final ReplayPacketView m_peekPacket = new ReplayPacketView();
 
   public static final int TIMESTAMP_EOF = -1;
 
-  public byte[] getData() {
-    return m_data;
+  /** The reader state right before a login, to restart decoding from. */
+  public static class Checkpoint {
+    // Header of the record holding the login, and where its data starts
+    final long fileOffset;
+    final int recordOffset;
+    final int position;
+    final int keyIndex;
+    final int skew;
+    final int previousTimestamp;
+    final boolean firstLogin;
+
+    Checkpoint(
+        long fileOffset,
+        int recordOffset,
+        int position,
+        int keyIndex,
+        int skew,
+        int previousTimestamp,
+        boolean firstLogin) {
+      this.fileOffset = fileOffset;
+      this.recordOffset = recordOffset;
+      this.position = position;
+      this.keyIndex = keyIndex;
+      this.skew = skew;
+      this.previousTimestamp = previousTimestamp;
+      this.firstLogin = firstLogin;
+    }
   }
 
   public int getDataPosition() {
     return m_position;
   }
 
-  public int getDataSize() {
-    return m_data.length;
+  /** @return about how many bytes of packet data the file holds, from its gzip trailer */
+  public int getDataSizeEstimate() {
+    return m_dataSizeEstimate;
   }
 
+  /**
+   * The checksum and metadata arrays are filled in, and the replay length set, once the whole file
+   * has been read.
+   *
+   * @return false if the file holds no packet data
+   */
   public boolean open(
       File f,
       ReplayVersion replayVersion,
@@ -82,210 +174,305 @@ public class ReplayReader {
       byte[] checksum,
       boolean outgoing)
       throws IOException, NoSuchAlgorithmException {
-    int size = calculateSize(f);
-
-    if (size == 0) return false;
-
-    // Calculate checksum
-    if (replayVersion.version >= 3) {
-      MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-      DataInputStream in =
-          new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))));
-      m_data = new byte[calculateRealSize(f)];
-      in.read(m_data);
-
-      int length = in.read(fileMetadata);
-      if (length < fileMetadata.length) {
-        System.arraycopy(fileMetadata, 0, metadata, 0, metadata.length);
-        for (int i = 0; i < fileMetadata.length; i++) fileMetadata[i] = 0x00;
-      } else {
-        in.read(metadata);
-      }
-
-      in.close();
-      System.arraycopy(messageDigest.digest(m_data), 0, checksum, 0, checksum.length);
-    }
-
-    // Allocate space for data without replay headers
-    m_data = new byte[size];
+    m_file = f;
     m_outgoing = outgoing;
+    m_keys = keys;
+    m_dataSizeEstimate = estimateDataSize(f);
+    m_replayMetadata = replayMetadata;
+    m_fileMetadata = fileMetadata;
+    m_metadata = metadata;
+    m_checksum = checksum;
+
+    // Checksums are only stored since v3
+    m_messageDigest = null;
+    if (replayVersion.version >= 3) m_messageDigest = MessageDigest.getInstance("SHA-256");
+
+    // Skip first login
+    m_disconnectFrom = m_outgoing ? 0 : 1;
+
+    openFile(0, 0);
+    m_fromStart = true;
+    m_hasPreviousRecord = false;
+    m_position = 0;
+    m_keyIndex = -1;
+    m_skew = 0;
+    m_previousTimestamp = 0;
+    m_firstLogin = false;
 
-    // Read replay data
-    DataInputStream in =
-        new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))));
-    int timestamp = 0;
-    int lastTimestamp = timestamp;
-    int offset = 0;
-    int lastOffset = offset;
-    LinkedHashMap<Integer, Integer> timestamps = new LinkedHashMap<Integer, Integer>();
-    while ((timestamp = in.readInt()) != TIMESTAMP_EOF) {
-      timestamps.put(offset, timestamp);
-      int length = in.readInt();
-
-      // Detect extreme disconnects that may be missed
-      // int timestampDiff = timestamp - lastTimestamp;
-      // if (timestampDiff >= 500) {
-      //    m_disconnectOffsets.add(offset);
-      // Logger.Warn("Using potential extreme disconnect point at offset " +
-      // offset);
-      //    Sleep.sleep(10000);
-      // }
-
-      if (length > 0) {
-        in.read(m_data, offset, length);
-        offset += length;
-      }
+    if (!fill(1)) {
+      close();
+      return false;
+    }
+    return true;
+  }
 
-      // We have reached the end of readable data
-      if (offset >= size) break;
+  /**
+   * Restarts decoding from a login.
+   *
+   * <p>The file is inflated again up to the record holding the login. The checksum, metadata and
+   * replay length aren't filled in again.
+   *
+   * @param checkpoint from {@link #getLoginCheckpoint()}, or null to start over
+   * @return false if there is nothing left to decode
+   */
+  public boolean restart(Checkpoint checkpoint) throws IOException {
+    close();
+    m_messageDigest = null;
+    m_fromStart = false;
+    if (checkpoint == null) {
+      openFile(0, 0);
+      m_position = 0;
+      m_keyIndex = -1;
+      m_skew = 0;
+      m_previousTimestamp = 0;
+      m_firstLogin = false;
+    } else {
+      openFile(checkpoint.fileOffset, checkpoint.recordOffset);
+      m_position = checkpoint.position;
+      m_keyIndex = checkpoint.keyIndex;
+      m_skew = checkpoint.skew;
+      m_previousTimestamp = checkpoint.previousTimestamp;
+      m_firstLogin = checkpoint.firstLogin;
+    }
+    m_keepFrom = m_position;
+    return fill(m_position + 1);
+  }
 
-      // Update replay length
-      replayMetadata.replayLength = timestamp;
+  /** @return the state right before the last login decoded, or null if there was none */
+  public Checkpoint getLoginCheckpoint() {
+    return m_loginCheckpoint;
+  }
 
-      lastTimestamp = timestamp;
+  /** Stops reading the file, if it wasn't read to the end. */
+  public void close() {
+    m_fileEnded = true;
+    if (m_in == null) return;
+    try {
+      m_in.close();
+    } catch (IOException e) {
     }
+    m_in = null;
+  }
 
-    in.close();
+  /**
+   * Opens the file for reading from a record.
+   *
+   * @param fileOffset the uncompressed offset of the record header
+   * @param dataOffset the offset of the record's packet data
+   */
+  private void openFile(long fileOffset, int dataOffset) throws IOException {
+    DataInputStream in =
+        new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(new FileInputStream(m_file))));
+    try {
+      long count = fileOffset;
+      while (count > 0) {
+        long skipped = in.skip(count);
+        if (skipped <= 0) throw new EOFException("Unable to skip to " + fileOffset);
+        count -= skipped;
+      }
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
 
+    m_in = in;
+    m_fileOffset = fileOffset;
+    m_fileEnded = false;
+    m_windowStart = dataOffset;
+    m_windowEnd = dataOffset;
+    m_keepFrom = dataOffset;
+    m_recordCount = 0;
+    m_recordCursor = 0;
+    m_timestamp = 0;
     m_loggedIn = false;
-    m_position = 0;
-    m_keys = keys;
-    m_keyIndex = -1;
+    m_forceQuit = false;
+    m_loginCheckpoint = null;
+  }
 
-    // Build disconnect map for in.bin
-    // Our initial recording implementation had problems with this
-    if (!m_outgoing) {
-      // Skip first login
-      m_position = 1;
-      while (!isEOF()) {
-        if (loginBinarySearch()) {
-          m_disconnectOffsets.add(m_position);
-          // Logger.Debug("Disconnect found at offset " + m_position);
-        }
-        skip(1);
-      }
-      m_position = 0;
-    }
+  /**
+   * Reads records until the window holds packet data up to an offset, or the file ends.
+   *
+   * @param end the offset
+   * @return if the window holds it
+   */
+  private boolean fill(int end) {
+    while (m_windowEnd < end && !m_fileEnded) readRecord();
+    return m_windowEnd >= end;
+  }
 
-    // Map timestamps for faster import
-    Iterator<Map.Entry<Integer, Integer>> iterator = timestamps.entrySet().iterator();
-    Map.Entry<Integer, Integer> entry = iterator.next();
-    int timestampOffset = 0;
-    while (!isEOF()) {
-      // Handle disconnect
-      if (m_disconnectOffsets.contains(m_position)) {
-        m_loggedIn = false;
-      } else if (m_disconnectOffsets.contains(m_position + 1)) {
-        m_loggedIn = false;
-        m_position++;
-      } else if (m_disconnectOffsets.contains(m_position + 2)) {
-        m_loggedIn = false;
-        m_position += 2;
+  private void readRecord() {
+    try {
+      m_in.readFully(m_header, 0, 4);
+      if (m_messageDigest != null) m_messageDigest.update(m_header, 0, 4);
+      int timestamp = getInt(m_header, 0);
+      if (timestamp == TIMESTAMP_EOF) {
+        readTrailer();
+        endFile(true);
+        return;
       }
 
-      if (m_loggedIn || m_outgoing) {
-        int length = readPacketLength();
-        skip(length);
-        timestampOffset = m_position - 1;
-      } else {
-        timestampOffset = m_position;
-        skip(1);
-        m_loggedIn = true;
-      }
+      m_in.readFully(m_header, 4, 4);
+      if (m_messageDigest != null) m_messageDigest.update(m_header, 4, 4);
+      int length = getInt(m_header, 4);
+      addRecord(m_windowEnd, timestamp, m_fileOffset);
+      m_fileOffset += 8;
 
-      while (timestampOffset >= entry.getKey()) {
-        timestamp = entry.getValue();
-        if (!iterator.hasNext()) {
-          break;
-        }
-        entry = iterator.next();
+      if (length > 0) {
+        reserve(length);
+        int offset = m_windowEnd - m_windowStart;
+        m_in.readFully(m_window, offset, length);
+        if (m_messageDigest != null) m_messageDigest.update(m_window, offset, length);
+        m_windowEnd += length;
+        m_fileOffset += length;
+
+        // Replay length is the timestamp of the record before the last one holding data
+        if (m_fromStart && m_hasPreviousRecord)
+          m_replayMetadata.replayLength = m_previousRecordTimestamp;
       }
 
-      // Add timestamp to FIFO
-      m_timestamps.add(timestamp);
+      m_previousRecordTimestamp = timestamp;
+      m_hasPreviousRecord = true;
+    } catch (EOFException e) {
+      // Truncated replay, keep the data we have
+      endFile(false);
+    } catch (IOException e) {
+      Logger.Error("Unable to read replay " + m_file.getPath());
+      e.printStackTrace();
+      endFile(false);
     }
-    m_position = 0;
-    m_loggedIn = false;
+  }
 
-    // Build disconnect map for out.bin because we didn't handle it
-    // We detect the login information packet
-    if (outgoing) {
-      while (!isEOF()) {
-        if (binarySearch(m_outputDisconnectPattern)) {
-          m_disconnectOffsets.add(m_position);
-        }
-        skip(1);
-      }
-      m_position = 0;
-    }
+  /** Reads the metadata that follows the EOF marker */
+  private void readTrailer() throws IOException {
+    if (m_messageDigest == null) return;
 
-    return true;
+    int length = readAvailable(m_in, m_fileMetadata);
+    if (length < m_fileMetadata.length) {
+      System.arraycopy(m_fileMetadata, 0, m_metadata, 0, m_metadata.length);
+      for (int i = 0; i < m_fileMetadata.length; i++) m_fileMetadata[i] = 0x00;
+    } else {
+      readAvailable(m_in, m_metadata);
+    }
   }
 
-  private boolean loginBinarySearch() {
-    if (m_data.length - m_position < m_inputDisconnectPattern.length) return false;
+  private void endFile(boolean foundEOF) {
+    if (m_fromStart) {
+      if (!foundEOF) Logger.Warn("Replay file is truncated: " + m_file.getPath());
+      if (m_messageDigest != null)
+        System.arraycopy(m_messageDigest.digest(), 0, m_checksum, 0, m_checksum.length);
+    }
+    m_messageDigest = null;
+    close();
+  }
 
-    for (int i = 0; i < m_inputDisconnectPattern.length; i++) {
-      if (i == 0 || i == 3 || i == 9) continue;
+  /** Reads the rest of the file for its checksum and metadata, without keeping the packet data */
+  private void finish() {
+    m_forceQuit = true;
+    while (!m_fileEnded) {
+      m_keepFrom = m_windowEnd;
+      m_recordCursor = m_recordCount;
+      readRecord();
+    }
+  }
 
-      int offset = m_position + i;
-      int searchValue = m_inputDisconnectPattern[i];
-      if (searchValue == 0x00 && i <= 6) {
-        if (!(m_data[offset] == 0x00 || m_data[offset] == 0x01)) return false;
-      } else {
-        if (m_data[offset] != searchValue) return false;
-      }
+  /** Makes room for more packet data, dropping what was already decoded first */
+  private void reserve(int length) {
+    int used = m_windowEnd - m_windowStart;
+    if (used + length <= m_window.length) return;
+
+    int drop = Math.min(m_keepFrom, m_windowEnd) - m_windowStart;
+    if (drop > 0) {
+      System.arraycopy(m_window, drop, m_window, 0, used - drop);
+      m_windowStart += drop;
+      used -= drop;
+      dropRecords();
     }
-    return true;
+    if (used + length > m_window.length)
+      m_window = Arrays.copyOf(m_window, Math.max(m_window.length * 2, used + length));
+  }
+
+  /** Drops the records before the one holding the last decoded packet */
+  private void dropRecords() {
+    int drop = m_recordCursor - 1;
+    if (drop <= 0) return;
+    int count = m_recordCount - drop;
+    System.arraycopy(m_recordOffsets, drop, m_recordOffsets, 0, count);
+    System.arraycopy(m_recordTimestamps, drop, m_recordTimestamps, 0, count);
+    System.arraycopy(m_recordFileOffsets, drop, m_recordFileOffsets, 0, count);
+    m_recordCount = count;
+    m_recordCursor -= drop;
   }
 
-  private boolean binarySearch(byte[] pattern) {
-    for (int i = 0; i < pattern.length; i++) {
-      int offset = m_position + i;
-      if (offset >= m_data.length || m_data[offset] != pattern[i]) return false;
+  private static BytePattern createInputDisconnectSearch() {
+    BytePattern pattern = new BytePattern(m_inputDisconnectPattern);
+    for (int i = 0; i < m_inputDisconnectPattern.length; i++) {
+      if (i == 0 || i == 3 || i == 9) pattern.any(i);
+      else if (m_inputDisconnectPattern[i] == 0x00 && i <= 6) pattern.allow(i, (byte) 0x01);
     }
-    return true;
+    return pattern;
+  }
+
+  private boolean isDisconnectOffset(int offset) {
+    if (offset < m_disconnectFrom) return false;
+    BytePattern pattern = m_outgoing ? m_outputDisconnectSearch : m_inputDisconnectSearch;
+    fill(offset + pattern.length());
+    return pattern.matches(m_window, offset - m_windowStart, m_windowEnd - m_windowStart);
   }
 
   private boolean verifyLogin() {
     boolean success = true;
     int originalPosition = m_position;
-    ReplayPacket packet;
-    packet = readPacket(true);
-    if (packet == null || packet.opcode != PacketBuilder.OPCODE_PRIVACY_SETTINGS) success = false;
-    packet = readPacket(true);
-    if (packet == null
-        || (packet.opcode != PacketBuilder.OPCODE_SEND_MESSAGE
-            && packet.opcode != PacketBuilder.OPCODE_SHOW_APPEARANCE_CHANGE)) success = false;
+    m_isaacLogin.copyFrom(isaac);
+    if (!decodePacket(m_peekPacket, true)
+        || m_peekPacket.opcode != PacketBuilder.OPCODE_PRIVACY_SETTINGS) success = false;
+    if (!decodePacket(m_peekPacket, true)
+        || (m_peekPacket.opcode != PacketBuilder.OPCODE_SEND_MESSAGE
+            && m_peekPacket.opcode != PacketBuilder.OPCODE_SHOW_APPEARANCE_CHANGE)) success = false;
     m_position = originalPosition;
-    isaac.reset();
-    isaac.setKeys(m_keys.get(m_keyIndex).keys);
+    isaac.copyFrom(m_isaacLogin);
     return success;
   }
 
   public ReplayPacket readPacket(boolean peek) {
-    if (isEOF() || m_forceQuit) return null;
+    ReplayPacketView packet = peek ? m_peekPacket : m_packet;
+    if (!decodePacket(packet, peek)) return null;
+    return packet.toReplayPacket();
+  }
 
-    int packetTimestamp;
-    if (peek) packetTimestamp = 0; // m_timestamps.peek();
-    else packetTimestamp = m_timestamps.poll();
+  /**
+   * Decodes the next packet without allocating, its payload is in a buffer owned by this reader
+   * and is only valid until the next packet is read.
+   *
+   * @param packet the view to fill
+   * @return false at the end of the replay, or if the rest of it can't be decoded
+   */
+  public boolean readPacket(ReplayPacketView packet) {
+    if (decodePacket(packet, false)) return true;
+    finish();
+    return false;
+  }
+
+  private boolean decodePacket(ReplayPacketView packet, boolean peek) {
+    if (isEOF() || m_forceQuit) return false;
+    if (!peek) m_keepFrom = m_position;
 
     // Check for disconnect for outgoing (workaround)
     if (m_outgoing) {
       int oldPosition = m_position;
       readPacketLength();
-      if (m_disconnectOffsets.contains(m_position)) m_loggedIn = false;
+      if (isDisconnectOffset(m_position)) m_loggedIn = false;
       m_position = oldPosition;
     } else if (!peek) {
       // Logger.Debug("Checking disconnect at " + m_position);
       // Handle disconnect
-      if (m_disconnectOffsets.contains(m_position)) {
+      if (isDisconnectOffset(m_position)) {
         m_loggedIn = false;
-      } else if (m_disconnectOffsets.contains(m_position + 1)) {
+      } else if (isDisconnectOffset(m_position + 1)) {
         // This is safe because no packet can ever be 1 byte long
         m_loggedIn = false;
         m_position++;
-      } else if (m_disconnectOffsets.contains(m_position + 2)) {
+      } else if (isDisconnectOffset(m_position + 2)) {
         // This is unsafe because a 1 byte packet can be skipped, but since we are disconnecting
         // it may not matter much anyway since the packet is likely fragmented from the way
         // the server sends packets.
@@ -294,42 +481,33 @@ public class ReplayReader {
       }
     }
 
+    // The packet gets the timestamp of the record holding its last byte, or its only one for logins
+    int packetStart = m_position;
+    int packetTimestamp = 0;
+
     try {
-      ReplayPacket replayPacket = new ReplayPacket();
+      packet.skipKeys = 0;
       if (!m_loggedIn) {
+        if (!peek) m_loginCheckpoint = createCheckpoint();
         if (m_outgoing) {
-          int length = readPacketLength();
-          if (length > 1) {
-            int dataLength = length - 1;
-            replayPacket.data = new byte[dataLength];
-            if (length < 160) {
-              replayPacket.data[dataLength - 1] = readByte();
-              replayPacket.opcode = readUnsignedByte();
-              if (dataLength > 1) read(replayPacket.data, 0, dataLength - 1);
-            } else {
-              replayPacket.opcode = readUnsignedByte();
-              read(replayPacket.data, 0, dataLength);
-            }
-          } else {
-            replayPacket.data = null;
-            replayPacket.opcode = readUnsignedByte();
-          }
-          replayPacket.timestamp = packetTimestamp;
+          readPacketData(packet);
+          if (!peek) packetTimestamp = timestampAt(m_position - 1);
+          packet.timestamp = packetTimestamp;
 
-          if (replayPacket.opcode != 0) {
-            Logger.Error("Invalid outgoing login packet: " + replayPacket.opcode);
-            return null;
+          if (packet.opcode != 0) {
+            Logger.Error("Invalid outgoing login packet: " + packet.opcode);
+            return false;
           }
 
           // Set isaac keys
-          isaac.reset();
-          isaac.setKeys(m_keys.get(++m_keyIndex).keys);
+          isaac.seed(m_keys.get(++m_keyIndex).keys);
 
-          replayPacket.opcode = ReplayEditor.VIRTUAL_OPCODE_CONNECT;
+          packet.opcode = ReplayEditor.VIRTUAL_OPCODE_CONNECT;
 
           m_loggedIn = true;
         } else {
           // Handle login response
+          if (!peek) packetTimestamp = skew(timestampAt(packetStart), true);
           int loginResponse = readUnsignedByte();
           int skipKeys = 0;
           if ((loginResponse & 64) != 0) {
@@ -339,10 +517,9 @@ public class ReplayReader {
               m_keyIndex++;
               if (m_keyIndex >= m_keys.size()) {
                 Logger.Error("Replay is trying to use non-existing keys");
-                return null;
+                return false;
               }
-              isaac.reset();
-              isaac.setKeys(m_keys.get(m_keyIndex).keys);
+              isaac.seed(m_keys.get(m_keyIndex).keys);
               m_loggedIn = true;
 
               boolean success = verifyLogin();
@@ -356,56 +533,156 @@ public class ReplayReader {
           if (skipKeys > 0) Logger.Warn("Skipping " + skipKeys + " keys");
 
           // Create virtual connect packet
-          replayPacket.opcode = ReplayEditor.VIRTUAL_OPCODE_CONNECT;
-          replayPacket.data = new byte[1];
-          replayPacket.data[0] = (byte) loginResponse;
+          packet.opcode = ReplayEditor.VIRTUAL_OPCODE_CONNECT;
+          m_packetData[0] = (byte) loginResponse;
+          packet.data = m_packetData;
+          packet.offset = 0;
+          packet.length = 1;
 
           // Set timestamp
-          replayPacket.timestamp = packetTimestamp;
-          replayPacket.skipKeys = skipKeys;
+          packet.timestamp = packetTimestamp;
+          packet.skipKeys = skipKeys;
         }
       } else {
         try {
-          int length = readPacketLength();
-          if (length > 1) {
-            int dataLength = length - 1;
-            replayPacket.data = new byte[dataLength];
-            if (length < 160) {
-              replayPacket.data[dataLength - 1] = readByte();
-              replayPacket.opcode = readUnsignedByte();
-              if (dataLength > 1) read(replayPacket.data, 0, dataLength - 1);
-            } else {
-              replayPacket.opcode = readUnsignedByte();
-              read(replayPacket.data, 0, dataLength);
-            }
-          } else {
-            replayPacket.data = null;
-            replayPacket.opcode = readUnsignedByte();
-          }
-
-          replayPacket.opcode = (replayPacket.opcode - isaac.getNextValue()) & 0xFF;
-          replayPacket.timestamp = packetTimestamp;
-          replayPacket.skipKeys = 0;
+          readPacketData(packet);
+          packet.opcode = (packet.opcode - isaac.getNextValue()) & 0xFF;
+          if (!peek) packetTimestamp = timestampAt(m_position - 1);
+          if (!peek && !m_outgoing) packetTimestamp = skew(packetTimestamp, false);
+          packet.timestamp = packetTimestamp;
         } catch (Exception e) {
           Logger.Warn("Invalid packet found, trimming replay");
-          return null;
+          return false;
         }
       }
-      return replayPacket;
+      return true;
     } catch (Exception e) {
       e.printStackTrace();
-      return null;
+      return false;
+    }
+  }
+
+  /** @return the state to restart from the packet at the read position, or null */
+  private Checkpoint createCheckpoint() {
+    if (!fill(m_position + 1)) return null;
+
+    // The record holding the read position, the ones before the last decoded packet are dropped
+    int record = Math.max(m_recordCursor - 1, 0);
+    while (record + 1 < m_recordCount && m_recordOffsets[record + 1] <= m_position) record++;
+    if (record >= m_recordCount || m_recordOffsets[record] > m_position) return null;
+
+    return new Checkpoint(
+        m_recordFileOffsets[record],
+        m_recordOffsets[record],
+        m_position,
+        m_keyIndex,
+        m_skew,
+        m_previousTimestamp,
+        m_firstLogin);
+  }
+
+  private void addRecord(int offset, int timestamp, long fileOffset) {
+    // Records without packet data share their offset with the next one, the last of them counts
+    if (m_recordCount > 0 && m_recordOffsets[m_recordCount - 1] == offset) {
+      m_recordTimestamps[m_recordCount - 1] = timestamp;
+      m_recordFileOffsets[m_recordCount - 1] = fileOffset;
+      return;
     }
+    if (m_recordCount == m_recordOffsets.length) {
+      m_recordOffsets = Arrays.copyOf(m_recordOffsets, m_recordCount * 2);
+      m_recordTimestamps = Arrays.copyOf(m_recordTimestamps, m_recordCount * 2);
+      m_recordFileOffsets = Arrays.copyOf(m_recordFileOffsets, m_recordCount * 2);
+    }
+    m_recordOffsets[m_recordCount] = offset;
+    m_recordTimestamps[m_recordCount] = timestamp;
+    m_recordFileOffsets[m_recordCount] = fileOffset;
+    m_recordCount++;
+  }
+
+  /** @return the timestamp of the record holding an offset, offsets must be ascending */
+  private int timestampAt(int offset) {
+    while (m_recordCursor < m_recordCount && m_recordOffsets[m_recordCursor] <= offset)
+      m_timestamp = m_recordTimestamps[m_recordCursor++];
+    return m_timestamp;
+  }
+
+  /** Pushes back logins less than 400 frames after the previous one, so they're seen as such */
+  private int skew(int timestamp, boolean login) {
+    timestamp += m_skew;
+    if (login) {
+      if (m_firstLogin) {
+        int timestampDiff = timestamp - m_previousTimestamp;
+        if (timestampDiff <= 400) {
+          int offset = 401 - timestampDiff;
+          m_skew += offset;
+          timestamp += offset;
+          System.out.println(
+              "WARNING: Skewing timestamps by +"
+                  + offset
+                  + " ("
+                  + (timestamp - offset)
+                  + ":"
+                  + timestamp
+                  + ")");
+        }
+      }
+      m_firstLogin = true;
+    }
+    m_previousTimestamp = timestamp;
+    return timestamp;
+  }
+
+  /** Reads the opcode and payload of a packet, undoing the reordering of short packets */
+  private void readPacketData(ReplayPacketView packet) {
+    int length = readPacketLength();
+    packet.offset = 0;
+    if (length > 1) {
+      int dataLength = length - 1;
+      if (m_packetData.length < dataLength)
+        m_packetData = new byte[Math.max(dataLength, m_packetData.length * 2)];
+      if (length < 160) {
+        m_packetData[dataLength - 1] = readByte();
+        packet.opcode = readUnsignedByte();
+        if (dataLength > 1) read(m_packetData, 0, dataLength - 1);
+      } else {
+        packet.opcode = readUnsignedByte();
+        read(m_packetData, 0, dataLength);
+      }
+      packet.data = m_packetData;
+      packet.length = dataLength;
+    } else {
+      packet.data = null;
+      packet.length = -1;
+      packet.opcode = readUnsignedByte();
+    }
+  }
+
+  /**
+   * Reads every remaining packet into a store.
+   *
+   * @param store the store to append to
+   * @return the number of packets read
+   */
+  public int readPackets(ReplayPacketStore store) {
+    int count = 0;
+    ReplayPacketView packet = m_packet;
+    while (readPacket(packet)) {
+      store.add(packet.timestamp, packet.opcode, packet.data, packet.offset, packet.length);
+      count++;
+    }
+    return count;
   }
 
   private boolean isEOF() {
-    return (m_position >= m_data.length);
+    return m_position >= m_windowEnd && !fill(m_position + 1);
   }
 
   private void read(byte[] data, int offset, int length) {
-    int maxLength = Math.min(m_data.length - m_position, length);
-    if (maxLength != length) Logger.Warn("Copy is out of bounds");
-    System.arraycopy(m_data, m_position, data, offset, length);
+    if (!fill(m_position + length)) {
+      Logger.Warn("Copy is out of bounds");
+      throw new ArrayIndexOutOfBoundsException(m_position + length);
+    }
+    System.arraycopy(m_window, m_position - m_windowStart, data, offset, length);
     m_position += length;
   }
 
@@ -414,7 +691,9 @@ public class ReplayReader {
   }
 
   private byte readByte() {
-    return m_data[m_position++];
+    if (m_position >= m_windowEnd && !fill(m_position + 1))
+      throw new ArrayIndexOutOfBoundsException(m_position);
+    return m_window[m_position++ - m_windowStart];
   }
 
   private int readUnsignedByte() {
@@ -427,41 +706,28 @@ public class ReplayReader {
     return length;
   }
 
-  private int calculateRealSize(File f) {
-    int size = 0;
-    try {
-      DataInputStream in =
-          new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))));
-      while (in.readInt() != TIMESTAMP_EOF) {
-        int length = in.readInt();
-        if (length > 0) {
-          size += length;
-          in.skipBytes(length);
-        }
-        size += 8;
-      }
-      in.close();
-    } catch (Exception e) {
-    }
-    size += 4;
-    return size;
+  private static int getInt(byte[] data, int offset) {
+    return ((data[offset] & 0xFF) << 24)
+        | ((data[offset + 1] & 0xFF) << 16)
+        | ((data[offset + 2] & 0xFF) << 8)
+        | (data[offset + 3] & 0xFF);
   }
 
-  private int calculateSize(File f) {
-    int size = 0;
-    try {
-      DataInputStream in =
-          new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))));
-      while (in.readInt() != TIMESTAMP_EOF) {
-        int length = in.readInt();
-        if (length > 0) {
-          size += length;
-          in.skipBytes(length);
-        }
-      }
-      in.close();
-    } catch (Exception e) {
+  private static int readAvailable(DataInputStream in, byte[] data) throws IOException {
+    int offset = 0;
+    while (offset < data.length) {
+      int length = in.read(data, offset, data.length - offset);
+      if (length == -1) break;
+      offset += length;
     }
-    return size;
+    return offset;
+  }
+
+  private static int estimateDataSize(File f) {
+    // The gzip trailer gives us the decompressed size, but it can't be trusted on broken files
+    long compressedSize = f.length();
+    long size = FileUtil.readGZIPSize(f);
+    if (size < compressedSize || size > compressedSize * 32) size = compressedSize * 4;
+    return (int) Math.max(Math.min(size, Integer.MAX_VALUE - 8), 4096);
   }
 }
@@ -0,0 +1,167 @@
+package Client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares output size and CPU time of the recording flush policies on a real in.bin.gz.
+ *
+ * <p>Usage: ant benchmark -Dbenchmark=Client.FlushableGZIPOutputStreamBenchmark
+ * -Dbenchmark.args=path/to/in.bin.gz
+ */
+public class FlushableGZIPOutputStreamBenchmark {
+	private static final int WARMUP = 2;
+	private static final int ITERATIONS = 5;
+
+	// Timestamps are frames at 50 fps, so this is the replay writer's default of 250 ms
+	private static final int FLUSH_INTERVAL_FRAMES = 13;
+
+	private static final int MODE_NO_FLUSH = 0;
+	private static final int MODE_LEGACY = 1;
+	private static final int MODE_FLUSH_EVERY_PACKET = 2;
+	private static final int MODE_FLUSH_INTERVAL = 3;
+	private static final String[] MODE_NAMES = {
+		"no flush", "sync every deflate (old)", "sync every packet", "sync every 250 ms"
+	};
+
+	/** The old behaviour, SYNC_FLUSH on every deflate call */
+	private static class LegacyGZIPOutputStream extends GZIPOutputStream {
+		LegacyGZIPOutputStream(OutputStream out) throws IOException {
+			super(out);
+		}
+
+		@Override
+		protected void deflate() throws IOException {
+			int len = def.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+			if (len > 0) out.write(buf, 0, len);
+		}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		long count = 0;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	private static class Record {
+		int timestamp;
+		byte[] data;
+	}
+
+	public static void main(String[] args) throws IOException {
+		List<Record> records;
+		if (args.length > 0) {
+			records = readRecords(new File(args[0]));
+		} else {
+			System.out.println("No in.bin.gz given, using generated data");
+			records = generateRecords();
+		}
+		System.out.println(String.format("%d records", records.size()));
+
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		for (int mode = 0; mode < MODE_NAMES.length; mode++) {
+			long size = 0;
+			long bestCpu = Long.MAX_VALUE;
+			for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+				long start = bean.getCurrentThreadCpuTime();
+				size = write(records, mode);
+				long cpu = bean.getCurrentThreadCpuTime() - start;
+				if (i >= WARMUP) bestCpu = Math.min(bestCpu, cpu);
+			}
+			System.out.println(
+					String.format(
+							"%-26s %10d bytes %8.2f ms cpu", MODE_NAMES[mode], size, bestCpu / 1000000.0));
+		}
+	}
+
+	private static long write(List<Record> records, int mode) throws IOException {
+		CountingOutputStream counter = new CountingOutputStream();
+		GZIPOutputStream gzip;
+		if (mode == MODE_LEGACY) gzip = new LegacyGZIPOutputStream(counter);
+		else gzip = new FlushableGZIPOutputStream(counter);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip));
+
+		int lastFlush = 0;
+		for (Record record : records) {
+			out.writeInt(record.timestamp);
+			out.writeInt(record.data.length);
+			out.write(record.data);
+
+			if (mode == MODE_LEGACY || mode == MODE_FLUSH_EVERY_PACKET) {
+				out.flush();
+			} else if (mode == MODE_FLUSH_INTERVAL
+					&& record.timestamp - lastFlush >= FLUSH_INTERVAL_FRAMES) {
+				out.flush();
+				lastFlush = record.timestamp;
+			}
+		}
+		out.close();
+		return counter.count;
+	}
+
+	private static List<Record> readRecords(File file) throws IOException {
+		List<Record> records = new ArrayList<Record>();
+		DataInputStream in =
+				new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+		try {
+			for (; ; ) {
+				Record record = new Record();
+				record.timestamp = in.readInt();
+				if (record.timestamp == -1) break;
+				int length = in.readInt();
+				record.data = new byte[Math.max(length, 0)];
+				in.readFully(record.data);
+				records.add(record);
+			}
+		} catch (EOFException e) {
+			// Older replays don't have an EOF marker
+		} finally {
+			in.close();
+		}
+		return records;
+	}
+
+	private static List<Record> generateRecords() {
+		List<Record> records = new ArrayList<Record>();
+		Random random = new Random(0);
+		byte[][] templates = new byte[32][];
+		for (int i = 0; i < templates.length; i++) {
+			templates[i] = new byte[2 + random.nextInt(120)];
+			random.nextBytes(templates[i]);
+		}
+
+		int timestamp = 0;
+		for (int i = 0; i < 100000; i++) {
+			timestamp += random.nextInt(4);
+			Record record = new Record();
+			record.timestamp = timestamp;
+			record.data = templates[random.nextInt(templates.length)].clone();
+			record.data[0] = (byte) random.nextInt();
+			records.add(record);
+		}
+		return records;
+	}
+}
@@ -0,0 +1,55 @@
+package Client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JClassCacheTest {
+	private File m_file;
+
+	@Before
+	public void setUp() throws IOException {
+		m_file = File.createTempFile("classes", ".zip");
+		m_file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		m_file.delete();
+	}
+
+	@Test
+	public void testLoadSavedClasses() throws IOException {
+		Map<String, byte[]> classes = new HashMap<>();
+		classes.put("client", new byte[] { (byte) 0xCA, (byte) 0xFE, 1, 2, 3 });
+		classes.put("ua", new byte[1000]);
+		classes.put("empty", new byte[0]);
+
+		assertNull(new JClassCache(m_file, "key").load());
+		new JClassCache(m_file, "key").save(classes);
+
+		Map<String, byte[]> loaded = new JClassCache(m_file, "key").load();
+		assertEquals(classes.keySet(), loaded.keySet());
+		for (String name : classes.keySet()) assertArrayEquals(classes.get(name), loaded.get(name));
+	}
+
+	@Test
+	public void testOtherKeyIsStale() throws IOException {
+		Map<String, byte[]> classes = new HashMap<>();
+		classes.put("client", new byte[] { 1 });
+		new JClassCache(m_file, "old").save(classes);
+		assertNull(new JClassCache(m_file, "new").load());
+
+		// Saving again replaces it
+		new JClassCache(m_file, "new").save(classes);
+		assertEquals(1, new JClassCache(m_file, "new").load().size());
+		assertNull(new JClassCache(m_file, "old").load());
+	}
+}
@@ -0,0 +1,108 @@
+package Game;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Compares CPU time of reflective field reads and method calls against the same calls through
+ * static final method handles, the way {@link Reflection.Handles} makes them.
+ *
+ * <p>Usage: ant benchmark -Dbenchmark=Game.ReflectionBenchmark
+ */
+public class ReflectionBenchmark {
+	private static final int WARMUP = 3;
+	private static final int ITERATIONS = 5;
+	private static final int CALLS = 10000000;
+
+	/** Stands in for one of the game's classes */
+	private static class Target {
+		private int x = 3;
+		private int sum = 0;
+
+		private void draw(String s, int a, int b, int c, boolean flag) {
+			sum += a + b + c + (flag ? s.length() : 0);
+		}
+	}
+
+	private static final Field FIELD;
+	private static final Method METHOD;
+	private static final MethodHandle GETTER;
+	private static final MethodHandle INVOKER;
+
+	static {
+		try {
+			FIELD = Target.class.getDeclaredField("x");
+			FIELD.setAccessible(true);
+			METHOD =
+					Target.class.getDeclaredMethod(
+							"draw", String.class, int.class, int.class, int.class, boolean.class);
+			METHOD.setAccessible(true);
+			// Erased to Object receivers, like the game's handles
+			GETTER =
+					MethodHandles.lookup()
+							.unreflectGetter(FIELD)
+							.asType(MethodType.methodType(int.class, Object.class));
+			INVOKER =
+					MethodHandles.lookup()
+							.unreflect(METHOD)
+							.asType(
+									MethodType.methodType(
+											void.class,
+											Object.class,
+											String.class,
+											int.class,
+											int.class,
+											int.class,
+											boolean.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static final String[] MODE_NAMES = {
+		"Field.getInt", "Method.invoke", "getter invokeExact", "method invokeExact"
+	};
+
+	public static void main(String[] args) throws Throwable {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Object target = new Target();
+		long sink = 0;
+		for (int mode = 0; mode < MODE_NAMES.length; mode++) {
+			long bestCpu = Long.MAX_VALUE;
+			for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+				long start = bean.getCurrentThreadCpuTime();
+				sink += run(mode, target);
+				long cpu = bean.getCurrentThreadCpuTime() - start;
+				if (i >= WARMUP) bestCpu = Math.min(bestCpu, cpu);
+			}
+			System.out.println(
+					String.format(
+							"%-20s %8.2f ns/call", MODE_NAMES[mode], (double) bestCpu / CALLS));
+		}
+		System.out.println("(" + sink + ")");
+	}
+
+	private static long run(int mode, Object target) throws Throwable {
+		long sum = 0;
+		switch (mode) {
+			case 0:
+				for (int i = 0; i < CALLS; i++) sum += FIELD.getInt(target);
+				break;
+			case 1:
+				for (int i = 0; i < CALLS; i++) METHOD.invoke(target, "Fps: ", i, 2, 3, true);
+				break;
+			case 2:
+				for (int i = 0; i < CALLS; i++) sum += (int) GETTER.invokeExact(target);
+				break;
+			case 3:
+				for (int i = 0; i < CALLS; i++) INVOKER.invokeExact(target, "Fps: ", i, 2, 3, true);
+				break;
+		}
+		return sum + ((Target) target).sum;
+	}
+}
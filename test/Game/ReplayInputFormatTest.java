@@ -0,0 +1,127 @@
+package Game;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.awt.event.KeyEvent;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+
+public class ReplayInputFormatTest {
+
+	@Test
+	public void testMouseRoundTrip() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(ReplayInputFormat.MAGIC);
+		ReplayInputFormat.Encoder encoder = new ReplayInputFormat.Encoder();
+
+		Random random = new Random(1);
+		int[][] events = new int[2000][];
+		int timestamp = 0;
+		for (int i = 0; i < events.length; i++) {
+			timestamp += random.nextInt(3);
+			boolean wheel = random.nextInt(10) == 0;
+			events[i] = new int[] {
+				timestamp,
+				random.nextInt(8),
+				random.nextInt(1024) - 100,
+				random.nextInt(768) - 100,
+				wheel ? random.nextInt(7) - 3 : 0,
+				random.nextInt(20) == 0 ? random.nextInt() : 0,
+				random.nextInt(3),
+				wheel ? 1 : 0,
+				wheel ? 3 : 0,
+				random.nextInt(2),
+				random.nextInt(4)
+			};
+			int[] e = events[i];
+			int length = encoder.encodeMouse(
+					e[0], (byte) e[1], e[2], e[3], e[4], e[5], e[6], e[7], e[8], e[9] == 1, e[10]);
+			out.write(encoder.getBuffer(), 0, length);
+		}
+		out.write(ReplayInputFormat.END);
+
+		ReplayInputFormat.Decoder decoder = new ReplayInputFormat.Decoder(
+				new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(ReplayInputFormat.VERSION, decoder.getVersion());
+		for (int[] e : events) {
+			assertTrue(decoder.next());
+			decoder.readMouse();
+			assertEquals(e[0], decoder.timestamp);
+			assertEquals(e[1], decoder.event);
+			assertEquals(e[2], decoder.x);
+			assertEquals(e[3], decoder.y);
+			assertEquals(e[4], decoder.rotation);
+			assertEquals(e[5], decoder.modifier);
+			assertEquals(e[6], decoder.clickCount);
+			assertEquals(e[7], decoder.scrollType);
+			assertEquals(e[8], decoder.scrollAmount);
+			assertEquals(e[9] == 1, decoder.popupTrigger);
+			assertEquals(e[10], decoder.button);
+		}
+		assertFalse(decoder.next());
+	}
+
+	@Test
+	public void testKeyboardRoundTrip() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(ReplayInputFormat.MAGIC);
+		ReplayInputFormat.Encoder encoder = new ReplayInputFormat.Encoder();
+
+		int length = encoder.encodeKeyboard(10, Replay.KEYBOARD_PRESSED, 'a', 65, 0);
+		out.write(encoder.getBuffer(), 0, length);
+		length = encoder.encodeKeyboard(12, Replay.KEYBOARD_RELEASED, KeyEvent.CHAR_UNDEFINED, 16, 1);
+		out.write(encoder.getBuffer(), 0, length);
+		out.write(ReplayInputFormat.END);
+
+		ReplayInputFormat.Decoder decoder = new ReplayInputFormat.Decoder(
+				new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertTrue(decoder.next());
+		decoder.readKeyboard();
+		assertEquals(10, decoder.timestamp);
+		assertEquals(Replay.KEYBOARD_PRESSED, decoder.event);
+		assertEquals('a', decoder.keychar);
+		assertEquals(65, decoder.keycode);
+		assertEquals(0, decoder.modifier);
+		assertTrue(decoder.next());
+		decoder.readKeyboard();
+		assertEquals(12, decoder.timestamp);
+		assertEquals(Replay.KEYBOARD_RELEASED, decoder.event);
+		assertEquals(KeyEvent.CHAR_UNDEFINED, decoder.keychar);
+		assertEquals(16, decoder.keycode);
+		assertEquals(1, decoder.modifier);
+		assertFalse(decoder.next());
+	}
+
+	@Test
+	public void testReadsOriginalFormat() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(5);
+		out.writeByte(Replay.KEYBOARD_TYPED);
+		out.writeChar('x');
+		out.writeInt(88);
+		out.writeInt(2);
+		out.writeInt(Replay.TIMESTAMP_EOF);
+
+		ReplayInputFormat.Decoder decoder = new ReplayInputFormat.Decoder(
+				new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(0, decoder.getVersion());
+		assertTrue(decoder.next());
+		decoder.readKeyboard();
+		assertEquals(5, decoder.timestamp);
+		assertEquals(Replay.KEYBOARD_TYPED, decoder.event);
+		assertEquals('x', decoder.keychar);
+		assertEquals(88, decoder.keycode);
+		assertEquals(2, decoder.modifier);
+		assertFalse(decoder.next());
+	}
+
+}
@@ -0,0 +1,82 @@
+package Game;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+
+public class ReplayPrefetcherTest {
+	private static final int RECORDS = 5000;
+
+	private File writeReplay(Random random, boolean endMarker) throws IOException {
+		File file = File.createTempFile("replay", ".bin.gz");
+		file.deleteOnExit();
+		DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(file)));
+		for (int i = 0; i < RECORDS; i++) {
+			out.writeInt(i);
+			if (i % 1000 == 999) {
+				out.writeInt(-1);
+				continue;
+			}
+			byte[] data = new byte[random.nextInt(600)];
+			random.nextBytes(data);
+			out.writeInt(data.length);
+			out.write(data);
+		}
+		if (endMarker) out.writeInt(Replay.TIMESTAMP_EOF);
+		out.close();
+		return file;
+	}
+
+	private void checkRecords(File file, long skip, int first, int depth) throws IOException {
+		Random random = new Random(0);
+		ReplayPrefetcher prefetcher = new ReplayPrefetcher(file, skip, depth);
+		prefetcher.start();
+		for (int i = 0; i < RECORDS; i++) {
+			byte[] data = null;
+			if (i % 1000 != 999) {
+				data = new byte[random.nextInt(600)];
+				random.nextBytes(data);
+			}
+			if (i < first) continue;
+
+			ReplayPrefetcher.Record record = prefetcher.next();
+			assertEquals(i, record.timestamp);
+			if (data == null) {
+				assertEquals(-1, record.length);
+			} else {
+				assertEquals(data.length, record.length);
+				assertArrayEquals(data, Arrays.copyOf(record.data, record.length));
+			}
+		}
+		assertNull(prefetcher.next());
+		assertNull(prefetcher.next());
+	}
+
+	@Test
+	public void testReadsEveryRecord() throws IOException {
+		File file = writeReplay(new Random(0), true);
+		checkRecords(file, 0, 0, ReplayPrefetcher.DEFAULT_DEPTH);
+		checkRecords(file, 0, 0, 1);
+	}
+
+	@Test
+	public void testEndsWithoutMarker() throws IOException {
+		checkRecords(writeReplay(new Random(0), false), 0, 0, 4);
+	}
+
+	@Test
+	public void testSkipsToKeyframe() throws IOException {
+		// The first record is its timestamp, length and data
+		Random random = new Random(0);
+		int size = random.nextInt(600);
+		checkRecords(writeReplay(new Random(0), true), 8 + size, 1, 16);
+	}
+}
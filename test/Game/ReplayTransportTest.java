@@ -0,0 +1,72 @@
+package Game;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Random;
+import org.junit.Test;
+
+public class ReplayTransportTest {
+
+	@Test
+	public void testAcceptTimesOut() throws InterruptedException {
+		ReplayTransport transport = new ReplayTransport();
+		assertNull(transport.accept(1000000));
+	}
+
+	@Test
+	public void testDataArrivesInOrderThroughASmallBuffer() throws Exception {
+		ReplayTransport transport = new ReplayTransport(64);
+		Socket socket = transport.connect();
+		final ReplayTransport.Connection connection = transport.accept(1000000);
+
+		final byte[] data = new byte[100000];
+		new Random(0).nextBytes(data);
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int off = 0; off < data.length; off += 1000)
+						connection.write(ByteBuffer.wrap(data, off, Math.min(1000, data.length - off)));
+					connection.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		writer.start();
+
+		byte[] received = new byte[data.length];
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		in.readFully(received);
+		assertArrayEquals(data, received);
+		assertEquals(-1, in.read());
+		writer.join();
+	}
+
+	@Test
+	public void testWriteFailsOnceTheClientCloses() throws Exception {
+		ReplayTransport transport = new ReplayTransport();
+		Socket socket = transport.connect();
+		ReplayTransport.Connection connection = transport.accept(1000000);
+
+		connection.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+		InputStream in = socket.getInputStream();
+		assertEquals(3, in.available());
+		assertEquals(1, in.read());
+		socket.close();
+
+		try {
+			connection.write(ByteBuffer.wrap(new byte[] {4}));
+			fail("Write after the client closed should fail");
+		} catch (ClosedChannelException e) {
+		}
+	}
+}
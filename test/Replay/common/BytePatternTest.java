@@ -0,0 +1,39 @@
+package Replay.common;
+
+import static org.junit.Assert.assertEquals;
+import java.util.Random;
+import org.junit.Test;
+
+public class BytePatternTest {
+	
+	@Test
+	public void testIndexOfMatchesNaiveSearch() {
+		byte[] bytes = { 0x05, 0x00, 0x01, 0x00, 0x02 };
+		BytePattern pattern = new BytePattern(bytes).any(2).allow(1, (byte) 0x01);
+		
+		Random random = new Random(1);
+		byte[] data = new byte[20000];
+		for (int i = 0; i < data.length; i++) data[i] = (byte) random.nextInt(6);
+		
+		int offset = 0;
+		for (int i = 0; i < data.length; i++) {
+			if (pattern.matches(data, i, data.length)) {
+				assertEquals(i, pattern.indexOf(data, offset, data.length));
+				offset = i + 1;
+			}
+		}
+		assertEquals(-1, pattern.indexOf(data, offset, data.length));
+	}
+	
+	@Test
+	public void testMatchMustFitInData() {
+		byte[] bytes = { 0x01, 0x02, 0x03 };
+		BytePattern pattern = new BytePattern(bytes);
+		byte[] data = { 0x00, 0x01, 0x02, 0x03, 0x01, 0x02 };
+		
+		assertEquals(1, pattern.indexOf(data, 0, data.length));
+		assertEquals(-1, pattern.indexOf(data, 2, data.length));
+		assertEquals(-1, pattern.indexOf(data, 0, 3));
+	}
+	
+}
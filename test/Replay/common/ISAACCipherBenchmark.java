@@ -0,0 +1,121 @@
+package Replay.common;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/**
+ * Compares ways of driving the cipher the way replay decoding does: one value per packet, seeding
+ * on every login, and going back to a login after checking the packets that follow it.
+ *
+ * <p>Usage: ant benchmark -Dbenchmark=Replay.common.ISAACCipherBenchmark [-Dbenchmark.args=packets]
+ */
+public class ISAACCipherBenchmark {
+	private static final int WARMUP = 3;
+	private static final int ITERATIONS = 5;
+
+	// Roughly a long replay, and how many packets are peeked after each login
+	private static final int DEFAULT_PACKETS = 5000000;
+	private static final int LOGINS = 2000;
+	private static final int PEEKED_PACKETS = 2;
+
+	private interface Workload {
+		int run(ISAACCipher cipher, int packets);
+	}
+
+	// Keeps the JIT from dropping the work
+	private static int s_sink;
+
+	public static void main(String[] args) {
+		int packets = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PACKETS;
+		final int[][] keys = new int[LOGINS][4];
+		Random random = new Random(0);
+		for (int[] key : keys) for (int i = 0; i < key.length; i++) key[i] = random.nextInt();
+		System.out.println(String.format("%d packets, %d logins", packets, LOGINS));
+
+		run("values, one at a time", packets, new Workload() {
+			public int run(ISAACCipher cipher, int count) {
+				cipher.seed(keys[0]);
+				int sum = 0;
+				for (int i = 0; i < count; i++) sum += cipher.getNextValue();
+				return sum;
+			}
+		});
+		run("values, in bulk", packets, new Workload() {
+			public int run(ISAACCipher cipher, int count) {
+				cipher.seed(keys[0]);
+				int[] values = new int[ISAACCipher.SIZE];
+				int sum = 0;
+				for (int i = 0; i < count; i += values.length) {
+					int length = Math.min(values.length, count - i);
+					cipher.getNextValues(values, 0, length);
+					for (int j = 0; j < length; j++) sum += values[j];
+				}
+				return sum;
+			}
+		});
+		run("login, reset and set keys", packets, new Workload() {
+			public int run(ISAACCipher cipher, int count) {
+				return decode(cipher, null, keys, count, false);
+			}
+		});
+		run("login, seed", packets, new Workload() {
+			public int run(ISAACCipher cipher, int count) {
+				return decode(cipher, null, keys, count, true);
+			}
+		});
+		final ISAACCipher snapshot = new ISAACCipher();
+		run("login, seed and copy back", packets, new Workload() {
+			public int run(ISAACCipher cipher, int count) {
+				return decode(cipher, snapshot, keys, count, true);
+			}
+		});
+	}
+
+	/**
+	 * Decodes packets spread over the logins, peeking at the packets after every login and going
+	 * back to it like ReplayReader.verifyLogin(), by seeding again or by copying a snapshot.
+	 */
+	private static int decode(
+			ISAACCipher cipher, ISAACCipher snapshot, int[][] keys, int packets, boolean seed) {
+		int perLogin = Math.max(1, packets / keys.length);
+		int sum = 0;
+		for (int i = 0; i < packets; i++) {
+			if (i % perLogin == 0) {
+				int[] key = keys[(i / perLogin) % keys.length];
+				seed(cipher, key, seed);
+				if (snapshot != null) snapshot.copyFrom(cipher);
+				for (int j = 0; j < PEEKED_PACKETS; j++) sum += cipher.getNextValue();
+				if (snapshot != null) cipher.copyFrom(snapshot);
+				else seed(cipher, key, seed);
+			}
+			sum += cipher.getNextValue();
+		}
+		return sum;
+	}
+
+	private static void seed(ISAACCipher cipher, int[] key, boolean seed) {
+		if (seed) {
+			cipher.seed(key);
+		} else {
+			cipher.reset();
+			cipher.setKeys(key);
+		}
+	}
+
+	private static void run(String name, int packets, Workload workload) {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		ISAACCipher cipher = new ISAACCipher();
+		long bestCpu = Long.MAX_VALUE;
+		for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+			long start = bean.getCurrentThreadCpuTime();
+			s_sink += workload.run(cipher, packets);
+			long cpu = bean.getCurrentThreadCpuTime() - start;
+			if (i >= WARMUP) bestCpu = Math.min(bestCpu, cpu);
+		}
+		System.out.println(
+				String.format(
+						"%-26s %8.2f ms cpu %8.2f ns/packet",
+						name, bestCpu / 1000000.0, (double) bestCpu / packets));
+	}
+}
@@ -0,0 +1,60 @@
+package Replay.common;
+
+import static org.junit.Assert.assertEquals;
+import java.util.Random;
+import org.junit.Test;
+
+public class ISAACCipherTest {
+	private static final int[] KEYS = { 0x12345678, 0x0BADF00D, -1, 42 };
+
+	@Test
+	public void testBulkMatchesSingleValues() {
+		ISAACCipher single = new ISAACCipher();
+		ISAACCipher bulk = new ISAACCipher();
+		single.seed(KEYS);
+		bulk.seed(KEYS);
+
+		// Lengths that cross the 256 value refills at different points
+		Random random = new Random(2);
+		int[] values = new int[700];
+		for (int i = 0; i < 50; i++) {
+			int length = random.nextInt(values.length);
+			bulk.getNextValues(values, 0, length);
+			for (int j = 0; j < length; j++) assertEquals(single.getNextValue(), values[j]);
+			assertEquals(single.getNextValue(), bulk.getNextValue());
+		}
+	}
+
+	@Test
+	public void testSeedMatchesResetAndSetKeys() {
+		ISAACCipher reset = new ISAACCipher();
+		ISAACCipher seeded = new ISAACCipher();
+		int[] other = { 1, 2, 3, 4, 5, 6, 7, 8 };
+		reset.setKeys(other);
+		seeded.setKeys(other);
+		for (int i = 0; i < 300; i++) {
+			reset.getNextValue();
+			seeded.getNextValue();
+		}
+
+		reset.reset();
+		reset.setKeys(KEYS);
+		seeded.seed(KEYS);
+		for (int i = 0; i < 1000; i++) assertEquals(reset.getNextValue(), seeded.getNextValue());
+	}
+
+	@Test
+	public void testCopyContinuesKeystream() {
+		ISAACCipher cipher = new ISAACCipher();
+		ISAACCipher snapshot = new ISAACCipher();
+		cipher.seed(KEYS);
+		for (int i = 0; i < 100; i++) cipher.getNextValue();
+
+		snapshot.copyFrom(cipher);
+		int[] expected = new int[600];
+		for (int i = 0; i < expected.length; i++) expected[i] = cipher.getNextValue();
+
+		cipher.copyFrom(snapshot);
+		for (int i = 0; i < expected.length; i++) assertEquals(expected[i], cipher.getNextValue());
+	}
+}
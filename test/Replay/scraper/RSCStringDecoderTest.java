@@ -0,0 +1,56 @@
+package Replay.scraper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import Replay.scraper.client.Class11;
+import java.util.Random;
+import org.junit.Test;
+
+public class RSCStringDecoderTest {
+	private final Class11 m_client = new Class11(ReplayPacket.STRING_CODE_LENGTHS);
+	private final RSCStringDecoder m_decoder = new RSCStringDecoder(ReplayPacket.STRING_CODE_LENGTHS);
+
+	@Test
+	public void testMatchesClient() {
+		// Every bit string is a valid encoding, so random bytes cover all codes and stopping points
+		Random random = new Random(4);
+		for (int i = 0; i < 5000; i++) {
+			int length = random.nextInt(i < 100 ? 4 : 300);
+			int offset = random.nextInt(8);
+			byte[] src = new byte[offset + (length * 22 + 7) / 8 + 1];
+			random.nextBytes(src);
+
+			byte[] expected = new byte[length + 2];
+			byte[] actual = new byte[length + 2];
+			int expectedCount = m_client.method240(src, 1, expected, true, offset, length);
+			int actualCount = m_decoder.decode(src, offset, actual, 1, length);
+			assertEquals(expectedCount, actualCount);
+			assertArrayEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public void testReadRSCString() {
+		Random random = new Random(5);
+		for (int length : new int[] { 0, 1, 80, 127, 128, 1000 }) {
+			byte[] encoded = new byte[(length * 22 + 7) / 8];
+			random.nextBytes(encoded);
+			byte[] decoded = new byte[length];
+			int count = m_client.method240(encoded, 0, decoded, true, 0, length);
+
+			ReplayPacket packet = new ReplayPacket();
+			int header = length < 128 ? 1 : 2;
+			packet.data = new byte[header + encoded.length + 1];
+			if (header == 1) {
+				packet.data[0] = (byte) length;
+			} else {
+				packet.data[0] = (byte) ((length + 32768) >> 8);
+				packet.data[1] = (byte) length;
+			}
+			System.arraycopy(encoded, 0, packet.data, header, encoded.length);
+
+			assertEquals(new String(decoded), packet.readRSCString());
+			assertEquals(header + count, packet.tell());
+		}
+	}
+}
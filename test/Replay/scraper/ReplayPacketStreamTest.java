@@ -0,0 +1,193 @@
+package Replay.scraper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import Replay.game.PacketBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplayPacketStreamTest {
+	private static final int LOGINS = 3;
+	private File m_folder;
+
+	@Before
+	public void setUp() throws IOException {
+		m_folder = File.createTempFile("replay", "");
+		m_folder.delete();
+		m_folder.mkdir();
+		writeReplay(m_folder);
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : m_folder.listFiles()) file.delete();
+		m_folder.delete();
+	}
+
+	@Test
+	public void testStreamMatchesImport() {
+		ReplayEditor imported = new ReplayEditor();
+		assertTrue(imported.importData(m_folder.getPath()));
+		ReplayPacketStore incoming = imported.getIncomingPackets();
+		ReplayPacketStore outgoing = imported.getOutgoingPackets();
+		assertTrue(incoming.size() > 100);
+		assertTrue(outgoing.size() > 100);
+
+		ReplayPacketStream stream = new ReplayEditor().openStream(m_folder.getPath());
+		assertNotNull(stream);
+		int incomingIndex = 0;
+		int outgoingIndex = 0;
+		int lastTimestamp = Integer.MIN_VALUE;
+		boolean lastIncoming = false;
+		ReplayPacketView packet;
+		while ((packet = stream.next()) != null) {
+			// Outgoing packets come first on the same timestamp
+			assertTrue(packet.timestamp >= lastTimestamp);
+			if (packet.timestamp == lastTimestamp && lastIncoming) assertTrue(stream.isIncoming());
+			lastTimestamp = packet.timestamp;
+			lastIncoming = stream.isIncoming();
+
+			ReplayPacket expected;
+			if (stream.isIncoming()) expected = incoming.get(incomingIndex++);
+			else expected = outgoing.get(outgoingIndex++);
+			assertEquals(expected.timestamp, packet.timestamp);
+			assertEquals(expected.opcode, packet.opcode);
+			assertTrue(Arrays.equals(expected.data, packet.copyData()));
+		}
+		assertNull(stream.next());
+		assertEquals(incoming.size(), incomingIndex);
+		assertEquals(outgoing.size(), outgoingIndex);
+	}
+
+	@Test
+	public void testLoginsAreSkewed() {
+		ReplayPacketStream stream = new ReplayEditor().openStream(m_folder.getPath());
+		int logins = 0;
+		int lastLogin = 0;
+		ReplayPacketView packet;
+		while ((packet = stream.next()) != null) {
+			if (!stream.isIncoming() || packet.opcode != ReplayEditor.VIRTUAL_OPCODE_CONNECT) continue;
+			if (logins > 0) assertTrue(packet.timestamp - lastLogin > 400);
+			lastLogin = packet.timestamp;
+			logins++;
+		}
+		assertEquals(LOGINS, logins);
+	}
+
+	@Test
+	public void testRestartFromKeyframes() {
+		ReplayPacketStream stream = new ReplayEditor().openStream(m_folder.getPath());
+		ArrayList<String> incoming = new ArrayList<String>();
+		ArrayList<String> outgoing = new ArrayList<String>();
+		ArrayList<Integer> outgoingTimestamps = new ArrayList<Integer>();
+		ArrayList<ReplayPacketStream.Keyframe> keyframes = new ArrayList<ReplayPacketStream.Keyframe>();
+		ArrayList<Integer> keyframeIncoming = new ArrayList<Integer>();
+		ReplayPacketView packet;
+		while ((packet = stream.next()) != null) {
+			if (stream.isIncoming()) {
+				if (packet.opcode == ReplayEditor.VIRTUAL_OPCODE_CONNECT) {
+					keyframes.add(stream.getKeyframe());
+					keyframeIncoming.add(incoming.size());
+				}
+				incoming.add(describe(packet));
+			} else {
+				outgoing.add(describe(packet));
+				outgoingTimestamps.add(packet.timestamp);
+			}
+		}
+		assertEquals(LOGINS, keyframes.size());
+
+		// Go backwards, so every restart has to reopen the files
+		for (int k = keyframes.size() - 1; k >= 0; k--) {
+			ReplayPacketStream.Keyframe keyframe = keyframes.get(k);
+			assertNotNull(keyframe);
+			assertTrue(stream.restart(keyframe));
+			int incomingIndex = keyframeIncoming.get(k);
+			int outgoingIndex = 0;
+			while (outgoingIndex < outgoing.size()
+					&& outgoingTimestamps.get(outgoingIndex) < keyframe.timestamp) outgoingIndex++;
+			while ((packet = stream.next()) != null) {
+				if (stream.isIncoming()) assertEquals(incoming.get(incomingIndex++), describe(packet));
+				else assertEquals(outgoing.get(outgoingIndex++), describe(packet));
+			}
+			assertEquals(incoming.size(), incomingIndex);
+			assertEquals(outgoing.size(), outgoingIndex);
+		}
+
+		assertTrue(stream.restart(null));
+		int count = 0;
+		while (stream.next() != null) count++;
+		assertEquals(incoming.size() + outgoing.size(), count);
+		stream.close();
+	}
+
+	@Test
+	public void testStoreViews() {
+		ReplayEditor editor = new ReplayEditor();
+		assertTrue(editor.importData(m_folder.getPath()));
+		ReplayPacketStore store = editor.getIncomingPackets();
+		ReplayPacketView view = new ReplayPacketView();
+		for (int i = 0; i < store.size(); i++) {
+			ReplayPacket expected = store.get(i);
+			store.view(i, view);
+			assertEquals(expected.timestamp, view.timestamp);
+			assertEquals(expected.opcode, view.opcode);
+			assertEquals(expected.data != null, view.hasData());
+			assertTrue(Arrays.equals(expected.data, view.copyData()));
+		}
+	}
+
+	private static String describe(ReplayPacketView packet) {
+		return packet.timestamp + ":" + packet.opcode + ":" + Arrays.toString(packet.copyData());
+	}
+
+	/** Writes a replay with a few logins, close enough together to be skewed apart */
+	private static void writeReplay(File folder) {
+		ReplayEditor editor = new ReplayEditor();
+		editor.getReplayVersion().version = 3;
+		editor.getReplayVersion().clientVersion = 235;
+		ReplayPacketStore incoming = editor.getIncomingPackets();
+		ReplayPacketStore outgoing = editor.getOutgoingPackets();
+		Random random = new Random(3);
+
+		int timestamp = 0;
+		for (int login = 0; login < LOGINS; login++) {
+			ReplayKeyPair keys = new ReplayKeyPair();
+			for (int i = 0; i < 4; i++) keys.keys[i] = random.nextInt();
+			editor.getKeyPairs().add(keys);
+
+			// What the reader looks for to find logins
+			byte[] loginData = new byte[200];
+			loginData[0] = 0x01;
+			loginData[4] = (byte) 0xEB;
+			outgoing.add(timestamp, ReplayEditor.VIRTUAL_OPCODE_CONNECT, loginData, 0, loginData.length);
+			incoming.add(timestamp, ReplayEditor.VIRTUAL_OPCODE_CONNECT, new byte[] {64}, 0, 1);
+			timestamp++;
+			incoming.add(timestamp, PacketBuilder.OPCODE_PRIVACY_SETTINGS, new byte[4], 0, 4);
+			byte[] welcome = new byte[25];
+			welcome[0] = 3;
+			System.arraycopy("Welcome".getBytes(), 0, welcome, 3, 7);
+			incoming.add(timestamp, PacketBuilder.OPCODE_SEND_MESSAGE, welcome, 0, welcome.length);
+
+			for (int i = 0; i < 100; i++) {
+				timestamp += random.nextInt(3);
+				byte[] data = new byte[random.nextInt(4) == 0 ? 160 + random.nextInt(300) : 1 + random.nextInt(20)];
+				for (int j = 0; j < data.length; j++) data[j] = (byte) (0x80 | random.nextInt(128));
+				if (random.nextBoolean()) incoming.add(timestamp, 200 + random.nextInt(50), data, 0, data.length);
+				else outgoing.add(timestamp, 200 + random.nextInt(50), data, 0, data.length);
+				if (random.nextInt(10) == 0) incoming.add(timestamp, 210, null, 0, -1);
+			}
+			timestamp += 100;
+		}
+
+		editor.exportData(folder.getPath());
+	}
+}